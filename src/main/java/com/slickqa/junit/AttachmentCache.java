@@ -0,0 +1,172 @@
+package com.slickqa.junit;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.slickqa.client.model.StoredFile;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Remembers the files uploaded to slick by a hash of their contents (and their name and mime type), so a file
+ * that was already uploaded is added to results by reference instead of being uploaded again.  Uploads that are
+ * still running are shared too: two tests adding the same file at the same time upload it once.
+ *
+ * The cache lasts for the run, unless it is given a file, in which case it is loaded from and saved to that file
+ * so the next run can reuse the uploads.  A cache file written for another slick, or older than the maximum age,
+ * is ignored.  Every JVM of the run (surefire forks) adds what it uploaded to the file when it saves.
+ */
+public class AttachmentCache {
+    public static final long DEFAULT_MAX_AGE_HOURS = 7 * 24;
+
+    /**
+     * The contents of the cache file.
+     */
+    public static class Contents {
+        public String baseUrl;
+        public long created;
+        public Map<String, StoredFile> files = new HashMap<>();
+    }
+
+    protected final Path file;
+    protected final String baseUrl;
+    protected final long maxAgeMillis;
+    protected final ObjectMapper mapper;
+    protected final ConcurrentMap<String, Future<StoredFile>> files;
+    protected final Map<String, StoredFile> changed;
+    protected long created;
+
+    /**
+     * @param file the file to keep the cache in between runs, or null to only cache for this run
+     * @param baseUrl the url of slick the files are uploaded to
+     * @param maxAgeHours how long a cache file is trusted after it was first written
+     */
+    public AttachmentCache(Path file, String baseUrl, long maxAgeHours) {
+        this.file = file != null ? file.toAbsolutePath() : null;
+        this.baseUrl = baseUrl;
+        this.maxAgeMillis = TimeUnit.HOURS.toMillis(maxAgeHours);
+        this.mapper = new ObjectMapper();
+        this.mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.files = new ConcurrentHashMap<>();
+        this.changed = new ConcurrentHashMap<>();
+        this.created = System.currentTimeMillis();
+    }
+
+    /**
+     * Load the cache file, if there is one.  An invalid, missing or unreadable file leaves the cache empty.
+     */
+    public void load() {
+        Contents contents = readIfValid();
+        if(contents != null) {
+            created = contents.created;
+            for(Map.Entry<String, StoredFile> entry : contents.files.entrySet()) {
+                files.putIfAbsent(entry.getKey(), completed(entry.getValue()));
+            }
+        }
+    }
+
+    protected Contents readIfValid() {
+        if(file == null || !Files.isReadable(file)) {
+            return null;
+        }
+        try {
+            Contents contents = mapper.readValue(file.toFile(), Contents.class);
+            if(contents != null && contents.files != null && baseUrl != null && baseUrl.equals(contents.baseUrl) &&
+               System.currentTimeMillis() - contents.created < maxAgeMillis) {
+                return contents;
+            }
+        } catch (IOException e) {
+            System.err.println("!! WARNING: ignoring unreadable slick file cache " + file + ": " + e.getMessage() + " !!");
+        }
+        return null;
+    }
+
+    /**
+     * The key for a file in the cache.
+     *
+     * @param digest the SHA-256 of the contents
+     * @param filename the name the file is uploaded with
+     * @param mimetype the mime type it is uploaded with, or null if slick decides
+     * @return the key
+     */
+    public static String key(byte[] digest, String filename, String mimetype) {
+        StringBuilder key = new StringBuilder(digest.length * 2 + filename.length() + 32);
+        for(byte b : digest) {
+            key.append(String.format("%02x", b));
+        }
+        return key.append('/').append(filename).append('/').append(mimetype == null ? "" : mimetype).toString();
+    }
+
+    /**
+     * Get the upload for a file, or make the given one the upload for it.
+     *
+     * @param key the key of the file
+     * @param upload the upload to use if the file hasn't been uploaded yet
+     * @return the earlier upload, or null if the given one should run
+     */
+    public Future<StoredFile> putIfAbsent(String key, Future<StoredFile> upload) {
+        return files.putIfAbsent(key, upload);
+    }
+
+    /**
+     * Record how an upload went: a file that was uploaded is remembered (in the cache file too), a failed one is
+     * forgotten so the next copy is uploaded again.
+     *
+     * @param key the key of the file
+     * @param upload the upload
+     * @param stored the stored file, or null if the upload failed
+     */
+    public void uploaded(String key, Future<StoredFile> upload, StoredFile stored) {
+        if(stored == null) {
+            files.remove(key, upload);
+        } else if(file != null) {
+            changed.put(key, stored);
+        }
+    }
+
+    /**
+     * Write the files uploaded in this JVM to the cache file, merging them with what other JVMs may have written.
+     */
+    public synchronized void save() {
+        if(file == null || changed.isEmpty()) {
+            return;
+        }
+        final Map<String, StoredFile> saving = new HashMap<>(changed);
+        try {
+            LockedJsonFile.write(file, mapper, new LockedJsonFile.Contents() {
+                @Override
+                public Object build() {
+                    Contents contents = readIfValid();
+                    if(contents == null) {
+                        contents = new Contents();
+                        contents.baseUrl = baseUrl;
+                        contents.created = created;
+                    }
+                    contents.files.putAll(saving);
+                    return contents;
+                }
+            });
+            for(Map.Entry<String, StoredFile> saved : saving.entrySet()) {
+                changed.remove(saved.getKey(), saved.getValue());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("!! ERROR: unable to save slick file cache " + file + " !!");
+        }
+    }
+
+    protected static Future<StoredFile> completed(final StoredFile stored) {
+        FutureTask<StoredFile> done = new FutureTask<>(new Callable<StoredFile>() {
+            @Override
+            public StoredFile call() {
+                return stored;
+            }
+        });
+        done.run();
+        return done;
+    }
+}
@@ -0,0 +1,492 @@
+package com.slickqa.junit;
+
+import com.slickqa.client.errors.SlickError;
+import com.slickqa.client.model.LogEntry;
+import com.slickqa.client.model.StoredFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.*;
+
+/**
+ * Uploads the files added to results on a bounded pool of background threads, and adds them to their result all
+ * at once when the result is committed (at the end of the test, or when the test asks for it).  That is one read
+ * and one update of the result per test instead of per file, and files added from several threads can't overwrite
+ * each other.
+ *
+ * A file is copied to a staging directory before addFile returns, so a test can delete or overwrite it (or close
+ * the stream) right away, just like when it was uploaded on the spot.  Files are copied by the kernel where it can,
+ * and hashing them for the cache is left to the upload threads.  The files of a result are added to it in the order
+ * they were added, and failures are reported with the same messages as before.
+ *
+ * With an AttachmentCache, files are hashed before they are uploaded, and a file that was already uploaded (or is
+ * being uploaded) is added by reference instead of uploaded again.  With an ImageOptimizer, images are made smaller
+ * before they are uploaded, and what that saved is logged to the result when it is committed.
+ *
+ * With retained statuses, files are only staged when they are added.  They are uploaded when the result is
+ * committed with one of those statuses, and their staged copies are deleted without being sent anywhere when it
+ * ends with any other, or when the JVM exits before it ends.
+ */
+public class AttachmentQueue {
+    public static final int STAGING_BUFFER_SIZE = 64 * 1024;
+
+    protected final SlickJunitController controller;
+    protected final ExecutorService pool;
+    protected final ConcurrentMap<String, Uploads> pending;
+    protected final AttachmentCache cache;
+    protected final ImageOptimizer imageOptimizer;
+    protected final Set<String> retainedStatuses;
+
+    /**
+     * The uploads queued for one result since it was last committed.  When only some statuses are retained the
+     * files wait in held until the status is known.
+     */
+    protected static class Uploads {
+        final List<Future<StoredFile>> files = new ArrayList<>();
+        final List<StagedUpload> held = new ArrayList<>();
+        boolean committed = false;
+    }
+
+    /**
+     * An upload that removes it's staged copy and tells the cache how it went when it is done.
+     */
+    protected class Upload extends FutureTask<StoredFile> {
+        final StagedUpload upload;
+
+        Upload(StagedUpload upload) {
+            super(upload);
+            this.upload = upload;
+            upload.task = this;
+        }
+
+        @Override
+        protected void set(StoredFile stored) {
+            finish(stored);
+            super.set(stored);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            finish(null);
+            super.setException(t);
+        }
+
+        void finish(StoredFile stored) {
+            upload.discard();
+            if(upload.cached) {
+                cache.uploaded(upload.key, this, stored);
+            }
+        }
+    }
+
+    /**
+     * Uploads a staged file, through the image optimizer if there is one.  A file that is already uploaded, or being
+     * uploaded, according to the cache isn't uploaded again.
+     */
+    protected class StagedUpload implements Callable<StoredFile> {
+        final Path staged;
+        final String filename;
+        final String mimetype;
+        final String name;
+        String key;
+        boolean hashed;
+        boolean discarded;
+        volatile Upload task;
+        volatile boolean cached;
+        volatile ImageOptimizer.Optimized optimized;
+
+        /**
+         * @param staged the staged copy of the file
+         * @param key the cache key of the staged copy, or null if there is no cache or it is hashed when uploaded
+         */
+        StagedUpload(Path staged, String key, String filename, String mimetype, String name) {
+            this.staged = staged;
+            this.key = key;
+            this.filename = filename;
+            this.mimetype = mimetype;
+            this.name = name;
+            this.hashed = key != null || cache == null;
+        }
+
+        /**
+         * Hash the staged copy for the cache, if that hasn't happened yet.
+         *
+         * @return true if the file can be uploaded, false if it can't be read or was discarded
+         */
+        synchronized boolean hash() {
+            if(!hashed && !discarded) {
+                hashed = true;
+                try {
+                    byte[] digest = AttachmentQueue.this.hash(staged);
+                    key = digest != null ? AttachmentCache.key(digest, filename, mimetype) : null;
+                } catch (IOException | RuntimeException e) {
+                    e.printStackTrace();
+                    System.err.println("!! ERROR: unable to upload file " + name + " !!");
+                    discard();
+                }
+            }
+            return !discarded;
+        }
+
+        /**
+         * Delete the staged copy.
+         */
+        synchronized void discard() {
+            discarded = true;
+            deleteStaged(staged);
+        }
+
+        @Override
+        public StoredFile call() throws Exception {
+            if(!hash()) {
+                return null;
+            }
+            if(key != null) {
+                Future<StoredFile> existing = cache.putIfAbsent(key, task);
+                if(existing != null) {
+                    // it's running on another upload thread, or done
+                    discard();
+                    return existing.get();
+                }
+                cached = true;
+            }
+            try {
+                if(imageOptimizer != null) {
+                    optimized = imageOptimizer.optimize(staged, filename, mimetype);
+                    if(optimized != null) {
+                        return controller.uploadFile(optimized.path, optimized.filename, "image/jpeg");
+                    }
+                }
+                return controller.uploadFile(staged, filename, mimetype);
+            } catch (SlickError | RuntimeException e) {
+                e.printStackTrace();
+                System.err.println("!! ERROR: unable to upload file " + name + " !!");
+                return null;
+            }
+        }
+    }
+
+    public AttachmentQueue(SlickJunitController controller, int threads) {
+        this(controller, threads, null, null, null);
+    }
+
+    /**
+     * @param controller the controller to upload with
+     * @param threads how many files are uploaded at once
+     * @param cache the cache of uploaded files, or null to upload every file
+     * @param imageOptimizer the optimizer for images, or null to upload images as they are
+     * @param retainedStatuses the result statuses files are uploaded for, or null to upload them right away
+     */
+    public AttachmentQueue(SlickJunitController controller, int threads, AttachmentCache cache, ImageOptimizer imageOptimizer,
+                           Set<String> retainedStatuses) {
+        this.controller = controller;
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), new SlickThreadFactory("slick-files"));
+        this.pending = new ConcurrentHashMap<>();
+        this.cache = cache;
+        this.imageOptimizer = imageOptimizer;
+        this.retainedStatuses = retainedStatuses;
+    }
+
+    /**
+     * Queue a file for upload.
+     *
+     * @param resultId the result to add the file to
+     * @param localPath the file
+     */
+    public void add(String resultId, Path localPath) {
+        Path staged;
+        try {
+            staged = Files.createTempDirectory("slick-file-").resolve(localPath.getFileName().toString());
+            snapshot(localPath, staged);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            System.err.println("!! ERROR: unable to upload file " + localPath.toString() + " !!");
+            return;
+        }
+        // hashing for the cache reads the whole file, it is left to the upload threads
+        queue(resultId, new StagedUpload(staged, null, staged.getFileName().toString(), null, localPath.toString()));
+    }
+
+    /**
+     * Queue the contents of a stream for upload.  The stream is read before this returns.
+     *
+     * @param resultId the result to add the file to
+     * @param filename the name of the file
+     * @param mimetype the mime type of the file
+     * @param inputStream the contents of the file
+     */
+    public void add(String resultId, String filename, String mimetype, InputStream inputStream) {
+        Path staged;
+        String key;
+        try {
+            staged = Files.createTempDirectory("slick-file-").resolve("contents");
+            MessageDigest digest = newDigest();
+            Files.copy(digest != null ? new DigestInputStream(inputStream, digest) : inputStream, staged);
+            key = digest != null ? AttachmentCache.key(digest.digest(), filename, mimetype) : null;
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            System.err.println("!! ERROR: unable to upload file " + filename + " !!");
+            return;
+        }
+        queue(resultId, new StagedUpload(staged, key, filename, mimetype, filename));
+    }
+
+    /**
+     * Copy a file to the staging directory, so the test can overwrite or delete it as soon as addFile returns.
+     * The copy is made channel to channel, which lets the kernel do it (sharing the blocks, where the file system
+     * can) instead of moving the contents through the JVM.  A hard link would be cheaper still, but a test that
+     * writes it's file again in place would change the staged copy with it.
+     */
+    protected void snapshot(Path source, Path staged) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(staged, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long position = 0;
+            while(position < size) {
+                long transferred = in.transferTo(position, size - position, out);
+                if(transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+        }
+    }
+
+    /**
+     * Hash a staged file for the cache.
+     *
+     * @return the SHA-256 of the file, or null if there is no cache
+     */
+    protected byte[] hash(Path staged) throws IOException {
+        MessageDigest digest = newDigest();
+        if(digest == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(STAGING_BUFFER_SIZE);
+        try (FileChannel in = FileChannel.open(staged, StandardOpenOption.READ)) {
+            while(in.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return digest.digest();
+    }
+
+    protected MessageDigest newDigest() {
+        if(cache == null) {
+            return null;
+        }
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every java has SHA-256
+            return null;
+        }
+    }
+
+    /**
+     * Queue an upload for a result (or hold it, if only some statuses are retained).
+     */
+    protected void queue(String resultId, StagedUpload upload) {
+        if(retainedStatuses != null) {
+            addToResult(resultId, null, upload);
+        } else {
+            addToResult(resultId, start(upload), null);
+        }
+    }
+
+    /**
+     * Start an upload.
+     */
+    protected Future<StoredFile> start(StagedUpload upload) {
+        Upload task = new Upload(upload);
+        pool.execute(task);
+        return task;
+    }
+
+    protected void addToResult(String resultId, Future<StoredFile> upload, StagedUpload held) {
+        while(true) {
+            Uploads uploads = pending.get(resultId);
+            if(uploads == null) {
+                Uploads created = new Uploads();
+                uploads = pending.putIfAbsent(resultId, created);
+                if(uploads == null) {
+                    uploads = created;
+                }
+            }
+            synchronized (uploads) {
+                // a commit took this one from the map while we were getting it, start the next one
+                if(!uploads.committed) {
+                    if(held != null) {
+                        uploads.held.add(held);
+                    } else {
+                        uploads.files.add(upload);
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait for the queued uploads of a result and add the files to it with one update.  Held files stay held
+     * until the result is committed with it's status.
+     *
+     * @param resultId the result
+     */
+    public void commit(String resultId) {
+        commit(resultId, null);
+    }
+
+    /**
+     * Wait for the queued uploads of a result and add the files to it with one update.  Held files are uploaded
+     * first if the status is retained, and deleted if it isn't.
+     *
+     * @param resultId the result
+     * @param status the status the result ended with, or null if it hasn't ended
+     */
+    public void commit(String resultId, String status) {
+        if(retainedStatuses != null && status == null) {
+            return;
+        }
+        Uploads uploads = pending.remove(resultId);
+        if(uploads == null) {
+            return;
+        }
+        List<Future<StoredFile>> queued;
+        List<StagedUpload> held;
+        synchronized (uploads) {
+            uploads.committed = true;
+            queued = uploads.files;
+            held = uploads.held;
+        }
+        boolean retained = retainedStatuses != null && retainedStatuses.contains(status.toUpperCase(Locale.ENGLISH));
+        for(StagedUpload file : held) {
+            if(retained) {
+                queued.add(start(file));
+            } else {
+                file.discard();
+            }
+        }
+        List<StoredFile> files = new ArrayList<>();
+        List<LogEntry> optimized = new ArrayList<>();
+        for(Future<StoredFile> upload : queued) {
+            try {
+                StoredFile file = upload.get();
+                if(file != null) {
+                    files.add(file);
+                    if(upload instanceof Upload && ((Upload) upload).upload.optimized != null) {
+                        LogEntry entry = new LogEntry();
+                        entry.setEntryTime(new Date());
+                        entry.setLevel("INFO");
+                        entry.setLoggerName("slick");
+                        entry.setMessage(((Upload) upload).upload.optimized.describe());
+                        optimized.add(entry);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                // the upload reported it's own errors
+            }
+        }
+        if(files.isEmpty()) {
+            return;
+        }
+        try {
+            controller.addFilesToResult(resultId, files);
+        } catch (SlickError | RuntimeException e) {
+            e.printStackTrace();
+            System.err.println("!! ERROR: adding file to result " + resultId + " !!");
+        }
+        if(!optimized.isEmpty()) {
+            try {
+                controller.addLogs(resultId, optimized);
+            } catch (SlickError | RuntimeException e) {
+                e.printStackTrace();
+                System.err.println("!! ERROR: Unable to post logs to slick !!");
+            }
+        }
+    }
+
+    /**
+     * Delete the staged copies of the files still held for results that were never committed with a status.
+     */
+    public void discardHeld() {
+        for(String resultId : pending.keySet()) {
+            Uploads uploads = pending.get(resultId);
+            if(uploads == null) {
+                continue;
+            }
+            List<StagedUpload> held;
+            synchronized (uploads) {
+                held = new ArrayList<>(uploads.held);
+                uploads.held.clear();
+            }
+            for(StagedUpload file : held) {
+                file.discard();
+            }
+        }
+    }
+
+    /**
+     * Register a shutdown hook that deletes the staged copies of held files nobody is going to commit.
+     */
+    public void discardHeldOnShutdown() {
+        Runtime.getRuntime().addShutdownHook(new Thread("slick-files-discard") {
+            @Override
+            public void run() {
+                discardHeld();
+            }
+        });
+    }
+
+    protected static void deleteStaged(Path staged) {
+        try {
+            // the staging directory also holds what was made from the file, an optimized image for one
+            try (DirectoryStream<Path> made = Files.newDirectoryStream(staged.getParent())) {
+                for(Path path : made) {
+                    Files.deleteIfExists(path);
+                }
+            }
+            Files.deleteIfExists(staged.getParent());
+        } catch (IOException e) {
+            // it's in the temp directory, leave it
+        }
+    }
+
+    /**
+     * Parse a comma separated list of statuses.
+     *
+     * @return the statuses in upper case, or null if there are none
+     */
+    public static Set<String> parseStatuses(String statuses) {
+        if(statuses == null) {
+            return null;
+        }
+        Set<String> parsed = new HashSet<>();
+        for(String status : statuses.split(",")) {
+            if(!status.trim().isEmpty()) {
+                parsed.add(status.trim().toUpperCase(Locale.ENGLISH));
+            }
+        }
+        return parsed.isEmpty() ? null : parsed;
+    }
+}
@@ -0,0 +1,190 @@
+package com.slickqa.junit;
+
+import com.slickqa.client.SlickClient;
+import com.slickqa.client.errors.SlickError;
+import com.slickqa.client.model.Component;
+import com.slickqa.client.model.Feature;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The components (and their features) of the project, indexed by name.  Components and features missing from
+ * slick are created on first use, and the registry is updated from the create responses instead of fetching the
+ * whole project again.
+ *
+ * Creation is single flight: when several threads need the same missing component only one of them creates it
+ * and the others wait for it's result.  Adding a feature replaces the component's list of features in slick, so
+ * features are added to a component one at a time, to the component as it is in slick right then (the registry may
+ * be older than that, seeded from a project snapshot for example).
+ */
+public class ComponentRegistry {
+
+    /**
+     * A component along with it's features by name.  Entries are never changed once they are in the registry,
+     * they are replaced.
+     */
+    protected static class Entry {
+        final Component component;
+        final Map<String, Feature> features;
+
+        Entry(Component component) {
+            this.component = component;
+            Map<String, Feature> byName = new HashMap<>();
+            if(component.getFeatures() != null) {
+                for(Feature feature : component.getFeatures()) {
+                    if(feature.getName() != null && !byName.containsKey(feature.getName())) {
+                        byName.put(feature.getName(), feature);
+                    }
+                }
+            }
+            this.features = Collections.unmodifiableMap(byName);
+        }
+    }
+
+    protected final SlickClient slickClient;
+    protected final String projectId;
+    protected final ConcurrentMap<String, Entry> components;
+    protected final ConcurrentMap<String, FutureTask<Entry>> creating;
+    protected final ConcurrentMap<String, Object> featureLocks;
+
+    public ComponentRegistry(SlickClient slickClient, String projectId, List<Component> existing) {
+        this.slickClient = slickClient;
+        this.projectId = projectId;
+        this.components = new ConcurrentHashMap<>();
+        this.creating = new ConcurrentHashMap<>();
+        this.featureLocks = new ConcurrentHashMap<>();
+        refresh(existing);
+    }
+
+    /**
+     * Replace the components in the registry with the ones in slick, which may have been created or given features
+     * (by other JVMs for example) since the registry was seeded.  Components the registry has that aren't in the
+     * list are kept.
+     *
+     * @param current components as they are in slick, may be null
+     */
+    public void refresh(List<Component> current) {
+        if(current != null) {
+            for(Component component : current) {
+                if(component.getName() != null) {
+                    components.put(component.getName(), new Entry(component));
+                }
+            }
+        }
+    }
+
+    /**
+     * Get a component by name, creating it in slick if it doesn't exist.
+     *
+     * @param name the name of the component
+     * @return the component
+     * @throws SlickError if the component had to be created and that failed
+     */
+    public Component getOrCreateComponent(final String name) throws SlickError {
+        Entry entry = components.get(name);
+        if(entry != null) {
+            return entry.component;
+        }
+        FutureTask<Entry> task = new FutureTask<>(new Callable<Entry>() {
+            @Override
+            public Entry call() throws Exception {
+                // an earlier creation may have finished (and left creating) since components was checked above
+                Entry existing = components.get(name);
+                if(existing != null) {
+                    return existing;
+                }
+                Component component = new Component();
+                component.setName(name);
+                Entry created = new Entry(slickClient.project(projectId).components().create(component));
+                components.put(name, created);
+                return created;
+            }
+        });
+        FutureTask<Entry> inFlight = creating.putIfAbsent(name, task);
+        if(inFlight == null) {
+            inFlight = task;
+            task.run();
+        }
+        try {
+            return SlickFutures.getUninterruptibly(inFlight).component;
+        } catch (ExecutionException e) {
+            creating.remove(name, inFlight);
+            throw SlickFutures.asSlickError("Unable to create component " + name, e);
+        } finally {
+            if(components.containsKey(name)) {
+                creating.remove(name, inFlight);
+            }
+        }
+    }
+
+    /**
+     * Get a feature of a component by name, adding it to the component in slick if it doesn't exist.
+     *
+     * @param componentName the name of the component, which must already be in the registry
+     * @param featureName the name of the feature
+     * @return the feature, or null if slick didn't return it after adding it
+     * @throws SlickError if the feature had to be added and that failed
+     */
+    public Feature getOrCreateFeature(String componentName, String featureName) throws SlickError {
+        Entry entry = components.get(componentName);
+        if(entry == null) {
+            throw new SlickError("Component " + componentName + " is not known, can't add feature " + featureName);
+        }
+        Feature feature = entry.features.get(featureName);
+        if(feature != null) {
+            return feature;
+        }
+        Object lock = new Object();
+        Object existingLock = featureLocks.putIfAbsent(componentName, lock);
+        if(existingLock != null) {
+            lock = existingLock;
+        }
+        synchronized (lock) {
+            entry = components.get(componentName);
+            feature = entry.features.get(featureName);
+            if(feature == null) {
+                // the update replaces the features in slick, so start from the ones slick has, not the registry's
+                Entry current = new Entry(slickClient.project(projectId).component(entry.component.getId()).get());
+                components.put(componentName, current);
+                feature = current.features.get(featureName);
+                if(feature != null) {
+                    return feature;
+                }
+                Component update = copyOf(current.component);
+                feature = new Feature();
+                feature.setName(featureName);
+                update.getFeatures().add(feature);
+                Entry updated = new Entry(slickClient.project(projectId).component(update.getId()).update(update));
+                components.put(componentName, updated);
+                feature = updated.features.get(featureName);
+            }
+            return feature;
+        }
+    }
+
+    /**
+     * @return the components currently in the registry
+     */
+    public List<Component> getComponents() {
+        List<Component> retval = new ArrayList<>(components.size());
+        for(Entry entry : components.values()) {
+            retval.add(entry.component);
+        }
+        return retval;
+    }
+
+    protected static Component copyOf(Component component) {
+        Component copy = new Component();
+        copy.setId(component.getId());
+        copy.setName(component.getName());
+        copy.setCode(component.getCode());
+        copy.setDescription(component.getDescription());
+        copy.setFeatures(component.getFeatures() == null ? new ArrayList<Feature>(1) : new ArrayList<>(component.getFeatures()));
+        return copy;
+    }
+}
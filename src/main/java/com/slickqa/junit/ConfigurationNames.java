@@ -36,4 +36,237 @@ public class ConfigurationNames {
      * If both are missing then a combination of the date and time will be used.
      */
     static public final String TESTRUN_NAME = "slick.testrun";
+
+    /**
+     * The id of an existing testrun to report to instead of creating one, SlickJournalReplay uses it to resume a
+     * journal.  Not set by default.
+     */
+    static public final String TESTRUN_ID = "slick.testrun.id";
+
+    /**
+     * The number of worker threads used to register results for a suite before it runs.  Defaults to 4, use 1 to
+     * register results one at a time on the calling thread.
+     */
+    static public final String REGISTRATION_THREADS = "slick.registration.threads";
+
+    /**
+     * The number of tests handed to a registration worker at a time.  Defaults to 25.
+     */
+    static public final String REGISTRATION_BATCH_SIZE = "slick.registration.batchsize";
+
+    /**
+     * Set to false to stop the controller from loading all of the project's junit testcases when it starts.
+     * With the index loaded, registering a result doesn't need to look up it's testcase, and the testcase is
+     * only updated when it's metadata changed.  With the testcase cache the testcases are loaded when the first
+     * test that isn't in the cache registers it's result.  Defaults to true.
+     */
+    static public final String TESTCASE_PREFETCH = "slick.testcase.prefetch";
+
+    /**
+     * Set to true to remember between runs which testcase each test was registered with, in
+     * target/slick-testcase-cache.json.  Tests whose SlickMetaData didn't change since the cache was written skip
+     * the testcase lookup and update.  Defaults to false.
+     */
+    static public final String TESTCASE_CACHE = "slick.cache";
+
+    /**
+     * The path of the testcase cache file, setting this turns on the cache.
+     */
+    static public final String TESTCASE_CACHE_FILE = "slick.cache.file";
+
+    /**
+     * An arbitrary value stored in the testcase cache, a cache written with a different epoch is ignored.  Change
+     * it to throw away the cache everywhere it is used.
+     */
+    static public final String TESTCASE_CACHE_EPOCH = "slick.cache.epoch";
+
+    /**
+     * The number of hours a testcase cache file is trusted after it was first written.  Defaults to 168 (a week).
+     */
+    static public final String TESTCASE_CACHE_MAX_AGE = "slick.cache.maxage";
+
+    /**
+     * Set to true to send result status changes to slick from background threads instead of from the test.
+     * Defaults to false.
+     */
+    static public final String ASYNC_UPDATES = "slick.async";
+
+    /**
+     * The number of background threads sending result updates when slick.async is on.  Defaults to 4.
+     */
+    static public final String ASYNC_UPDATE_THREADS = "slick.async.threads";
+
+    /**
+     * The number of seconds to wait at JVM exit for queued result updates to be sent.  Defaults to 30.
+     */
+    static public final String ASYNC_SHUTDOWN_TIMEOUT = "slick.async.shutdown.timeout";
+
+    /**
+     * The number of milliseconds to hold back setting a result to RUNNING.  If the test finishes within that
+     * time the RUNNING and final status are sent to slick as one update.  Defaults to 0 (don't hold it back).
+     */
+    static public final String COALESCE_WINDOW = "slick.coalesce.window";
+
+    /**
+     * The number of threads a SlickParallelSuite runs it's tests on.  Overrides the suite's Parallelism annotation,
+     * and defaults to the number of processors.
+     */
+    static public final String PARALLEL_THREADS = "slick.parallel.threads";
+
+    /**
+     * Set to true to have a SlickParallelSuite run the methods of each test class in parallel as well as the
+     * classes.  Overrides the suite's Parallelism annotation.
+     */
+    static public final String PARALLEL_METHODS = "slick.parallel.methods";
+
+    /**
+     * A directory to spool results to instead of sending them to slick.  Every JVM writes it's own journal file to
+     * the directory, use SlickJournalReplay to send the journals to slick later.
+     */
+    static public final String SPOOL_DIRECTORY = "slick.spool";
+
+    /**
+     * Set to true to only spool results (to slick.spool) when slick can't be reached at startup.  Defaults to false.
+     */
+    static public final String SPOOL_FALLBACK = "slick.spool.fallback";
+
+    /**
+     * Set to true to send log entries to slick from a background thread instead of the test thread.  Defaults to
+     * false.
+     */
+    static public final String ASYNC_LOGS = "slick.logs.async";
+
+    /**
+     * How many log entries can wait to be sent by the background log shipper.  Defaults to 8192.
+     */
+    static public final String ASYNC_LOGS_BUFFER_SIZE = "slick.logs.buffer";
+
+    /**
+     * What to do when the background log shipper's buffer is full: BLOCK (wait for room), DROP_OLDEST or
+     * DROP_NEWEST.  Defaults to BLOCK.
+     */
+    static public final String ASYNC_LOGS_OVERFLOW = "slick.logs.overflow";
+
+    /**
+     * The longest (in milliseconds) a log entry waits in the background log shipper before it is sent.  Defaults
+     * to 1000.
+     */
+    static public final String ASYNC_LOGS_MAX_LATENCY = "slick.logs.latency";
+
+    /**
+     * Set to true to keep log entries below WARN in memory and only send them to slick when a test fails.  WARN and
+     * ERROR entries are sent as usual.  Defaults to false.
+     */
+    static public final String CAPTURE_LOGS = "slick.logs.capture";
+
+    /**
+     * How many entries below WARN are kept in memory for each test when slick.logs.capture is on, older entries
+     * are discarded.  Defaults to 2000.
+     */
+    static public final String CAPTURE_LOGS_SIZE = "slick.logs.capture.size";
+
+    /**
+     * Set to true to also send the captured log entries of skipped tests.  Defaults to false.
+     */
+    static public final String CAPTURE_LOGS_SKIPPED = "slick.logs.capture.skipped";
+
+    /**
+     * Milliseconds after a log entry is sent during which entries with the same level and format are counted instead
+     * of sent.  The count (with the times of the first and last) is sent as one entry.  Defaults to 0 (off).
+     */
+    static public final String COLLAPSE_LOGS_WINDOW = "slick.logs.collapse.window";
+
+    /**
+     * The most log entries with the same level and format a test sends per second, the rest are counted and sent as
+     * one entry.  Defaults to 0 (no limit).
+     */
+    static public final String LOGS_RATE_LIMIT = "slick.logs.ratelimit";
+
+    /**
+     * Once a test has logged this many bytes (roughly), the rest of it's log entries are written to a gzip
+     * compressed file of JSON lines, which is attached to the result when the test ends.  Defaults to 0 (off).
+     */
+    static public final String BULK_LOGS_THRESHOLD = "slick.logs.bulk.threshold";
+
+    /**
+     * Set to true to send exceptions in a compact form: framework frames are trimmed, causes and suppressed
+     * exceptions are included, and a stack trace already logged in the run is logged as a reference to the first
+     * one.  Defaults to false, which sends exceptions the way printStackTrace shows them.
+     */
+    static public final String COMPACT_EXCEPTIONS = "slick.exceptions.compact";
+
+    /**
+     * Set to true to group failures by signature.  Every failure reason is then tagged with a failure cluster id,
+     * only the first failure of a cluster carries the stack trace, and a summary of the clusters is attached to the
+     * testrun when the run ends.  Defaults to false.
+     */
+    static public final String FAILURE_CLUSTERS = "slick.failures.cluster";
+
+    /**
+     * The number of background threads uploading files added to results.  The files of a test are added to it's
+     * result with one update when the test ends.  Defaults to 4.
+     */
+    static public final String FILE_UPLOAD_THREADS = "slick.files.threads";
+
+    /**
+     * Set to false to upload every file added to a result, even when the same file (same contents, name and mime
+     * type) was already uploaded in the run.  Defaults to true.
+     */
+    static public final String FILE_DEDUPE = "slick.files.dedupe";
+
+    /**
+     * The path of a file to remember uploaded files in between runs, so later runs add them by reference too.
+     * Setting this turns on deduplication.
+     */
+    static public final String FILE_CACHE_FILE = "slick.files.cache.file";
+
+    /**
+     * Files of compressible types (text, json, xml, HAR and the like) at least this many bytes are gzipped while
+     * they are uploaded, and stored with .gz added to their name.  0 turns compression off.  Defaults to 1048576.
+     */
+    static public final String FILE_COMPRESS_THRESHOLD = "slick.files.compress.threshold";
+
+    /**
+     * Set to true to make png, bmp and jpeg images added to results smaller before they are uploaded: they are
+     * scaled down to slick.files.images.maxsize and re-encoded as JPEGs without metadata.  What it saved is logged
+     * to the result.  Defaults to false.
+     */
+    static public final String OPTIMIZE_IMAGES = "slick.files.images";
+
+    /**
+     * The largest width or height of an optimized image, larger images are scaled down to fit.  0 keeps the size.
+     * Defaults to 1920.
+     */
+    static public final String OPTIMIZE_IMAGES_MAX_SIZE = "slick.files.images.maxsize";
+
+    /**
+     * The JPEG quality (1 to 100) of optimized images.  Defaults to 80.
+     */
+    static public final String OPTIMIZE_IMAGES_QUALITY = "slick.files.images.quality";
+
+    /**
+     * Comma separated result statuses (FAIL for example) to upload the files added to tests for.  Files are only
+     * staged locally until the test ends, and the files of tests that end with any other status are discarded
+     * without being uploaded.  Defaults to empty, which uploads every file as it is added.
+     */
+    static public final String FILE_RETAINED_STATUSES = "slick.files.retain";
+
+    /**
+     * Set to false to look up the project, testplan and testrun before the controller is returned, instead of in the
+     * background while the first tests start.  Defaults to true.
+     */
+    static public final String ASYNC_INITIALIZATION = "slick.init.async";
+
+    /**
+     * A file to keep a snapshot of the project (with it's components and features) and testplan id in between runs.
+     * The snapshot lets the testrun be created without waiting for the project and testplan.  They are checked in
+     * the background (results wait for the project check only), and the testrun is fixed if they changed.  Not set
+     * by default (no snapshot).
+     */
+    static public final String PROJECT_SNAPSHOT_FILE = "slick.snapshot.file";
+
+    /**
+     * How many hours a project snapshot is used after it was written.  Defaults to 168 (a week).
+     */
+    static public final String PROJECT_SNAPSHOT_MAX_AGE = "slick.snapshot.maxage";
 }
@@ -0,0 +1,199 @@
+package com.slickqa.junit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Groups the failures of a run by a normalized signature: the type of the root cause, the top application frames
+ * it went through (class and method, no line numbers) and it's message with ids and numbers masked.  Failures with
+ * the same signature are almost always the same problem, so only the first result of a cluster gets the whole
+ * stack trace as it's reason.  The others get the message and a pointer to the first one.  Every reason starts
+ * with "[failure cluster &lt;id&gt;]".  The id is a hash of the signature, so the same failure has the same id
+ * in every run.
+ *
+ * The clusters of a run are attached to the testrun once, as failure-clusters.json, when the run ends.
+ */
+public class FailureClusters {
+    public static final String SUMMARY_FILENAME = "failure-clusters.json";
+    public static final int SIGNATURE_FRAMES = 3;
+    public static final int MAX_MESSAGE_LENGTH = 200;
+    public static final int MAX_RESULTS_PER_CLUSTER = 1000;
+    public static final String[] NON_APPLICATION_PACKAGES = {
+            "java.", "javax.", "sun.", "com.sun.", "jdk.", "org.hamcrest.", "org.junit.", "junit.",
+            "org.apache.maven.surefire.", "org.gradle.", "com.intellij.rt.", "org.eclipse.jdt.internal.junit"
+    };
+
+    protected static final Pattern UUIDS = Pattern.compile("[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+    protected static final Pattern HASH_CODES = Pattern.compile("@[0-9a-fA-F]+\\b");
+    protected static final Pattern HEX_IDS = Pattern.compile("\\b(0x)?[0-9a-fA-F]*[0-9][0-9a-fA-F]*\\b");
+    protected static final Pattern NUMBERS = Pattern.compile("[0-9]+");
+    protected static final ObjectMapper SUMMARY_MAPPER = new ObjectMapper();
+
+    /**
+     * The failures that share a signature.  Public fields so it can be written as json as is.
+     */
+    public static class Cluster {
+        public String id;
+        public String exceptionClassName;
+        public String message;
+        public List<String> frames;
+        public int count;
+        public String firstTest;
+        public String firstResultId;
+        public List<String> resultIds = new ArrayList<>();
+    }
+
+    protected final Map<String, Cluster> clusters;
+    protected boolean uploaded;
+
+    public FailureClusters() {
+        clusters = new LinkedHashMap<>();
+        uploaded = false;
+    }
+
+    /**
+     * Add a failure to it's cluster and make the reason for it's result.
+     *
+     * @param resultId the id of the failed result
+     * @param testName the name of the failed test
+     * @param failure what failed the test
+     * @param encoder the encoder for the stack trace of the first failure of a cluster
+     * @return the reason for the result
+     */
+    public String reasonFor(String resultId, String testName, Throwable failure, ThrowableEncoder encoder) {
+        Throwable root = rootCause(failure);
+        String message = maskMessage(root.getMessage());
+        List<String> frames = applicationFrames(root);
+        if(frames.isEmpty() && root != failure) {
+            frames = applicationFrames(failure);
+        }
+        String id = idOf(root.getClass().getName() + "\n" + message + "\n" + frames);
+        Cluster cluster;
+        synchronized (clusters) {
+            cluster = clusters.get(id);
+            if(cluster == null) {
+                cluster = new Cluster();
+                cluster.id = id;
+                cluster.exceptionClassName = root.getClass().getName();
+                cluster.message = message;
+                cluster.frames = frames;
+                cluster.firstTest = testName;
+                cluster.firstResultId = resultId;
+                clusters.put(id, cluster);
+            }
+            cluster.count++;
+            if(cluster.resultIds.size() < MAX_RESULTS_PER_CLUSTER) {
+                cluster.resultIds.add(resultId);
+            }
+        }
+        StringBuilder reason = new StringBuilder("[failure cluster ").append(id).append("] ");
+        if(resultId.equals(cluster.firstResultId)) {
+            return reason.append(encoder.toReason(failure)).toString();
+        }
+        reason.append(failure.getMessage()).append('\n').append(failure).append('\n');
+        reason.append("Same failure as ").append(cluster.firstTest).append(" (result ").append(cluster.firstResultId)
+              .append("), see it's result or ").append(SUMMARY_FILENAME).append(" on the testrun for the stack trace\n");
+        for(String frame : frames) {
+            reason.append("\tat ").append(frame).append('\n');
+        }
+        return reason.toString();
+    }
+
+    /**
+     * @return the clusters so far, the largest first
+     */
+    public List<Cluster> getClusters() {
+        List<Cluster> sorted;
+        synchronized (clusters) {
+            sorted = new ArrayList<>(clusters.values());
+        }
+        Collections.sort(sorted, new Comparator<Cluster>() {
+            @Override
+            public int compare(Cluster first, Cluster second) {
+                return Integer.compare(second.count, first.count);
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Get the summary to attach to the testrun, only once.
+     *
+     * @return the clusters as json, or null if there were no failures or the summary was already taken
+     */
+    public synchronized byte[] takeSummary() {
+        if(uploaded || getClusters().isEmpty()) {
+            return null;
+        }
+        uploaded = true;
+        try {
+            return SUMMARY_MAPPER.writerWithDefaultPrettyPrinter().writeValueAsBytes(getClusters());
+        } catch (JsonProcessingException e) {
+            e.printStackTrace();
+            System.err.println("!! ERROR: Unable to write the failure clusters !!");
+            return null;
+        }
+    }
+
+    protected static Throwable rootCause(Throwable failure) {
+        Set<Throwable> seen = Collections.newSetFromMap(new IdentityHashMap<Throwable, Boolean>());
+        Throwable root = failure;
+        while(root.getCause() != null && seen.add(root)) {
+            root = root.getCause();
+        }
+        return root;
+    }
+
+    protected static String maskMessage(String message) {
+        if(message == null) {
+            return "";
+        }
+        String masked = UUIDS.matcher(message).replaceAll("<id>");
+        masked = HASH_CODES.matcher(masked).replaceAll("@<id>");
+        masked = HEX_IDS.matcher(masked).replaceAll("#");
+        masked = NUMBERS.matcher(masked).replaceAll("#");
+        return masked.length() > MAX_MESSAGE_LENGTH ? masked.substring(0, MAX_MESSAGE_LENGTH) : masked;
+    }
+
+    protected static List<String> applicationFrames(Throwable t) {
+        List<String> frames = new ArrayList<>(SIGNATURE_FRAMES);
+        for(StackTraceElement element : t.getStackTrace()) {
+            if(frames.size() == SIGNATURE_FRAMES) {
+                break;
+            }
+            if(isApplicationClass(element.getClassName())) {
+                frames.add(element.getClassName() + "." + element.getMethodName());
+            }
+        }
+        return frames;
+    }
+
+    protected static boolean isApplicationClass(String className) {
+        for(String prefix : NON_APPLICATION_PACKAGES) {
+            if(className.startsWith(prefix)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected static String idOf(String signature) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(signature.getBytes(StandardCharsets.UTF_8));
+            StringBuilder id = new StringBuilder(8);
+            for(int i = 0; i < 4; i++) {
+                id.append(String.format("%02x", digest[i]));
+            }
+            return id.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every java has SHA-1
+            return Integer.toHexString(signature.hashCode());
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.slickqa.junit;
+
+import com.slickqa.client.SlickClient;
+import com.slickqa.client.errors.SlickError;
+import com.slickqa.client.model.StoredFile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Uploads files to slick a chunk at a time, straight from a FileChannel, so the memory used doesn't depend on the
+ * size of the file.  Each thread reuses one chunk buffer (and one read buffer when compressing).  Files of
+ * compressible types (text, json, xml, HAR and the like) that are at least the compression threshold are gzipped on
+ * the way and stored as &lt;filename&gt;.gz with type application/gzip.
+ */
+public class FileStreamer {
+    public static final int DEFAULT_CHUNK_SIZE = 262144;
+    public static final int READ_BUFFER_SIZE = 64 * 1024;
+    public static final long DEFAULT_COMPRESS_THRESHOLD = 1024 * 1024;
+    public static final String[] COMPRESSIBLE_TYPES = {
+            "text/", "application/json", "application/xml", "application/javascript", "application/x-ndjson",
+            "application/har+json", "application/x-yaml", "application/csv", "image/svg+xml"
+    };
+
+    protected static final ThreadLocal<byte[]> chunkBuffers = new ThreadLocal<>();
+    protected static final ThreadLocal<ByteBuffer> readBuffers = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(READ_BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * Sends what is written to it to a slick file as chunks of exactly chunk size (except the last).
+     */
+    protected static class ChunkOutputStream extends OutputStream {
+        final SlickClient slickClient;
+        final String fileId;
+        final byte[] chunk;
+        int filled;
+        long count;
+        // once a chunk failed nothing more is sent, not even by close()
+        boolean failed;
+
+        ChunkOutputStream(SlickClient slickClient, String fileId, byte[] chunk) {
+            this.slickClient = slickClient;
+            this.fileId = fileId;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while(length > 0 && !failed) {
+                int copied = Math.min(length, chunk.length - filled);
+                System.arraycopy(bytes, offset, chunk, filled, copied);
+                filled += copied;
+                offset += copied;
+                length -= copied;
+                if(filled == chunk.length) {
+                    send();
+                }
+            }
+        }
+
+        void send() throws IOException {
+            if(filled == 0 || failed) {
+                return;
+            }
+            try {
+                slickClient.file(fileId).addChunk(filled == chunk.length ? chunk : Arrays.copyOf(chunk, filled));
+            } catch (SlickError e) {
+                failed = true;
+                throw new ChunkError(e);
+            }
+            count += filled;
+            filled = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            send();
+        }
+    }
+
+    /**
+     * Carries a SlickError from adding a chunk through the OutputStream methods.
+     */
+    protected static class ChunkError extends IOException {
+        ChunkError(SlickError cause) {
+            super(cause);
+        }
+    }
+
+    protected final SlickClient slickClient;
+    protected final long compressThreshold;
+
+    /**
+     * @param slickClient the client to upload with
+     * @param compressThreshold the smallest compressible file that is compressed, 0 to never compress
+     */
+    public FileStreamer(SlickClient slickClient, long compressThreshold) {
+        this.slickClient = slickClient;
+        this.compressThreshold = compressThreshold;
+    }
+
+    /**
+     * Upload a file.
+     *
+     * @param localPath the file to upload
+     * @param filename the name to store it as
+     * @param mimetype it's mime type, or null to guess it from the file
+     * @return the stored file
+     * @throws SlickError if the file couldn't be read or slick returned an error
+     */
+    public StoredFile upload(Path localPath, String filename, String mimetype) throws SlickError {
+        if(mimetype == null) {
+            mimetype = detectMimetype(localPath);
+        }
+        // what is in slick so far, to report it if the upload fails after the file was created
+        StoredFile file = null;
+        long sent = 0;
+        try (FileChannel channel = FileChannel.open(localPath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            boolean compress = compressThreshold > 0 && size >= compressThreshold && isCompressible(mimetype);
+            StoredFile create = new StoredFile();
+            create.setFilename(compress ? filename + ".gz" : filename);
+            create.setMimetype(compress ? "application/gzip" : mimetype);
+            create.setUploadDate(new Date());
+            create.setLength(compress ? 0L : size);
+            file = slickClient.files().create(create);
+            int chunkSize = file.getChunkSize() != null && file.getChunkSize() > 0 ? file.getChunkSize() : DEFAULT_CHUNK_SIZE;
+            byte[] chunk = chunkBuffers.get();
+            if(chunk == null || chunk.length != chunkSize) {
+                chunk = new byte[chunkSize];
+                chunkBuffers.set(chunk);
+            }
+            // the api parts of the client are good for one request, so there is a slickClient.file() for each
+            if(!compress) {
+                // read straight into the chunk, there is nothing to copy
+                ByteBuffer buffer = ByteBuffer.wrap(chunk);
+                while(channel.read(buffer) != -1) {
+                    if(!buffer.hasRemaining()) {
+                        slickClient.file(file.getId()).addChunk(chunk);
+                        sent += chunk.length;
+                        buffer.clear();
+                    }
+                }
+                if(buffer.position() > 0) {
+                    slickClient.file(file.getId()).addChunk(Arrays.copyOf(chunk, buffer.position()));
+                }
+                return file;
+            }
+            ChunkOutputStream chunks = new ChunkOutputStream(slickClient, file.getId(), chunk);
+            ByteBuffer buffer = readBuffers.get();
+            buffer.clear();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(chunks, READ_BUFFER_SIZE)) {
+                while(channel.read(buffer) != -1) {
+                    gzip.write(buffer.array(), 0, buffer.position());
+                    buffer.clear();
+                }
+            } finally {
+                sent = chunks.count;
+            }
+            file.setLength(chunks.count);
+            // every chunk is in slick, only the length is missing if this fails
+            StoredFile stored = file;
+            file = null;
+            return slickClient.file(stored.getId()).update(stored);
+        } catch (ChunkError e) {
+            markPartial(file, sent, localPath);
+            throw (SlickError) e.getCause();
+        } catch (SlickError e) {
+            markPartial(file, sent, localPath);
+            throw e;
+        } catch (IOException e) {
+            markPartial(file, sent, localPath);
+            throw new SlickError("Unable to read " + localPath, e);
+        }
+    }
+
+    /**
+     * Rename a file whose upload failed after it was created in slick to &lt;filename&gt;.partial, so it can't be
+     * mistaken for the whole file (the api has no way to delete it), and report it.
+     *
+     * @param file the file created in slick, or null if it wasn't created
+     * @param sent the number of bytes that made it to slick
+     * @param localPath the file that was being uploaded
+     */
+    protected void markPartial(StoredFile file, long sent, Path localPath) {
+        if(file == null || file.getId() == null) {
+            return;
+        }
+        System.err.println("!! ERROR: upload of " + localPath + " failed after " + sent + " bytes, slick file " +
+                file.getId() + " is incomplete and was renamed to " + file.getFilename() + ".partial !!");
+        try {
+            file.setFilename(file.getFilename() + ".partial");
+            file.setLength(sent);
+            slickClient.file(file.getId()).update(file);
+        } catch (SlickError e) {
+            e.printStackTrace();
+            System.err.println("!! ERROR: unable to rename incomplete slick file " + file.getId() + " !!");
+        }
+    }
+
+    public static boolean isCompressible(String mimetype) {
+        if(mimetype == null) {
+            return false;
+        }
+        String type = mimetype.toLowerCase(Locale.ENGLISH);
+        if(type.endsWith("+json") || type.endsWith("+xml")) {
+            return true;
+        }
+        for(String compressible : COMPRESSIBLE_TYPES) {
+            if(type.startsWith(compressible)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Guess the mime type of a file from it's name (and whatever the platform knows about it).
+     *
+     * @return the mime type, application/octet-stream if there is no telling
+     */
+    public static String detectMimetype(Path localPath) {
+        String name = localPath.getFileName().toString().toLowerCase(Locale.ENGLISH);
+        if(name.endsWith(".har")) {
+            return "application/har+json";
+        }
+        if(name.endsWith(".json")) {
+            return "application/json";
+        }
+        if(name.endsWith(".log") || name.endsWith(".txt")) {
+            return "text/plain";
+        }
+        try {
+            String probed = Files.probeContentType(localPath);
+            if(probed != null) {
+                return probed;
+            }
+        } catch (IOException e) {
+            // fall through to the default
+        }
+        return "application/octet-stream";
+    }
+}
@@ -0,0 +1,153 @@
+package com.slickqa.junit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Locale;
+
+/**
+ * Makes screenshots (and other png, bmp and jpeg images) smaller before they are uploaded: images larger than the
+ * maximum size are scaled down to fit, and the image is re-encoded as a JPEG of the configured quality.  Nothing
+ * but the pixels is written, so metadata (text chunks, EXIF, color profiles) is dropped.  If the JPEG isn't smaller
+ * than the original the original is uploaded as it is.
+ *
+ * This runs on the threads of the AttachmentQueue, never on the test thread.
+ */
+public class ImageOptimizer {
+    public static final int DEFAULT_MAX_SIZE = 1920;
+    public static final int DEFAULT_QUALITY = 80;
+    public static final String[] OPTIMIZED_TYPES = {"image/png", "image/bmp", "image/x-ms-bmp", "image/jpeg"};
+
+    /**
+     * What optimizing an image did.
+     */
+    public static class Optimized {
+        public final Path path;
+        public final String originalName;
+        public final String filename;
+        public final long originalBytes;
+        public final long storedBytes;
+        public final String originalDimensions;
+        public final String storedDimensions;
+
+        public Optimized(Path path, String originalName, String filename, long originalBytes, long storedBytes,
+                         String originalDimensions, String storedDimensions) {
+            this.path = path;
+            this.originalName = originalName;
+            this.filename = filename;
+            this.originalBytes = originalBytes;
+            this.storedBytes = storedBytes;
+            this.originalDimensions = originalDimensions;
+            this.storedDimensions = storedDimensions;
+        }
+
+        public String describe() {
+            return originalName + " (" + originalDimensions + ", " + originalBytes + " bytes) was stored as " +
+                   filename + " (" + storedDimensions + ", " + storedBytes + " bytes)";
+        }
+    }
+
+    protected final int maxSize;
+    protected final float quality;
+
+    /**
+     * @param maxSize the largest width or height of a stored image, 0 to never scale
+     * @param quality the JPEG quality, from 1 to 100
+     */
+    public ImageOptimizer(int maxSize, int quality) {
+        this.maxSize = maxSize;
+        this.quality = Math.max(1, Math.min(100, quality)) / 100f;
+    }
+
+    public static boolean isOptimizable(String mimetype) {
+        if(mimetype == null) {
+            return false;
+        }
+        String type = mimetype.toLowerCase(Locale.ENGLISH);
+        for(String optimized : OPTIMIZED_TYPES) {
+            if(type.equals(optimized)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Optimize an image, writing the result next to it.
+     *
+     * @param image the image file
+     * @param filename the name it is uploaded as
+     * @param mimetype it's mime type, or null to guess it from the file
+     * @return what was done, or null if the file should be uploaded as it is
+     */
+    public Optimized optimize(Path image, String filename, String mimetype) {
+        if(!isOptimizable(mimetype != null ? mimetype : FileStreamer.detectMimetype(image))) {
+            return null;
+        }
+        try {
+            BufferedImage original = ImageIO.read(image.toFile());
+            if(original == null) {
+                return null;
+            }
+            int width = original.getWidth();
+            int height = original.getHeight();
+            double scale = maxSize > 0 ? Math.min(1.0, (double) maxSize / Math.max(width, height)) : 1.0;
+            int storedWidth = Math.max(1, (int) Math.round(width * scale));
+            int storedHeight = Math.max(1, (int) Math.round(height * scale));
+
+            // JPEG has no alpha, transparent pixels go on white
+            BufferedImage stored = new BufferedImage(storedWidth, storedHeight, BufferedImage.TYPE_INT_RGB);
+            Graphics2D graphics = stored.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.setColor(Color.WHITE);
+                graphics.fillRect(0, 0, storedWidth, storedHeight);
+                graphics.drawImage(original, 0, 0, storedWidth, storedHeight, null);
+            } finally {
+                graphics.dispose();
+            }
+
+            Path jpeg = image.resolveSibling(image.getFileName() + ".optimized.jpg");
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+            if(!writers.hasNext()) {
+                return null;
+            }
+            ImageWriter writer = writers.next();
+            try (ImageOutputStream output = ImageIO.createImageOutputStream(jpeg.toFile())) {
+                writer.setOutput(output);
+                ImageWriteParam parameters = writer.getDefaultWriteParam();
+                parameters.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                parameters.setCompressionQuality(quality);
+                writer.write(null, new IIOImage(stored, null, null), parameters);
+            } finally {
+                writer.dispose();
+            }
+            long originalBytes = Files.size(image);
+            long storedBytes = Files.size(jpeg);
+            if(storedBytes >= originalBytes) {
+                Files.deleteIfExists(jpeg);
+                return null;
+            }
+            return new Optimized(jpeg, filename, jpegName(filename), originalBytes, storedBytes,
+                    width + "x" + height, storedWidth + "x" + storedHeight);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            System.err.println("!! WARNING: unable to optimize image " + filename + ", uploading it as it is !!");
+            return null;
+        }
+    }
+
+    protected static String jpegName(String filename) {
+        int dot = filename.lastIndexOf('.');
+        return (dot > 0 ? filename.substring(0, dot) : filename) + ".jpg";
+    }
+}
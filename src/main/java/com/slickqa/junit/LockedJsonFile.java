@@ -0,0 +1,83 @@
+package com.slickqa.junit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Writes a JSON file that several JVMs (surefire forks), and several objects in the same JVM, save to.  A writer
+ * takes an exclusive lock on a lock file next to the file, builds what to write (usually by merging with what is on
+ * disk), and replaces the file atomically so readers never see half a file.
+ *
+ * File locks are held by the whole JVM, so writers in the same JVM first take turns on a lock of their own for the
+ * file; without it the second one would get an OverlappingFileLockException instead of waiting.
+ */
+public class LockedJsonFile {
+
+    /**
+     * Builds the contents of the file, while the lock is held.
+     */
+    public interface Contents {
+        /**
+         * @return the object to write to the file, or null to leave the file as it is
+         */
+        Object build() throws IOException;
+    }
+
+    private static final ConcurrentMap<Path, Object> JVM_LOCKS = new ConcurrentHashMap<>();
+
+    private LockedJsonFile() {
+    }
+
+    /**
+     * Replace the file with what contents builds, holding the lock of the file while building and writing it.
+     *
+     * @param file the file to write
+     * @param mapper the mapper to write the contents with
+     * @param contents builds the contents, it may read the file to merge with it
+     * @return true if the file was written
+     * @throws IOException if the lock can't be taken or the file can't be written
+     */
+    public static boolean write(Path file, ObjectMapper mapper, Contents contents) throws IOException {
+        file = file.toAbsolutePath();
+        Object jvmLock = JVM_LOCKS.get(file);
+        if(jvmLock == null) {
+            Object created = new Object();
+            jvmLock = JVM_LOCKS.putIfAbsent(file, created);
+            if(jvmLock == null) {
+                jvmLock = created;
+            }
+        }
+        Path lockFile = file.resolveSibling(file.getFileName() + ".lock");
+        synchronized (jvmLock) {
+            Files.createDirectories(file.getParent());
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock lock = channel.lock()) {
+                Object value = contents.build();
+                if(value == null) {
+                    return false;
+                }
+                Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+                try {
+                    mapper.writeValue(temp.toFile(), value);
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+                return true;
+            } catch (OverlappingFileLockException e) {
+                // something else in this JVM has the lock file open, don't wait on a lock that is never released
+                throw new IOException("lock file " + lockFile + " is already locked in this JVM", e);
+            }
+        }
+    }
+}
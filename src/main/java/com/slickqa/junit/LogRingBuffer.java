@@ -0,0 +1,104 @@
+package com.slickqa.junit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free queue for any number of producers and consumers, used to hand log entries from test threads
+ * to the LogShipper.  Neither adding nor removing ever takes a lock; adding to a full buffer fails instead of
+ * waiting, what to do about that is up to the caller.
+ *
+ * Every slot has a sequence number saying whether it is free for the producer at a given position or holds an
+ * item for the consumer at a given position.  A producer or consumer claims a position with a compare and set on
+ * the shared counter, and publishes the slot by advancing it's sequence.
+ *
+ * @param <T> the type of item in the buffer
+ */
+public class LogRingBuffer<T> {
+    protected final int mask;
+    protected final AtomicReferenceArray<T> items;
+    protected final AtomicLongArray sequences;
+    protected final AtomicLong producerPosition;
+    protected final AtomicLong consumerPosition;
+
+    /**
+     * @param capacity the number of items the buffer can hold, rounded up to a power of two
+     */
+    public LogRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.mask = size - 1;
+        this.items = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for(int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+        this.producerPosition = new AtomicLong(0);
+        this.consumerPosition = new AtomicLong(0);
+    }
+
+    /**
+     * Add an item to the buffer.
+     *
+     * @param item the item to add, not null
+     * @return false if the buffer was full
+     */
+    public boolean offer(T item) {
+        long position = producerPosition.get();
+        while(true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if(difference == 0) {
+                if(producerPosition.compareAndSet(position, position + 1)) {
+                    items.set(index, item);
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = producerPosition.get();
+            } else if(difference < 0) {
+                // the consumer hasn't freed this slot from the previous time around
+                return false;
+            } else {
+                position = producerPosition.get();
+            }
+        }
+    }
+
+    /**
+     * Remove the oldest item from the buffer.
+     *
+     * @return the item, or null if the buffer is empty
+     */
+    public T poll() {
+        long position = consumerPosition.get();
+        while(true) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - (position + 1);
+            if(difference == 0) {
+                if(consumerPosition.compareAndSet(position, position + 1)) {
+                    T item = items.get(index);
+                    items.lazySet(index, null);
+                    sequences.lazySet(index, position + mask + 1);
+                    return item;
+                }
+                position = consumerPosition.get();
+            } else if(difference < 0) {
+                return null;
+            } else {
+                position = consumerPosition.get();
+            }
+        }
+    }
+
+    /**
+     * @return roughly how many items are in the buffer
+     */
+    public int size() {
+        long size = producerPosition.get() - consumerPosition.get();
+        return (int) Math.max(0, Math.min(size, mask + 1));
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,366 @@
+package com.slickqa.junit;
+
+import com.slickqa.client.SlickClient;
+import com.slickqa.client.errors.SlickError;
+import com.slickqa.client.model.LogEntry;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends log entries to slick from a background thread so logging never waits on slick.  Test threads only put
+ * entries into a bounded LogRingBuffer; the shipper thread takes them out, collects them per result and sends a
+ * result's batch when it is big enough, when it's oldest entry has waited as long as allowed, or when the test
+ * asks for it's logs to be flushed.
+ *
+ * Batches are sized by their (estimated) size in bytes, and the size adapts to how long slick takes to answer:
+ * slow requests make batches grow so fewer requests are made, fast requests make them shrink so logs get to slick
+ * sooner.  When the buffer is full, the overflow setting decides whether the test thread waits for room or an entry
+ * (the oldest or the new one) is dropped.  Dropped entries are counted per result, and the count is added to the
+ * result's log when it is flushed.
+ */
+public class LogShipper {
+    public enum Overflow { BLOCK, DROP_OLDEST, DROP_NEWEST }
+
+    public static final int MIN_BATCH_BYTES = 4 * 1024;
+    public static final int MAX_BATCH_BYTES = 1024 * 1024;
+    protected static final long IDLE_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    protected static final long BLOCK_WAIT_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /**
+     * The log entries of one result.  The counters are shared with test threads, the batch is only touched by the
+     * shipper thread.
+     */
+    protected static class ResultLogs {
+        final String resultId;
+        final AtomicLong appended = new AtomicLong(0);
+        final AtomicLong completed = new AtomicLong(0);
+        final AtomicLong dropped = new AtomicLong(0);
+        volatile boolean flushRequested = false;
+        List<LogEntry> batch = new ArrayList<>();
+        int batchBytes = 0;
+        long oldest = 0;
+
+        ResultLogs(String resultId) {
+            this.resultId = resultId;
+        }
+    }
+
+    protected static class Shipment {
+        final ResultLogs logs;
+        final LogEntry entry;
+
+        Shipment(ResultLogs logs, LogEntry entry) {
+            this.logs = logs;
+            this.entry = entry;
+        }
+    }
+
+    protected final SlickClient slickClient;
+    protected final LogRingBuffer<Shipment> buffer;
+    protected final Overflow overflow;
+    protected final long maxLatencyMillis;
+    protected final long flushTimeoutMillis;
+    protected final ConcurrentMap<String, ResultLogs> results;
+    protected final Set<ResultLogs> pending;
+    protected final Object completedMonitor;
+    protected final AtomicLong shipped;
+    protected final AtomicLong dropped;
+    protected final AtomicLong failed;
+    protected volatile int batchBytes;
+    protected volatile boolean running;
+    protected final Thread shipper;
+
+    /**
+     * @param slickClient the client to send logs with
+     * @param capacity the number of entries that can wait to be sent
+     * @param overflow what to do when capacity entries are waiting
+     * @param maxLatencyMillis the longest an entry should wait before it is sent
+     * @param flushTimeoutMillis the longest a flush waits for a result's entries to be sent
+     */
+    public LogShipper(SlickClient slickClient, int capacity, Overflow overflow, long maxLatencyMillis, long flushTimeoutMillis) {
+        this.slickClient = slickClient;
+        this.buffer = new LogRingBuffer<>(capacity);
+        this.overflow = overflow;
+        this.maxLatencyMillis = Math.max(1, maxLatencyMillis);
+        this.flushTimeoutMillis = flushTimeoutMillis;
+        this.results = new ConcurrentHashMap<>();
+        this.pending = new LinkedHashSet<>();
+        this.completedMonitor = new Object();
+        this.shipped = new AtomicLong(0);
+        this.dropped = new AtomicLong(0);
+        this.failed = new AtomicLong(0);
+        this.batchBytes = MIN_BATCH_BYTES;
+        this.running = true;
+        this.shipper = new SlickThreadFactory("slick-log-shipper").newThread(new Runnable() {
+            @Override
+            public void run() {
+                ship();
+            }
+        });
+        shipper.start();
+    }
+
+    /**
+     * Register a shutdown hook that sends what is left in the buffer before the JVM exits.
+     *
+     * @param timeoutSeconds the longest time to wait
+     */
+    public void drainOnShutdown(final long timeoutSeconds) {
+        Runtime.getRuntime().addShutdownHook(new Thread("slick-log-shipper-drain") {
+            @Override
+            public void run() {
+                if(!shutdown(timeoutSeconds, TimeUnit.SECONDS)) {
+                    System.err.println("!! WARNING: " + buffer.size() + " slick log entries were not sent before exit !!");
+                }
+            }
+        });
+    }
+
+    /**
+     * Queue a log entry for a result.  Depending on the overflow setting this may wait for room in the buffer.
+     *
+     * @param resultId the id of the result the entry belongs to
+     * @param entry the log entry
+     */
+    public void append(String resultId, LogEntry entry) {
+        ResultLogs logs = results.get(resultId);
+        if(logs == null) {
+            ResultLogs created = new ResultLogs(resultId);
+            logs = results.putIfAbsent(resultId, created);
+            if(logs == null) {
+                logs = created;
+            }
+        }
+        logs.appended.incrementAndGet();
+        Shipment shipment = new Shipment(logs, entry);
+        if(buffer.offer(shipment)) {
+            return;
+        }
+        switch (overflow) {
+            case DROP_NEWEST:
+                dropped(logs);
+                break;
+            case DROP_OLDEST:
+                while(!buffer.offer(shipment)) {
+                    Shipment oldest = buffer.poll();
+                    if(oldest != null) {
+                        dropped(oldest.logs);
+                    }
+                }
+                break;
+            default:
+                LockSupport.unpark(shipper);
+                while(!buffer.offer(shipment)) {
+                    LockSupport.parkNanos(BLOCK_WAIT_NANOS);
+                }
+        }
+    }
+
+    protected void dropped(ResultLogs logs) {
+        logs.dropped.incrementAndGet();
+        dropped.incrementAndGet();
+        completed(logs, 1);
+    }
+
+    protected void completed(ResultLogs logs, int count) {
+        logs.completed.addAndGet(count);
+        if(logs.flushRequested) {
+            synchronized (completedMonitor) {
+                completedMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Wait until every entry queued for a result so far has been sent, then add a note to the result's log if any
+     * of it's entries were dropped.
+     *
+     * @param resultId the id of the result
+     * @return true if everything was sent (or dropped), false if the flush timed out
+     */
+    public boolean flush(String resultId) {
+        ResultLogs logs = results.get(resultId);
+        if(logs == null) {
+            return true;
+        }
+        long target = logs.appended.get();
+        long deadline = System.currentTimeMillis() + flushTimeoutMillis;
+        logs.flushRequested = true;
+        LockSupport.unpark(shipper);
+        synchronized (completedMonitor) {
+            while(logs.completed.get() < target && shipper.isAlive()) {
+                long remaining = deadline - System.currentTimeMillis();
+                if(remaining <= 0) {
+                    break;
+                }
+                try {
+                    completedMonitor.wait(Math.min(remaining, 100));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        logs.flushRequested = false;
+        boolean caughtUp = logs.completed.get() >= target;
+        if(logs.completed.get() >= logs.appended.get()) {
+            results.remove(resultId, logs);
+        }
+        long droppedEntries = logs.dropped.getAndSet(0);
+        if(droppedEntries > 0) {
+            LogEntry note = new LogEntry();
+            note.setEntryTime(new Date());
+            note.setLevel("WARN");
+            note.setLoggerName("slick");
+            note.setMessage(droppedEntries + " log entries were dropped because the slick log buffer was full (overflow " + overflow + ")");
+            try {
+                slickClient.result(resultId).addLogs(Collections.singletonList(note));
+            } catch (SlickError e) {
+                e.printStackTrace();
+                System.err.println("!! ERROR: Unable to post logs to slick !!");
+            }
+        }
+        return caughtUp;
+    }
+
+    /**
+     * Stop the shipper thread once everything in the buffer has been sent.
+     *
+     * @param timeout the longest time to wait
+     * @param unit the unit of timeout
+     * @return true if everything was sent, false if the timeout expired first
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) {
+        running = false;
+        LockSupport.unpark(shipper);
+        try {
+            shipper.join(unit.toMillis(timeout));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !shipper.isAlive();
+    }
+
+    protected void ship() {
+        while(true) {
+            boolean stopping = !running;
+            int taken = 0;
+            Shipment shipment;
+            while((shipment = buffer.poll()) != null) {
+                taken++;
+                ResultLogs logs = shipment.logs;
+                if(logs.batch.isEmpty()) {
+                    logs.oldest = System.currentTimeMillis();
+                    pending.add(logs);
+                }
+                logs.batch.add(shipment.entry);
+                logs.batchBytes += estimateBytes(shipment.entry);
+                if(logs.batchBytes >= batchBytes) {
+                    send(logs);
+                }
+            }
+            long now = System.currentTimeMillis();
+            for(ResultLogs logs : new ArrayList<>(pending)) {
+                if(stopping || logs.flushRequested || now - logs.oldest >= maxLatencyMillis) {
+                    send(logs);
+                }
+            }
+            if(stopping && pending.isEmpty() && buffer.size() == 0) {
+                return;
+            }
+            if(taken == 0) {
+                LockSupport.parkNanos(Math.min(IDLE_WAIT_NANOS, TimeUnit.MILLISECONDS.toNanos(maxLatencyMillis)));
+            }
+        }
+    }
+
+    protected void send(ResultLogs logs) {
+        pending.remove(logs);
+        List<LogEntry> batch = logs.batch;
+        int bytes = logs.batchBytes;
+        logs.batch = new ArrayList<>();
+        logs.batchBytes = 0;
+        long start = System.nanoTime();
+        try {
+            slickClient.result(logs.resultId).addLogs(batch);
+            shipped.addAndGet(batch.size());
+        } catch (SlickError | RuntimeException e) {
+            failed.addAndGet(batch.size());
+            e.printStackTrace();
+            System.err.println("!! ERROR: Unable to post logs to slick !!");
+        } finally {
+            adjustBatchBytes(bytes, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            completed(logs, batch.size());
+        }
+    }
+
+    /**
+     * A request that takes a good part of the latency budget means slick is slow (or far away), so send fewer,
+     * bigger batches.  A request that takes almost none of it means small batches are cheap, and they get logs to
+     * slick sooner.
+     */
+    protected void adjustBatchBytes(int sentBytes, long elapsedMillis) {
+        int current = batchBytes;
+        if(elapsedMillis * 4 > maxLatencyMillis && sentBytes * 2 >= current) {
+            batchBytes = Math.min(MAX_BATCH_BYTES, current * 2);
+        } else if(elapsedMillis * 16 < maxLatencyMillis) {
+            batchBytes = Math.max(MIN_BATCH_BYTES, current - current / 4);
+        }
+    }
+
+    protected static int estimateBytes(LogEntry entry) {
+        int bytes = 96;
+        if(entry.getMessage() != null) {
+            bytes += entry.getMessage().length();
+        }
+        if(entry.getExceptionMessage() != null) {
+            bytes += entry.getExceptionMessage().length();
+        }
+        if(entry.getExceptionStackTrace() != null) {
+            for(String frame : entry.getExceptionStackTrace()) {
+                bytes += frame.length() + 4;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of entries waiting in the buffer
+     */
+    public int getBufferedCount() {
+        return buffer.size();
+    }
+
+    /**
+     * @return the number of entries sent to slick
+     */
+    public long getShippedCount() {
+        return shipped.get();
+    }
+
+    /**
+     * @return the number of entries dropped because the buffer was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return the number of entries slick didn't accept
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return the size (in bytes) a result's batch grows to before it is sent
+     */
+    public int getBatchBytes() {
+        return batchBytes;
+    }
+}
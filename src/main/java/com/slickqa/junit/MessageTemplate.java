@@ -0,0 +1,251 @@
+package com.slickqa.junit;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.text.DateFormat;
+import java.text.MessageFormat;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A log message pattern, parsed once and cached by pattern so logging the same message over and over doesn't parse
+ * it each time.  Two styles of pattern are understood:
+ *
+ * Patterns that contain {} are SLF4J style: each {} is replaced by the next argument (String.valueOf), and
+ * everything else, including quotes, is literal.  A {} that should stay in the message is written \{}.
+ *
+ * Every other pattern is a java.text.MessageFormat pattern and formats exactly the way MessageFormat.format would.
+ * Simple {0} style arguments and quoting are handled here, patterns with format types ({0,number,#.##}) are
+ * handed to a copy of a cached MessageFormat.
+ */
+public class MessageTemplate {
+    public static final int MAX_CACHED_TEMPLATES = 4096;
+    protected static final ConcurrentMap<String, MessageTemplate> cache = new ConcurrentHashMap<>();
+    protected static final ThreadLocal<FormatHolder> formats = new ThreadLocal<FormatHolder>() {
+        @Override
+        protected FormatHolder initialValue() {
+            return new FormatHolder();
+        }
+    };
+
+    /**
+     * The number and date formats MessageFormat would use for the current locale, kept per thread because they
+     * aren't thread safe.
+     */
+    protected static class FormatHolder {
+        Locale locale;
+        NumberFormat number;
+        DateFormat date;
+
+        void useLocale(Locale current) {
+            if(!current.equals(locale)) {
+                locale = current;
+                number = NumberFormat.getInstance(current);
+                date = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT, current);
+            }
+        }
+    }
+
+    protected final String pattern;
+    protected final boolean slf4jStyle;
+    protected final String[] literals;
+    protected final int[] indexes;
+    protected final MessageFormat complex;
+
+    protected MessageTemplate(String pattern) {
+        this.pattern = pattern;
+        this.slf4jStyle = pattern.contains("{}");
+        List<String> parsedLiterals = new ArrayList<>();
+        List<Integer> parsedIndexes = new ArrayList<>();
+        boolean simple = slf4jStyle ? parseSlf4j(pattern, parsedLiterals, parsedIndexes) : parseMessageFormat(pattern, parsedLiterals, parsedIndexes);
+        if(simple) {
+            this.literals = parsedLiterals.toArray(new String[parsedLiterals.size()]);
+            this.indexes = new int[parsedIndexes.size()];
+            for(int i = 0; i < indexes.length; i++) {
+                indexes[i] = parsedIndexes.get(i);
+            }
+            this.complex = null;
+        } else {
+            this.literals = null;
+            this.indexes = null;
+            // throws IllegalArgumentException for a bad pattern, just like MessageFormat.format would
+            this.complex = new MessageFormat(pattern);
+        }
+    }
+
+    /**
+     * Get the template for a pattern, parsing it if it hasn't been seen before.
+     *
+     * @param pattern the pattern
+     * @return the (possibly shared) template
+     */
+    public static MessageTemplate compile(String pattern) {
+        MessageTemplate template = cache.get(pattern);
+        if(template == null) {
+            template = new MessageTemplate(pattern);
+            if(cache.size() < MAX_CACHED_TEMPLATES) {
+                MessageTemplate existing = cache.putIfAbsent(pattern, template);
+                if(existing != null) {
+                    template = existing;
+                }
+            }
+        }
+        return template;
+    }
+
+    protected static boolean parseSlf4j(String pattern, List<String> literals, List<Integer> indexes) {
+        StringBuilder literal = new StringBuilder();
+        int next = 0;
+        for(int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if(c == '\\' && pattern.startsWith("{}", i + 1)) {
+                literal.append("{}");
+                i += 2;
+            } else if(c == '{' && i + 1 < pattern.length() && pattern.charAt(i + 1) == '}') {
+                literals.add(literal.toString());
+                literal.setLength(0);
+                indexes.add(next++);
+                i++;
+            } else {
+                literal.append(c);
+            }
+        }
+        literals.add(literal.toString());
+        return true;
+    }
+
+    /**
+     * Parse a MessageFormat pattern made of literal text, quotes and {n} arguments.
+     *
+     * @return false if the pattern has anything else (format types or errors), which MessageFormat has to handle
+     */
+    protected static boolean parseMessageFormat(String pattern, List<String> literals, List<Integer> indexes) {
+        StringBuilder literal = new StringBuilder();
+        boolean quoted = false;
+        for(int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if(c == '\'') {
+                if(i + 1 < pattern.length() && pattern.charAt(i + 1) == '\'') {
+                    literal.append('\'');
+                    i++;
+                } else {
+                    quoted = !quoted;
+                }
+            } else if(quoted || c != '{') {
+                literal.append(c);
+            } else {
+                int end = pattern.indexOf('}', i);
+                if(end < 0) {
+                    return false;
+                }
+                String argument = pattern.substring(i + 1, end);
+                if(argument.isEmpty() || argument.length() > 9) {
+                    return false;
+                }
+                for(int j = 0; j < argument.length(); j++) {
+                    if(!Character.isDigit(argument.charAt(j))) {
+                        return false;
+                    }
+                }
+                literals.add(literal.toString());
+                literal.setLength(0);
+                indexes.add(Integer.parseInt(argument));
+                i = end;
+            }
+        }
+        literals.add(literal.toString());
+        return true;
+    }
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @return true if this is an SLF4J style ({}) pattern
+     */
+    public boolean isSlf4jStyle() {
+        return slf4jStyle;
+    }
+
+    public String format(Object... arguments) {
+        return format(null, null, arguments, arguments == null ? 0 : arguments.length);
+    }
+
+    /**
+     * Format with up to two arguments passed directly, or any number in an array, so callers with one or two
+     * arguments don't need an array.
+     *
+     * @param argument1 the first argument if arguments is null
+     * @param argument2 the second argument if arguments is null
+     * @param arguments all the arguments, or null
+     * @param count the number of arguments
+     * @return the formatted message
+     */
+    public String format(Object argument1, Object argument2, Object[] arguments, int count) {
+        if(complex != null) {
+            Object[] all = arguments;
+            if(all == null) {
+                all = count == 0 ? new Object[0] : count == 1 ? new Object[]{argument1} : new Object[]{argument1, argument2};
+            }
+            return ((MessageFormat) complex.clone()).format(all);
+        }
+        if(indexes.length == 0) {
+            return literals[0];
+        }
+        FormatHolder holder = null;
+        StringBuilder message = new StringBuilder(pattern.length() + 16 * indexes.length);
+        for(int i = 0; i < indexes.length; i++) {
+            message.append(literals[i]);
+            int index = indexes[i];
+            if(index >= count) {
+                message.append(slf4jStyle ? "{}" : "{" + index + "}");
+                continue;
+            }
+            Object argument = arguments != null ? arguments[index] : index == 0 ? argument1 : argument2;
+            if(slf4jStyle) {
+                message.append(argument instanceof Object[] ? Arrays.deepToString((Object[]) argument) : String.valueOf(argument));
+            } else if(argument instanceof Number || argument instanceof Date) {
+                if(holder == null) {
+                    holder = formats.get();
+                    holder.useLocale(Locale.getDefault(Locale.Category.FORMAT));
+                }
+                message.append(argument instanceof Number ? holder.number.format(argument) : holder.date.format(argument));
+            } else {
+                message.append(argument);
+            }
+        }
+        message.append(literals[indexes.length]);
+        return message.toString();
+    }
+
+    /**
+     * Check whether formatting can wait until later.  It can only if every argument is immutable, otherwise the
+     * message could show values the arguments had when it was sent instead of when it was logged.
+     */
+    public static boolean canDefer(Object argument1, Object argument2, Object[] arguments, int count) {
+        if(arguments != null) {
+            for(int i = 0; i < count; i++) {
+                if(!isImmutable(arguments[i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return (count < 1 || isImmutable(argument1)) && (count < 2 || isImmutable(argument2));
+    }
+
+    protected static boolean isImmutable(Object argument) {
+        return argument == null || argument instanceof String || argument instanceof Integer || argument instanceof Long ||
+               argument instanceof Boolean || argument instanceof Double || argument instanceof Float ||
+               argument instanceof Short || argument instanceof Byte || argument instanceof Character ||
+               argument instanceof BigDecimal || argument instanceof BigInteger || argument instanceof Enum ||
+               argument instanceof Class;
+    }
+}
@@ -0,0 +1,119 @@
+package com.slickqa.junit;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.slickqa.client.model.Component;
+import com.slickqa.client.model.Project;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A file that remembers, between runs, the project results are reported to (with it's components and their
+ * features) and the id of the testplan.  With it the controller can create the testrun without looking the
+ * project and testplan up first.  They are still looked up in the background, and if what slick has doesn't match
+ * the snapshot the testrun is fixed to match slick.  Results are registered once the project was checked.
+ *
+ * The snapshot is ignored when it was written for another slick, project or testplan, or when it is older than the
+ * maximum age.  When several JVMs of a run (surefire forks) save the snapshot the last one wins.
+ */
+public class ProjectSnapshot {
+    public static final long DEFAULT_MAX_AGE_HOURS = 7 * 24;
+
+    /**
+     * The contents of the snapshot file.
+     */
+    public static class Contents {
+        public String baseUrl;
+        public String projectName;
+        public String testplanName;
+        public long created;
+        public Project project;
+        public String testplanId;
+    }
+
+    protected final Path file;
+    protected final String baseUrl;
+    protected final String projectName;
+    protected final String testplanName;
+    protected final long maxAgeMillis;
+    protected final ObjectMapper mapper;
+
+    /**
+     * @param file the file to keep the snapshot in
+     * @param baseUrl the url of slick
+     * @param projectName the name of the project results are reported to
+     * @param testplanName the name of the testplan, or null if there is none
+     * @param maxAgeHours how long a snapshot is trusted after it was written
+     */
+    public ProjectSnapshot(Path file, String baseUrl, String projectName, String testplanName, long maxAgeHours) {
+        this.file = file.toAbsolutePath();
+        this.baseUrl = baseUrl;
+        this.projectName = projectName;
+        this.testplanName = testplanName;
+        this.maxAgeMillis = TimeUnit.HOURS.toMillis(maxAgeHours);
+        this.mapper = new ObjectMapper();
+        this.mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    /**
+     * Read the snapshot file.
+     *
+     * @return the snapshot, or null if there isn't a valid one
+     */
+    public Contents load() {
+        if(!Files.isReadable(file)) {
+            return null;
+        }
+        try {
+            Contents contents = mapper.readValue(file.toFile(), Contents.class);
+            if(contents != null && contents.project != null && contents.project.getId() != null &&
+               Objects.equals(baseUrl, contents.baseUrl) && Objects.equals(projectName, contents.projectName) &&
+               Objects.equals(testplanName, contents.testplanName) && (testplanName == null || contents.testplanId != null) &&
+               System.currentTimeMillis() - contents.created < maxAgeMillis) {
+                return contents;
+            }
+        } catch (IOException e) {
+            System.err.println("!! WARNING: ignoring unreadable slick project snapshot " + file + ": " + e.getMessage() + " !!");
+        }
+        return null;
+    }
+
+    /**
+     * Write the snapshot file.
+     *
+     * @param project the project
+     * @param components the components of the project as they are now, including the ones created by this run
+     * @param testplanId the id of the testplan, or null if there is none
+     */
+    public void save(Project project, List<Component> components, String testplanId) {
+        Contents contents = new Contents();
+        contents.baseUrl = baseUrl;
+        contents.projectName = projectName;
+        contents.testplanName = testplanName;
+        contents.created = System.currentTimeMillis();
+        // a copy, the project is still in use
+        contents.project = mapper.convertValue(project, Project.class);
+        contents.project.setComponents(components);
+        contents.testplanId = testplanId;
+        write(contents);
+    }
+
+    protected void write(final Contents contents) {
+        try {
+            LockedJsonFile.write(file, mapper, new LockedJsonFile.Contents() {
+                @Override
+                public Object build() {
+                    return contents;
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("!! ERROR: unable to save slick project snapshot " + file + " !!");
+        }
+    }
+}
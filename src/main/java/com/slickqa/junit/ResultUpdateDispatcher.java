@@ -0,0 +1,211 @@
+package com.slickqa.junit;
+
+import com.slickqa.client.SlickClient;
+import com.slickqa.client.errors.SlickError;
+import com.slickqa.client.model.Result;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends result updates to slick from background threads so the test thread doesn't wait on slick.
+ *
+ * Each result has it's own queue, and only one worker drains a given result's queue at a time, so the updates of a
+ * result reach slick in the order they were made while different results are updated in parallel.  A shutdown hook
+ * waits (up to a deadline) for the queues to drain before the JVM exits.
+ */
+public class ResultUpdateDispatcher {
+
+    protected static class PendingUpdate {
+        final Result update;
+        final long queued;
+
+        PendingUpdate(Result update) {
+            this.update = update;
+            this.queued = System.currentTimeMillis();
+        }
+    }
+
+    protected static class ResultQueue {
+        final Queue<PendingUpdate> updates = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean draining = new AtomicBoolean(false);
+    }
+
+    protected final SlickClient slickClient;
+    protected final ExecutorService workers;
+    protected final ConcurrentMap<String, ResultQueue> queues;
+    protected final AtomicInteger queueDepth;
+    protected final AtomicLong sent;
+    protected final AtomicLong failed;
+    protected final AtomicLong lastLagMillis;
+    protected final AtomicLong maxLagMillis;
+    protected final Object drained;
+
+    public ResultUpdateDispatcher(SlickClient slickClient, int threads) {
+        this.slickClient = slickClient;
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads), new SlickThreadFactory("slick-result-update"));
+        this.queues = new ConcurrentHashMap<>();
+        this.queueDepth = new AtomicInteger(0);
+        this.sent = new AtomicLong(0);
+        this.failed = new AtomicLong(0);
+        this.lastLagMillis = new AtomicLong(0);
+        this.maxLagMillis = new AtomicLong(0);
+        this.drained = new Object();
+    }
+
+    /**
+     * Register a shutdown hook that waits for pending updates before the JVM exits.
+     *
+     * @param timeoutSeconds the longest time to wait
+     */
+    public void drainOnShutdown(final long timeoutSeconds) {
+        Runtime.getRuntime().addShutdownHook(new Thread("slick-result-update-drain") {
+            @Override
+            public void run() {
+                if(!drain(timeoutSeconds, TimeUnit.SECONDS)) {
+                    System.err.println("!! WARNING: " + getQueueDepth() + " slick result updates were not sent before exit !!");
+                }
+            }
+        });
+    }
+
+    /**
+     * Queue an update for a result.
+     *
+     * @param resultId the id of the result to update
+     * @param update the (partial) result to send
+     */
+    public void update(String resultId, Result update) {
+        ResultQueue queue = queues.get(resultId);
+        if(queue == null) {
+            ResultQueue created = new ResultQueue();
+            queue = queues.putIfAbsent(resultId, created);
+            if(queue == null) {
+                queue = created;
+            }
+        }
+        queueDepth.incrementAndGet();
+        queue.updates.add(new PendingUpdate(update));
+        schedule(resultId, queue);
+    }
+
+    protected void schedule(final String resultId, final ResultQueue queue) {
+        if(!queue.updates.isEmpty() && queue.draining.compareAndSet(false, true)) {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    drainQueue(resultId, queue);
+                }
+            });
+        }
+    }
+
+    protected void drainQueue(String resultId, ResultQueue queue) {
+        try {
+            PendingUpdate pending;
+            while((pending = queue.updates.poll()) != null) {
+                send(resultId, pending);
+            }
+        } finally {
+            queue.draining.set(false);
+        }
+        // something may have been added after the queue looked empty but before draining was cleared
+        schedule(resultId, queue);
+    }
+
+    protected void send(String resultId, PendingUpdate pending) {
+        try {
+            slickClient.result(resultId).update(pending.update);
+            sent.incrementAndGet();
+        } catch (SlickError e) {
+            failed.incrementAndGet();
+            e.printStackTrace();
+            System.err.println("!! ERROR: Unable to update result " + resultId + " !!");
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            e.printStackTrace();
+            System.err.println("!! ERROR: Unable to update result " + resultId + " !!");
+        } finally {
+            long lag = System.currentTimeMillis() - pending.queued;
+            lastLagMillis.set(lag);
+            long max = maxLagMillis.get();
+            while(lag > max && !maxLagMillis.compareAndSet(max, lag)) {
+                max = maxLagMillis.get();
+            }
+            if(queueDepth.decrementAndGet() == 0) {
+                synchronized (drained) {
+                    drained.notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait for all queued updates to be sent.
+     *
+     * @param timeout the longest time to wait
+     * @param unit the unit of timeout
+     * @return true if everything was sent, false if the timeout expired first
+     */
+    public boolean drain(long timeout, TimeUnit unit) {
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        synchronized (drained) {
+            while(queueDepth.get() > 0) {
+                long remaining = deadline - System.currentTimeMillis();
+                if(remaining <= 0) {
+                    return false;
+                }
+                try {
+                    drained.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return queueDepth.get() == 0;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of updates queued but not sent yet
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * @return the number of updates sent to slick
+     */
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    /**
+     * @return the number of updates slick didn't accept
+     */
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * @return how long (in milliseconds) the most recently sent update waited between being queued and being sent
+     */
+    public long getLastLagMillis() {
+        return lastLagMillis.get();
+    }
+
+    /**
+     * @return the longest time (in milliseconds) an update has waited between being queued and being sent
+     */
+    public long getMaxLagMillis() {
+        return maxLagMillis.get();
+    }
+}
@@ -0,0 +1,61 @@
+package com.slickqa.junit;
+
+import com.slickqa.client.errors.SlickError;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Helpers for waiting on work done for slick by other threads.
+ */
+class SlickFutures {
+
+    private SlickFutures() {
+    }
+
+    /**
+     * Wait for a future even if this thread is interrupted, the interrupt is restored afterwards.  Used where the
+     * caller can't do anything useful without the value (like registering a result).
+     *
+     * @param future the future to wait for
+     * @param <T> the type of the value
+     * @return the value of the future
+     * @throws ExecutionException if the work failed
+     */
+    static <T> T getUninterruptibly(Future<T> future) throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if(interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Get the SlickError that made the work fail, wrapping anything else in one.
+     *
+     * @param message the message to use if the failure needs wrapping
+     * @param e the failure
+     * @return the failure as a SlickError
+     */
+    static SlickError asSlickError(String message, ExecutionException e) {
+        if(e.getCause() instanceof SlickError) {
+            return (SlickError) e.getCause();
+        }
+        if(e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+        }
+        if(e.getCause() instanceof Error) {
+            throw (Error) e.getCause();
+        }
+        return new SlickError(message, e);
+    }
+}
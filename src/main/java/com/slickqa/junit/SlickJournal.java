@@ -0,0 +1,262 @@
+package com.slickqa.junit;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.slickqa.client.model.LogEntry;
+import com.slickqa.client.model.Result;
+import com.slickqa.junit.annotations.SlickMetaData;
+import com.slickqa.junit.annotations.Step;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An append only journal of everything the junit integration would have sent to slick, used by spool mode.  Records
+ * are JSON documents written into a memory mapped file, so appending one is a memory copy and the records survive
+ * the JVM crashing (the operating system writes the mapped pages back to the file).  SlickJournalReplay sends a
+ * journal to slick later.
+ *
+ * The file starts with a magic number and version, followed by records each stored as a 4 byte length and the
+ * UTF-8 JSON of the record.  The length of a record is written after it's contents, so a record that was only
+ * partially written when the JVM died reads as the end of the journal (the unwritten part of the file is zeros).
+ */
+public class SlickJournal implements Closeable {
+    public static final int MAGIC = 0x534c4b4a; // SLKJ
+    public static final int VERSION = 1;
+    public static final int REGION_SIZE = 8 * 1024 * 1024;
+
+    public static final String CONFIGURATION = "configuration";
+    public static final String REGISTER = "register";
+    public static final String UPDATE = "update";
+    public static final String LOGS = "logs";
+    public static final String FILE = "file";
+    public static final String ATTACH = "attach";
+
+    /**
+     * One event in the journal.  Which fields are set depends on the type.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Record {
+        public String type;
+        public long time;
+        public String resultRef;
+        public String fileRef;
+        public Map<String, String> configuration;
+        public String automationId;
+        public String className;
+        public String methodName;
+        public String title;
+        public String component;
+        public String feature;
+        public String automationKey;
+        public List<String[]> steps;
+        public Result update;
+        public List<LogEntry> logs;
+        public String path;
+        public String filename;
+        public String mimetype;
+
+        public Record() {
+        }
+
+        public Record(String type) {
+            this.type = type;
+            this.time = System.currentTimeMillis();
+        }
+
+        /**
+         * Copy the metadata of a test into this (register) record.
+         *
+         * @param metaData the metadata of the test
+         */
+        public void copyMetaData(SlickMetaData metaData) {
+            title = metaData.title();
+            component = metaData.component();
+            feature = metaData.feature();
+            automationKey = metaData.automationKey();
+            steps = new ArrayList<>();
+            if(metaData.steps() != null) {
+                for(Step step : metaData.steps()) {
+                    steps.add(new String[]{step.step(), step.expectation()});
+                }
+            }
+        }
+
+        /**
+         * Rebuild the metadata of the test from this (register) record.
+         *
+         * @return an instance of SlickMetaData with the recorded values
+         */
+        public SlickMetaData toMetaData() {
+            final Step[] stepArray = new Step[steps == null ? 0 : steps.size()];
+            for(int i = 0; i < stepArray.length; i++) {
+                stepArray[i] = annotation(Step.class, steps.get(i)[0], null, null, steps.get(i)[1]);
+            }
+            return annotation(SlickMetaData.class, title, component, feature, stepArray);
+        }
+
+        private <T> T annotation(final Class<T> type, final String name, final String component, final String feature, final Object last) {
+            return type.cast(Proxy.newProxyInstance(SlickJournal.class.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    switch (method.getName()) {
+                        case "annotationType":
+                            return type;
+                        case "title":
+                        case "step":
+                            return name;
+                        case "component":
+                            return component;
+                        case "feature":
+                            return feature;
+                        case "automationId":
+                            return automationId;
+                        case "automationKey":
+                            return automationKey;
+                        case "steps":
+                        case "expectation":
+                            return last;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            return "@" + type.getSimpleName() + "(" + name + ")";
+                    }
+                }
+            }));
+        }
+    }
+
+    protected final Path file;
+    protected final FileChannel channel;
+    protected final ObjectMapper mapper;
+    protected MappedByteBuffer region;
+    protected long regionStart;
+    protected long counter;
+
+    /**
+     * Create a new journal file.
+     *
+     * @param file where to write the journal, it must not exist
+     * @throws IOException if the file can't be created
+     */
+    public SlickJournal(Path file) throws IOException {
+        this.file = file;
+        this.mapper = createMapper();
+        if(file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.regionStart = 0;
+        this.region = channel.map(FileChannel.MapMode.READ_WRITE, 0, REGION_SIZE);
+        region.putInt(MAGIC);
+        region.putInt(VERSION);
+        this.counter = 0;
+    }
+
+    protected static ObjectMapper createMapper() {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        mapper.enable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        return mapper;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Make a reference that is unique within this journal, used in place of slick ids for results and files.
+     *
+     * @param prefix what kind of thing the reference is for
+     * @return a new reference
+     */
+    public synchronized String newReference(String prefix) {
+        return prefix + "-" + (++counter);
+    }
+
+    /**
+     * Append a record to the journal.
+     *
+     * @param record the record to append
+     * @throws IOException if the record can't be serialized or the file can't grow
+     */
+    public void append(Record record) throws IOException {
+        byte[] content = mapper.writeValueAsBytes(record);
+        synchronized (this) {
+            if(region == null) {
+                throw new IOException("Journal " + file + " is closed");
+            }
+            if(region.remaining() < content.length + 8) {
+                regionStart += region.position();
+                region = channel.map(FileChannel.MapMode.READ_WRITE, regionStart, Math.max(REGION_SIZE, content.length + 8));
+            }
+            int start = region.position();
+            region.position(start + 4);
+            region.put(content);
+            // the length goes in last, until it's there readers see the end of the journal
+            region.putInt(start, content.length);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if(region == null) {
+            return;
+        }
+        region.force();
+        long length = regionStart + region.position();
+        region = null;
+        channel.truncate(length);
+        channel.close();
+    }
+
+    /**
+     * Read all the complete records of a journal.
+     *
+     * @param file the journal file
+     * @return the records in the order they were written
+     * @throws IOException if the file can't be read or isn't a journal
+     */
+    public static List<Record> read(Path file) throws IOException {
+        ObjectMapper mapper = createMapper();
+        List<Record> records = new ArrayList<>();
+        try (FileChannel input = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = input.map(FileChannel.MapMode.READ_ONLY, 0, input.size());
+            if(buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+                throw new IOException(file + " is not a slick journal");
+            }
+            int version = buffer.getInt();
+            if(version != VERSION) {
+                throw new IOException(file + " is journal version " + version + ", only version " + VERSION + " is supported");
+            }
+            while(buffer.remaining() >= 4) {
+                int length = buffer.getInt();
+                if(length <= 0 || length > buffer.remaining()) {
+                    break;
+                }
+                byte[] content = new byte[length];
+                buffer.get(content);
+                records.add(mapper.readValue(new String(content, StandardCharsets.UTF_8), Record.class));
+            }
+        }
+        return records;
+    }
+}
@@ -0,0 +1,420 @@
+package com.slickqa.junit;
+
+import com.slickqa.client.errors.SlickError;
+import com.slickqa.client.model.LogEntry;
+import com.slickqa.client.model.Result;
+import com.slickqa.client.model.StoredFile;
+import org.junit.runner.Description;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Sends spooled journals (see slick.spool) to slick.  Every journal becomes it's own testrun, configured the way
+ * the spooling JVM was configured; system properties override what the journal recorded (for example to point at a
+ * different slick).  A journal that was sent without errors is renamed to end in .replayed so it isn't sent twice.
+ *
+ * Results are registered together through the controller's batch registration, and the logs and files of a result
+ * are sent with one request each.  What was sent is kept in a progress file next to the journal (&lt;journal&gt;.progress)
+ * until the journal is done, so replaying a journal again after errors resumes it in the same testrun instead of
+ * sending everything twice.
+ *
+ * Usage: java -cp ... com.slickqa.junit.SlickJournalReplay &lt;journal file or spool directory&gt;...
+ */
+public class SlickJournalReplay {
+    // how many records are sent between saves of the progress file
+    public static final int SAVE_INTERVAL = 100;
+
+    /**
+     * Configuration for replaying a journal: system properties first, then what was recorded in the journal.
+     * Spooling and background updates are always off while replaying, and a journal being resumed reports to the
+     * testrun it was started in.
+     */
+    public static class JournalConfigurationSource implements SlickConfigurationSource {
+        protected final Map<String, String> recorded;
+        protected final String testrunId;
+
+        public JournalConfigurationSource(Map<String, String> recorded) {
+            this(recorded, null);
+        }
+
+        public JournalConfigurationSource(Map<String, String> recorded, String testrunId) {
+            this.recorded = recorded == null ? new HashMap<String, String>() : recorded;
+            this.testrunId = testrunId;
+        }
+
+        @Override
+        public String getConfigurationEntry(String name) {
+            return getConfigurationEntry(name, null);
+        }
+
+        @Override
+        public String getConfigurationEntry(String name, String defaultValue) {
+            if(ConfigurationNames.SPOOL_DIRECTORY.equals(name) || ConfigurationNames.ASYNC_UPDATES.equals(name)) {
+                return defaultValue;
+            }
+            if(ConfigurationNames.TESTRUN_ID.equals(name) && testrunId != null) {
+                return testrunId;
+            }
+            String value = System.getProperty(name);
+            if(value == null) {
+                value = recorded.get(name);
+            }
+            return value == null ? defaultValue : value;
+        }
+    }
+
+    /**
+     * What has been sent of a journal: the testrun, the ids of the results and files created for the references in
+     * the journal, and the (indexes of the) records that were sent.
+     */
+    public static class Progress {
+        public String testrunId;
+        public Map<String, String> resultIds = new HashMap<>();
+        public Map<String, StoredFile> files = new HashMap<>();
+        public Set<Integer> sent = new TreeSet<>();
+
+        /**
+         * @param file the progress file of a journal
+         * @return what was saved in the file, or nothing sent if there is no file
+         * @throws IOException if the file exists but can't be read
+         */
+        public static Progress load(Path file) throws IOException {
+            if(!Files.exists(file)) {
+                return new Progress();
+            }
+            return SlickJournal.createMapper().readValue(file.toFile(), Progress.class);
+        }
+    }
+
+    protected static class ReplayController extends SlickJunitController {
+        protected ReplayController(SlickConfigurationSource configurationSource) {
+            super(configurationSource);
+        }
+    }
+
+    protected final SlickJunitController controller;
+    protected final Progress progress;
+    protected final Path progressFile;
+    protected int errors;
+
+    public SlickJournalReplay(SlickJunitController controller) {
+        this(controller, new Progress(), null);
+    }
+
+    /**
+     * @param controller the controller to send the records with
+     * @param progress what was already sent, it's updated as records are sent
+     * @param progressFile where to save the progress, or null to not save it
+     */
+    public SlickJournalReplay(SlickJunitController controller, Progress progress, Path progressFile) {
+        this.controller = controller;
+        this.progress = progress;
+        this.progressFile = progressFile;
+        this.errors = 0;
+    }
+
+    /**
+     * Send the records of a journal to slick, skipping the ones the progress says were sent.  The results are
+     * registered first, then the records are sent in order except for logs and attached files, which are sent per
+     * result at the end.  A record that fails is reported and skipped, along with anything that depends on it.
+     *
+     * @param records the records of a journal, in order
+     * @return the number of records that couldn't be sent
+     */
+    public int replay(List<SlickJournal.Record> records) {
+        try {
+            registerAll(records);
+            saveProgress();
+            Map<String, List<Integer>> logs = new LinkedHashMap<>();
+            Map<String, List<Integer>> attachments = new LinkedHashMap<>();
+            int unsaved = 0;
+            for(int i = 0; i < records.size(); i++) {
+                SlickJournal.Record record = records.get(i);
+                if(progress.sent.contains(i) || SlickJournal.REGISTER.equals(record.type)) {
+                    continue;
+                }
+                if(SlickJournal.LOGS.equals(record.type)) {
+                    group(logs, record.resultRef, i);
+                } else if(SlickJournal.ATTACH.equals(record.type)) {
+                    group(attachments, record.resultRef, i);
+                } else {
+                    try {
+                        replay(record);
+                        progress.sent.add(i);
+                    } catch (SlickError | IOException | RuntimeException e) {
+                        failed(record, e);
+                    }
+                    if(++unsaved == SAVE_INTERVAL) {
+                        saveProgress();
+                        unsaved = 0;
+                    }
+                }
+            }
+            for(Map.Entry<String, List<Integer>> entry : logs.entrySet()) {
+                sendLogs(records, entry.getKey(), entry.getValue());
+            }
+            for(Map.Entry<String, List<Integer>> entry : attachments.entrySet()) {
+                sendAttachments(records, entry.getKey(), entry.getValue());
+            }
+        } finally {
+            saveProgress();
+        }
+        return errors;
+    }
+
+    /**
+     * Register the results of all the register records that weren't sent yet, through the controller's batch
+     * registration.  A test registered more than once in the journal (run again, for example) gets it's later
+     * results one at a time, in order.
+     */
+    protected void registerAll(List<SlickJournal.Record> records) {
+        Map<String, SlickJournal.Record> batched = new LinkedHashMap<>();
+        Map<String, Description> tests = new LinkedHashMap<>();
+        List<SlickJournal.Record> again = new ArrayList<>();
+        for(int i = 0; i < records.size(); i++) {
+            SlickJournal.Record record = records.get(i);
+            if(!SlickJournal.REGISTER.equals(record.type) || progress.resultIds.containsKey(record.resultRef)) {
+                continue;
+            }
+            Description description = describeTest(record);
+            String automationId = controller.getAutomationId(description);
+            if(tests.containsKey(automationId)) {
+                again.add(record);
+            } else {
+                tests.put(automationId, description);
+                batched.put(automationId, record);
+            }
+        }
+        if(!tests.isEmpty()) {
+            controller.registerResults(new ArrayList<>(tests.values()));
+        }
+        for(Map.Entry<String, SlickJournal.Record> entry : batched.entrySet()) {
+            Result result = controller.getResultFor(tests.get(entry.getKey()));
+            if(result == null) {
+                failed(entry.getValue(), new SlickError("No result was created for " + entry.getValue().automationId));
+            } else {
+                progress.resultIds.put(entry.getValue().resultRef, result.getId());
+            }
+        }
+        for(SlickJournal.Record record : again) {
+            try {
+                replay(record);
+            } catch (SlickError | IOException | RuntimeException e) {
+                failed(record, e);
+            }
+        }
+    }
+
+    protected void replay(SlickJournal.Record record) throws SlickError, IOException {
+        switch (record.type) {
+            case SlickJournal.REGISTER:
+                Result result = controller.registerResult(describeTest(record), false);
+                if(result == null) {
+                    throw new SlickError("No result was created for " + record.automationId);
+                }
+                progress.resultIds.put(record.resultRef, result.getId());
+                break;
+            case SlickJournal.UPDATE:
+                controller.updateResult(resultIdFor(record), record.update);
+                break;
+            case SlickJournal.FILE:
+                StoredFile file;
+                if(record.mimetype != null) {
+                    try (InputStream inputStream = Files.newInputStream(Paths.get(record.path))) {
+                        file = controller.uploadFile(record.filename, record.mimetype, inputStream);
+                    }
+                } else {
+                    file = controller.uploadFile(Paths.get(record.path));
+                }
+                progress.files.put(record.fileRef, file);
+                break;
+            default:
+                // configuration was used to create the controller, anything else is from a newer version
+                break;
+        }
+    }
+
+    /**
+     * Send the logs of the log records of a result with one request.
+     */
+    protected void sendLogs(List<SlickJournal.Record> records, String resultRef, List<Integer> indexes) {
+        List<LogEntry> entries = new ArrayList<>();
+        for(int i : indexes) {
+            if(records.get(i).logs != null) {
+                entries.addAll(records.get(i).logs);
+            }
+        }
+        try {
+            controller.addLogs(resultIdFor(records.get(indexes.get(0))), entries);
+            progress.sent.addAll(indexes);
+        } catch (SlickError | RuntimeException e) {
+            failed(records, indexes, e);
+        }
+    }
+
+    /**
+     * Add the files of the attach records of a result with one update.
+     */
+    protected void sendAttachments(List<SlickJournal.Record> records, String resultRef, List<Integer> indexes) {
+        try {
+            List<StoredFile> attached = new ArrayList<>(indexes.size());
+            for(int i : indexes) {
+                StoredFile file = progress.files.get(records.get(i).fileRef);
+                if(file == null) {
+                    throw new SlickError("File " + records.get(i).fileRef + " was not uploaded");
+                }
+                attached.add(file);
+            }
+            controller.addFilesToResult(resultIdFor(records.get(indexes.get(0))), attached);
+            progress.sent.addAll(indexes);
+        } catch (SlickError | RuntimeException e) {
+            failed(records, indexes, e);
+        }
+    }
+
+    protected static void group(Map<String, List<Integer>> groups, String resultRef, int index) {
+        List<Integer> group = groups.get(resultRef);
+        if(group == null) {
+            group = new ArrayList<>();
+            groups.put(resultRef, group);
+        }
+        group.add(index);
+    }
+
+    protected void failed(SlickJournal.Record record, Exception e) {
+        errors++;
+        e.printStackTrace();
+        System.err.println("!! ERROR: Unable to replay " + record.type + " record of " + describe(record) + " !!");
+    }
+
+    protected void failed(List<SlickJournal.Record> records, List<Integer> indexes, Exception e) {
+        errors += indexes.size();
+        e.printStackTrace();
+        SlickJournal.Record record = records.get(indexes.get(0));
+        System.err.println("!! ERROR: Unable to replay " + indexes.size() + " " + record.type + " records of " + describe(record) + " !!");
+    }
+
+    /**
+     * Save the progress file, if there is one.  Failing to save it is reported, replaying again would then send
+     * what was sent since it was last saved a second time.
+     */
+    protected void saveProgress() {
+        if(progressFile == null) {
+            return;
+        }
+        try {
+            LockedJsonFile.write(progressFile, SlickJournal.createMapper(), new LockedJsonFile.Contents() {
+                @Override
+                public Object build() {
+                    return progress;
+                }
+            });
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("!! ERROR: Unable to save replay progress to " + progressFile + " !!");
+        }
+    }
+
+    protected String resultIdFor(SlickJournal.Record record) throws SlickError {
+        String resultId = progress.resultIds.get(record.resultRef);
+        if(resultId == null) {
+            throw new SlickError("Result " + record.resultRef + " was not registered");
+        }
+        return resultId;
+    }
+
+    protected static Description describeTest(SlickJournal.Record record) {
+        return Description.createTestDescription(record.className, record.methodName, record.toMetaData());
+    }
+
+    protected static String describe(SlickJournal.Record record) {
+        return record.resultRef != null ? record.resultRef : record.fileRef;
+    }
+
+    /**
+     * @param journal a journal file
+     * @return the file the progress of replaying the journal is kept in
+     */
+    public static Path progressFileOf(Path journal) {
+        return journal.resolveSibling(journal.getFileName() + ".progress");
+    }
+
+    /**
+     * Send one journal file to slick as a new testrun, or resume sending it to the testrun of an earlier try.
+     *
+     * @param journal the journal file
+     * @return true if every record was sent
+     * @throws IOException if the journal can't be read
+     */
+    public static boolean replay(Path journal) throws IOException {
+        List<SlickJournal.Record> records = SlickJournal.read(journal);
+        Map<String, String> configuration = null;
+        for(SlickJournal.Record record : records) {
+            if(SlickJournal.CONFIGURATION.equals(record.type)) {
+                configuration = record.configuration;
+                break;
+            }
+        }
+        Progress progress = Progress.load(progressFileOf(journal));
+        SlickJunitController controller = new ReplayController(new JournalConfigurationSource(configuration, progress.testrunId));
+        return replay(journal, records, controller, progress);
+    }
+
+    /**
+     * Send the records of a journal file with a controller, keeping the progress next to the journal.
+     *
+     * @return true if every record was sent
+     * @throws IOException if the journal can't be renamed once it was sent
+     */
+    protected static boolean replay(Path journal, List<SlickJournal.Record> records, SlickJunitController controller, Progress progress) throws IOException {
+        if(!controller.awaitInitialization()) {
+            System.err.println("!! ERROR: Unable to connect to slick, " + journal + " was not replayed !!");
+            return false;
+        }
+        Path progressFile = progressFileOf(journal);
+        progress.testrunId = controller.getTestrun().getId();
+        int errors = new SlickJournalReplay(controller, progress, progressFile).replay(records);
+        if(errors > 0) {
+            System.err.println("!! ERROR: " + errors + " records of " + journal + " could not be replayed, replay it again to resume !!");
+            return false;
+        }
+        Files.move(journal, journal.resolveSibling(journal.getFileName() + ".replayed"), StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(progressFile);
+        Files.deleteIfExists(progressFile.resolveSibling(progressFile.getFileName() + ".lock"));
+        System.out.println("Replayed " + records.size() + " records from " + journal + " to testrun " + controller.getTestrun().getName());
+        return true;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if(args.length == 0) {
+            System.err.println("Usage: SlickJournalReplay <journal file or spool directory>...");
+            System.exit(2);
+        }
+        List<Path> journals = new ArrayList<>();
+        for(String arg : args) {
+            Path path = Paths.get(arg);
+            if(Files.isDirectory(path)) {
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(path, "*.journal")) {
+                    for(Path entry : entries) {
+                        journals.add(entry);
+                    }
+                }
+            } else {
+                journals.add(path);
+            }
+        }
+        Collections.sort(journals);
+        boolean success = true;
+        for(Path journal : journals) {
+            success &= replay(journal);
+        }
+        System.exit(success ? 0 : 1);
+    }
+}
@@ -12,27 +12,119 @@ import com.slickqa.client.model.*;
 import com.slickqa.junit.annotations.SlickMetaData;
 import org.junit.runner.Description;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.*;
 
 /**
  * Common class used by both the Rule (tests) and the Suite.  This class will initialize the slick client, create
- * the testrun in slick, and will hold a mapping of junit tests to slick results.  The test writer will not likely
+ * the testrun in slick (in the background, see startInitialization), and will hold a mapping of junit tests to
+ * slick results.  The test writer will not likely
  * have to interact with this class unless they want to customize the process by extending.
+ *
+ * The controller is shared by every test in the JVM and is safe to use from several threads at once (for example
+ * when tests run in parallel).  The project and testrun are set once during initialization and never changed, and
+ * a result is only ever created once for a test, even if several threads ask for it at the same time.
  */
 public class SlickJunitController {
-    protected boolean usingSlick;
+    protected volatile boolean usingSlick;
     protected SlickConfigurationSource configurationSource;
-    protected SlickClient slickClient;
-    protected Project project;
-    protected Testrun testrun;
+    protected volatile SlickClient slickClient;
+    protected volatile Project project;
+    protected volatile ProjectReference projectReference;
+    protected volatile Testrun testrun;
+    protected int registrationThreads;
+    protected int registrationBatchSize;
 
     protected Map<String, Result> results;
+    protected ConcurrentMap<String, FutureTask<Result>> registrations;
+    protected Map<String, Testcase> testcaseIndex;
+    protected TestcaseCache testcaseCache;
+    protected ComponentRegistry componentRegistry;
+    protected ResultUpdateDispatcher resultUpdateDispatcher;
+    protected LogShipper logShipper;
+    protected AttachmentQueue attachmentQueue;
+    protected FileStreamer fileStreamer;
+    protected SlickLogFlusher logFlusher;
+    protected long coalesceWindowMillis;
+    protected int capturedLogSize;
+    protected boolean capturedLogSentOnSkip;
+    protected long collapseLogsWindowMillis;
+    protected int logsRateLimit;
+    protected long bulkLogsThreshold;
+    protected ThrowableEncoder throwableEncoder;
+    protected FailureClusters failureClusters;
+    protected ScheduledExecutorService coalesceTimer;
+    protected ConcurrentMap<String, PendingStart> pendingStarts;
+    protected volatile SlickJournal journal;
+    protected FutureTask<Project> projectInitialization;
+    protected FutureTask<Void> testcaseIndexInitialization;
+    protected volatile FutureTask<Void> testcasePrefetch;
+    protected FutureTask<Testrun> testrunInitialization;
+    protected boolean initializationFailed;
+    protected ProjectSnapshot projectSnapshot;
+    protected volatile boolean projectSnapshotUsed;
+    protected FutureTask<Void> projectSnapshotCheck;
+    protected FutureTask<Boolean> projectSnapshotGate;
+
+    /**
+     * A RUNNING update that is being held back, it is sent by whichever comes first: the timer or the final status.
+     */
+    protected static class PendingStart {
+        final Result update;
+        boolean claimed;
+
+        PendingStart(Result update) {
+            this.update = update;
+            this.claimed = false;
+        }
+    }
 
     protected SlickJunitController() {
+        this(null);
+    }
+
+    /**
+     * Create a controller that gets it's configuration from the source given.
+     *
+     * @param configurationSource where to get configuration from, if null initializeConfigurationSource is used
+     */
+    protected SlickJunitController(SlickConfigurationSource configurationSource) {
         usingSlick = false;
-        configurationSource = initializeConfigurationSource();
-        results = new HashMap<>();
+        this.configurationSource = configurationSource != null ? configurationSource : initializeConfigurationSource();
+        results = new ConcurrentHashMap<>();
+        registrations = new ConcurrentHashMap<>();
+        testcaseIndex = new ConcurrentHashMap<>();
+        registrationThreads = getIntegerConfigurationEntry(ConfigurationNames.REGISTRATION_THREADS, 4);
+        registrationBatchSize = getIntegerConfigurationEntry(ConfigurationNames.REGISTRATION_BATCH_SIZE, 25);
+        coalesceWindowMillis = getIntegerConfigurationEntry(ConfigurationNames.COALESCE_WINDOW, 0);
+        if(Boolean.parseBoolean(this.configurationSource.getConfigurationEntry(ConfigurationNames.CAPTURE_LOGS, "false"))) {
+            capturedLogSize = Math.max(1, getIntegerConfigurationEntry(ConfigurationNames.CAPTURE_LOGS_SIZE, 2000));
+        }
+        capturedLogSentOnSkip = Boolean.parseBoolean(this.configurationSource.getConfigurationEntry(ConfigurationNames.CAPTURE_LOGS_SKIPPED, "false"));
+        collapseLogsWindowMillis = getIntegerConfigurationEntry(ConfigurationNames.COLLAPSE_LOGS_WINDOW, 0);
+        logsRateLimit = getIntegerConfigurationEntry(ConfigurationNames.LOGS_RATE_LIMIT, 0);
+        bulkLogsThreshold = getIntegerConfigurationEntry(ConfigurationNames.BULK_LOGS_THRESHOLD, 0);
+        throwableEncoder = new ThrowableEncoder(Boolean.parseBoolean(this.configurationSource.getConfigurationEntry(ConfigurationNames.COMPACT_EXCEPTIONS, "false")));
+        if(Boolean.parseBoolean(this.configurationSource.getConfigurationEntry(ConfigurationNames.FAILURE_CLUSTERS, "false"))) {
+            failureClusters = new FailureClusters();
+        }
+        pendingStarts = new ConcurrentHashMap<>();
         initializeController();
+        if(failureClusters != null && isUsingSlick()) {
+            Runtime.getRuntime().addShutdownHook(new Thread("slick-failure-clusters") {
+                @Override
+                public void run() {
+                    uploadFailureClusters();
+                }
+            });
+        }
     }
 
     /**
@@ -45,7 +137,32 @@ public class SlickJunitController {
         return new SystemPropertyConfigurationSource();
     }
 
+    /**
+     * Get a numeric configuration entry, falling back to the default if it is missing or not a number.
+     *
+     * @param name the name of the configuration entry
+     * @param defaultValue the value to use when the entry is missing or invalid
+     * @return the configured value or defaultValue
+     */
+    protected int getIntegerConfigurationEntry(String name, int defaultValue) {
+        String value = configurationSource.getConfigurationEntry(name, null);
+        if(value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                System.err.println("!! WARNING: configuration " + name + " has invalid value '" + value + "', using " + defaultValue + " !!");
+            }
+        }
+        return defaultValue;
+    }
+
     protected void initializeController() {
+        String spoolDirectory = configurationSource.getConfigurationEntry(ConfigurationNames.SPOOL_DIRECTORY, null);
+        boolean spoolOnlyOnError = Boolean.parseBoolean(configurationSource.getConfigurationEntry(ConfigurationNames.SPOOL_FALLBACK, "false"));
+        if(spoolDirectory != null && !spoolOnlyOnError) {
+            initializeSpool(spoolDirectory);
+            return;
+        }
         String baseurl = configurationSource.getConfigurationEntry(ConfigurationNames.BASE_URL, null);
         String projectName = configurationSource.getConfigurationEntry(ConfigurationNames.PROJECT_NAME, null);
         if(baseurl != null && projectName != null) {
@@ -67,284 +184,1489 @@ public class SlickJunitController {
                         baseurl = baseurl + "/" + add;
                     }
                 }
-                slickClient = SlickClientFactory.getSlickClient(baseurl);
-                ProjectReference projectReference = new ProjectReference();
-                ReleaseReference releaseReference = null;
-                BuildReference buildReference = null;
-                String testplanId = null;
-                String testrunName = null;
+                slickClient = createSlickClient(baseurl);
+                testcaseCache = initializeTestcaseCache();
+                projectSnapshot = initializeProjectSnapshot(baseurl, projectName);
+                usingSlick = true;
+                startInitialization(projectName, spoolDirectory);
+            } catch (RuntimeException e) {
+                initializationFailed(e, spoolDirectory);
+            }
+            if(!Boolean.parseBoolean(configurationSource.getConfigurationEntry(ConfigurationNames.ASYNC_INITIALIZATION, "true"))) {
+                awaitInitialization();
+            }
+        }
+    }
+
+    /**
+     * Start looking up (or creating) the project, testplan and testrun in the background, and loading the testcases
+     * of the project.  The testplan is looked up by project name at the same time as the project, and the testcases
+     * are loaded while the testrun is created.  Tests only wait for what they need when they register results.
+     *
+     * With a valid project snapshot the project is taken from it right away and the testrun is created with the
+     * snapshot's testplan, while the project and testplan are looked up in the background to check the snapshot
+     * (see checkSnapshotProject).  Results wait for the project to be checked, not for the testplan.  If slick won't
+     * create the testrun for the snapshot's project, the snapshot is dropped and the testrun waits for the lookups.
+     *
+     * @param projectName the name of the project
+     * @param spoolDirectory where to spool results if slick can't be initialized, or null
+     */
+    protected void startInitialization(final String projectName, final String spoolDirectory) {
+        ExecutorService initializer = Executors.newFixedThreadPool(5, new SlickThreadFactory("slick-init"));
+        final String testplanName = configurationSource.getConfigurationEntry(ConfigurationNames.TESTPLAN_NAME, null);
+        final ProjectSnapshot.Contents snapshot = projectSnapshot != null ? projectSnapshot.load() : null;
+        projectInitialization = new FutureTask<>(new Callable<Project>() {
+            @Override
+            public Project call() throws Exception {
+                try {
+                    return snapshot != null ? useProject(snapshot.project) : initializeProject(projectName);
+                } catch (SlickError | RuntimeException e) {
+                    initializationFailed(e, spoolDirectory);
+                    throw e;
+                }
+            }
+        });
+        // with a snapshot this only checks it, so it doesn't create a missing project
+        final FutureTask<Project> projectLookup = new FutureTask<>(new Callable<Project>() {
+            @Override
+            public Project call() {
                 try {
-                    project = slickClient.project(projectName).get();
+                    return slickClient.project(projectName).get();
                 } catch (SlickError e) {
-                    project = new Project();
-                    project.setName(projectName);
-                    project = slickClient.projects().create(project);
-                }
-                projectReference.setName(project.getName());
-                projectReference.setId(project.getId());
-
-                String releaseName = configurationSource.getConfigurationEntry(ConfigurationNames.RELEASE_NAME, null);
-                if(releaseName != null) {
-                    releaseReference = new ReleaseReference();
-                    releaseReference.setName(releaseName);
+                    return null;
                 }
-                String buildName = configurationSource.getConfigurationEntry(ConfigurationNames.BUILD_NAME, null);
-                if(buildName != null) {
-                    buildReference = new BuildReference();
-                    buildReference.setName(buildName);
+            }
+        });
+        final FutureTask<TestPlan> testplanLookup = new FutureTask<>(new Callable<TestPlan>() {
+            @Override
+            public TestPlan call() {
+                return findTestplan("project.name", projectName, testplanName);
+            }
+        });
+        testcaseIndexInitialization = new FutureTask<>(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try {
+                    initializeTestcaseIndex(awaitProject());
+                } catch (SlickError e) {
+                    // the project lookup reported it
                 }
-
-                testrunName = configurationSource.getConfigurationEntry(ConfigurationNames.TESTRUN_NAME, null);
-
-                String testplanName = configurationSource.getConfigurationEntry(ConfigurationNames.TESTPLAN_NAME, null);
-                if(testplanName != null) {
-                    HashMap<String, String> query = new HashMap<>();
-                    query.put("project.id", project.getId());
-                    query.put("name", testplanName);
-                    TestPlan tplan = null;
-                    try {
-                        List<TestPlan> tplans = slickClient.testplans(query).getList();
-                        if(tplans != null && tplans.size() > 0) {
-                            tplan = tplans.get(0);
+                return null;
+            }
+        });
+        testrunInitialization = new FutureTask<>(new Callable<Testrun>() {
+            @Override
+            public Testrun call() throws Exception {
+                try {
+                    Project project = awaitProject();
+                    if(snapshot != null) {
+                        try {
+                            Testrun testrun = createTestrun(testplanOf(snapshot.testplanId, testplanName));
+                            projectSnapshotUsed = true;
+                            return initializeTestrun(testrun);
+                        } catch (SlickError e) {
+                            System.err.println("!! WARNING: slick project snapshot " + projectSnapshot.file + " is stale (" + e.getMessage() + "), looking up the project again !!");
                         }
-                    } catch (SlickError e) {
-                        // don't care
-                    }
-                    if(tplan == null) {
-                        tplan = new TestPlan();
-                        tplan.setName(testplanName);
-                        tplan.setProject(projectReference);
-                        tplan = slickClient.testplans().create(tplan);
+                        Project current = SlickFutures.getUninterruptibly(projectLookup);
+                        project = current != null ? useProject(current) : initializeProject(projectName);
+                        reloadTestcaseIndex(snapshot.project, project);
+                        return initializeTestrun(createTestrun(resolveTestplan(findTestplan("project.id", project.getId(), testplanName), testplanName)));
                     }
-                    testplanId = tplan.getId();
-                    if(testrunName == null) {
-                        testrunName = tplan.getName();
+                    TestPlan testplan = testplanName != null ? SlickFutures.getUninterruptibly(testplanLookup) : null;
+                    return initializeTestrun(createTestrun(resolveTestplan(testplan, testplanName)));
+                } catch (SlickError | RuntimeException e) {
+                    initializationFailed(e, spoolDirectory);
+                    throw e;
+                }
+            }
+        });
+        if(snapshot != null) {
+            // there is nothing to wait for
+            projectInitialization.run();
+            initializer.execute(projectLookup);
+            // set before the testrun can be created, so no result misses it
+            projectSnapshotGate = new FutureTask<>(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return checkSnapshotProject(snapshot, projectName, testplanName, projectLookup);
+                }
+            });
+            projectSnapshotCheck = new FutureTask<>(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    projectSnapshotGate.run();
+                    if(SlickFutures.getUninterruptibly(projectSnapshotGate)) {
+                        checkSnapshotTestplan(testplanName, testplanLookup);
                     }
+                    return null;
                 }
+            });
+        } else {
+            initializer.execute(projectInitialization);
+        }
+        initializer.execute(testplanLookup);
+        initializer.execute(testcaseIndexInitialization);
+        initializer.execute(testrunInitialization);
+        if(projectSnapshotCheck != null) {
+            initializer.execute(projectSnapshotCheck);
+        }
+        initializer.shutdown();
+    }
+
+    /**
+     * Check the project of the snapshot the testrun was created from against the one the lookup found in slick.  The
+     * components in the registry are replaced with the ones slick has.  If the project itself was replaced, the
+     * testcases are loaded again and the testrun is moved to the new project.  Results wait for this, so none are
+     * created in a stale project.
+     *
+     * @return true if the testrun was created from the snapshot and it's project is current, so the testplan is
+     *         left to check
+     */
+    protected boolean checkSnapshotProject(ProjectSnapshot.Contents snapshot, String projectName, String testplanName,
+                                           Future<Project> projectLookup) throws SlickError, ExecutionException {
+        Testrun testrun;
+        try {
+            testrun = SlickFutures.getUninterruptibly(testrunInitialization);
+        } catch (ExecutionException e) {
+            // initializationFailed reported it
+            return false;
+        }
+        if(!projectSnapshotUsed) {
+            return false;
+        }
+        Project current = SlickFutures.getUninterruptibly(projectLookup);
+        if(current != null && current.getId().equals(snapshot.project.getId())) {
+            componentRegistry.refresh(current.getComponents());
+            return true;
+        }
+        System.err.println("!! WARNING: the project in slick project snapshot " + projectSnapshot.file + " is stale, moving the testrun !!");
+        Project project = current != null ? useProject(current) : initializeProject(projectName);
+        reloadTestcaseIndex(snapshot.project, project);
+        moveTestrun(testrun, resolveTestplan(findTestplan("project.id", project.getId(), testplanName), testplanName));
+        return false;
+    }
 
-                testrun = new Testrun();
-                testrun.setName(testrunName);
-                testrun.setTestplanId(testplanId);
-                testrun.setProject(projectReference);
-                testrun.setRelease(releaseReference);
-                testrun.setBuild(buildReference);
-                testrun = slickClient.testruns().create(testrun);
+    /**
+     * Fix the testplan of a testrun created from a project snapshot if the one in the snapshot was replaced (or is
+     * missing), while results are being registered.
+     */
+    protected void checkSnapshotTestplan(String testplanName, Future<TestPlan> testplanLookup) throws SlickError, ExecutionException {
+        Testrun testrun = SlickFutures.getUninterruptibly(testrunInitialization);
+        TestPlan testplan = SlickFutures.getUninterruptibly(testplanLookup);
+        if(testplanName != null && (testplan == null || !testplan.getId().equals(testrun.getTestplanId()))) {
+            System.err.println("!! WARNING: the testplan in slick project snapshot " + projectSnapshot.file + " is stale, fixing the testrun !!");
+            moveTestrun(testrun, resolveTestplan(testplan, testplanName));
+        }
+    }
 
-                usingSlick = true;
-            } catch (SlickError e) {
-                e.printStackTrace();
-                System.err.println("!!!!!! Error occurred when initializing slick, no slick report will happen !!!!!!");
-            }
+    /**
+     * Point the testrun at the current project and a testplan, instead of the ones it was created with.
+     */
+    protected void moveTestrun(Testrun testrun, TestPlan testplan) throws SlickError {
+        synchronized (testrun) {
+            testrun.setProject(projectReference);
+            testrun.setTestplanId(testplan != null ? testplan.getId() : null);
+            slickClient.testrun(testrun.getId()).update(testrun);
         }
     }
 
-    public boolean isUsingSlick() {
-        return usingSlick;
+    protected static TestPlan testplanOf(String testplanId, String testplanName) {
+        if(testplanName == null) {
+            return null;
+        }
+        TestPlan testplan = new TestPlan();
+        testplan.setId(testplanId);
+        testplan.setName(testplanName);
+        return testplan;
     }
 
-    public Testrun getTestrun() {
-        return testrun;
+    /**
+     * @param testplan the testplan found in slick, or null if there isn't one
+     * @param testplanName the name of the testplan, or null if there is none
+     * @return the testplan found, or one created for the project
+     * @throws SlickError if the testplan couldn't be created
+     */
+    protected TestPlan resolveTestplan(TestPlan testplan, String testplanName) throws SlickError {
+        if(testplanName == null || testplan != null) {
+            return testplan;
+        }
+        testplan = new TestPlan();
+        testplan.setName(testplanName);
+        testplan.setProject(projectReference);
+        return slickClient.testplans().create(testplan);
     }
 
-    public SlickClient getSlickClient() {
-        if(usingSlick) {
-            return slickClient;
-        } else {
+    /**
+     * Get (or create) the project results are reported to.
+     *
+     * @param projectName the name of the project
+     * @return the project
+     * @throws SlickError if the project couldn't be found or created
+     */
+    protected Project initializeProject(String projectName) throws SlickError {
+        Project project;
+        try {
+            project = slickClient.project(projectName).get();
+        } catch (SlickError e) {
+            project = new Project();
+            project.setName(projectName);
+            project = slickClient.projects().create(project);
+        }
+        return useProject(project);
+    }
+
+    /**
+     * Report results to a project, and register it's components.
+     *
+     * @param project the project
+     * @return the project
+     */
+    protected Project useProject(Project project) {
+        ProjectReference projectReference = new ProjectReference();
+        projectReference.setName(project.getName());
+        projectReference.setId(project.getId());
+        componentRegistry = new ComponentRegistry(slickClient, project.getId(), project.getComponents());
+        this.projectReference = projectReference;
+        this.project = project;
+        return project;
+    }
+
+    /**
+     * Look for a testplan of a project.  At startup it is looked up by the name of the project, so it doesn't have
+     * to wait for the project lookup.
+     *
+     * @param projectField the field of the testplan to find the project by, project.name or project.id
+     * @param projectValue the name or id of the project
+     * @param testplanName the name of the testplan, or null if there is none
+     * @return the testplan, or null if there isn't one (or the query failed)
+     */
+    protected TestPlan findTestplan(String projectField, String projectValue, String testplanName) {
+        if(testplanName == null) {
             return null;
         }
+        HashMap<String, String> query = new HashMap<>();
+        query.put(projectField, projectValue);
+        query.put("name", testplanName);
+        try {
+            List<TestPlan> tplans = slickClient.testplans(query).getList();
+            if(tplans != null && tplans.size() > 0) {
+                return tplans.get(0);
+            }
+        } catch (SlickError e) {
+            // don't care
+        }
+        return null;
     }
 
-    public String getAutomationId(Description testDescription) {
-        String automationId = null;
+    /**
+     * Load the testcase cache, and prefetch the testcases of the project.  When the cache loaded the prefetch waits
+     * for the first test that isn't in it (new, or with changed metadata), so a cache that covers every test costs
+     * no lookups and one that doesn't costs one.
+     */
+    protected void initializeTestcaseIndex(Project project) {
+        boolean cacheLoaded = testcaseCache != null && testcaseCache.load(project.getId());
+        if(!Boolean.parseBoolean(configurationSource.getConfigurationEntry(ConfigurationNames.TESTCASE_PREFETCH, "true"))) {
+            return;
+        }
+        if(cacheLoaded) {
+            testcasePrefetch = new FutureTask<>(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    loadTestcaseIndex();
+                    return null;
+                }
+            });
+        } else {
+            loadTestcaseIndex();
+        }
+    }
+
+    /**
+     * Load the testcases of the project again, when the project turned out to be another one than the snapshot's.
+     *
+     * @param snapshotProject the project the testcases were loaded for
+     * @param project the project results are reported to
+     */
+    protected void reloadTestcaseIndex(Project snapshotProject, Project project) {
         try {
-            SlickMetaData metaData = testDescription.getAnnotation(SlickMetaData.class);
-            if(metaData != null && metaData.automationId() != null && !"".equals(metaData.automationId())) {
-                automationId = metaData.automationId();
+            SlickFutures.getUninterruptibly(testcaseIndexInitialization);
+        } catch (ExecutionException e) {
+            // it's loaded again below if it needs to be
+        }
+        if(!project.getId().equals(snapshotProject.getId())) {
+            testcasePrefetch = null;
+            testcaseIndex.clear();
+            if(testcaseCache != null) {
+                testcaseCache.clear();
             }
-        } catch (RuntimeException e) {
-            // ignore
+            initializeTestcaseIndex(project);
         }
-        if(automationId == null) {
-            automationId = testDescription.getClassName() + ":" + testDescription.getMethodName();
+    }
+
+    /**
+     * Create the testrun, or get the existing one when a testrun id is configured.
+     *
+     * @param testplan the testplan of the testrun, or null if there is none
+     * @return the testrun
+     * @throws SlickError if the testrun couldn't be created
+     */
+    protected Testrun createTestrun(TestPlan testplan) throws SlickError {
+        String testrunId = configurationSource.getConfigurationEntry(ConfigurationNames.TESTRUN_ID, null);
+        if(testrunId != null) {
+            return slickClient.testrun(testrunId).get();
+        }
+        ReleaseReference releaseReference = null;
+        BuildReference buildReference = null;
+        String releaseName = configurationSource.getConfigurationEntry(ConfigurationNames.RELEASE_NAME, null);
+        if(releaseName != null) {
+            releaseReference = new ReleaseReference();
+            releaseReference.setName(releaseName);
+        }
+        String buildName = configurationSource.getConfigurationEntry(ConfigurationNames.BUILD_NAME, null);
+        if(buildName != null) {
+            buildReference = new BuildReference();
+            buildReference.setName(buildName);
         }
 
-        return automationId;
+        String testrunName = configurationSource.getConfigurationEntry(ConfigurationNames.TESTRUN_NAME, null);
+        if(testrunName == null && testplan != null) {
+            testrunName = testplan.getName();
+        }
+
+        Testrun testrun = new Testrun();
+        testrun.setName(testrunName);
+        testrun.setTestplanId(testplan != null ? testplan.getId() : null);
+        testrun.setProject(projectReference);
+        testrun.setRelease(releaseReference);
+        testrun.setBuild(buildReference);
+        return slickClient.testruns().create(testrun);
     }
 
-    public void addResultFor(Description testDescription) throws SlickError {
-        if(isUsingSlick() && testDescription.isTest()) {
-            SlickMetaData metaData = testDescription.getAnnotation(SlickMetaData.class);
-            if(metaData != null) {
-                String automationId = getAutomationId(testDescription);
-                Testcase testcase = null;
+    /**
+     * Start reporting to a testrun: create what is used to send results to it.
+     *
+     * @param testrun the testrun
+     * @return the testrun
+     */
+    protected Testrun initializeTestrun(Testrun testrun) {
+        resultUpdateDispatcher = initializeResultUpdateDispatcher();
+        logShipper = initializeLogShipper();
+        fileStreamer = new FileStreamer(slickClient, getIntegerConfigurationEntry(ConfigurationNames.FILE_COMPRESS_THRESHOLD, (int) FileStreamer.DEFAULT_COMPRESS_THRESHOLD));
+        attachmentQueue = new AttachmentQueue(this, getIntegerConfigurationEntry(ConfigurationNames.FILE_UPLOAD_THREADS, 4),
+                initializeAttachmentCache(), initializeImageOptimizer(),
+                AttachmentQueue.parseStatuses(configurationSource.getConfigurationEntry(ConfigurationNames.FILE_RETAINED_STATUSES, "")));
+        if(attachmentQueue.retainedStatuses != null) {
+            attachmentQueue.discardHeldOnShutdown();
+        }
+        this.testrun = testrun;
+        return testrun;
+    }
 
-                HashMap<String, String> query = new HashMap<>();
-                query.put("project.id", project.getId());
-                query.put("automationId", automationId);
-                ProjectReference projectReference = new ProjectReference();
-                projectReference.setName(project.getName());
-                projectReference.setId(project.getId());
+    /**
+     * Report that slick couldn't be initialized (once, however many lookups failed), and spool results instead if
+     * there is a spool directory.
+     */
+    protected synchronized void initializationFailed(Throwable e, String spoolDirectory) {
+        if(initializationFailed) {
+            return;
+        }
+        initializationFailed = true;
+        usingSlick = false;
+        e.printStackTrace();
+        if(spoolDirectory != null) {
+            System.err.println("!!!!!! Error occurred when initializing slick, results will be spooled instead !!!!!!");
+            initializeSpool(spoolDirectory);
+        } else {
+            System.err.println("!!!!!! Error occurred when initializing slick, no slick report will happen !!!!!!");
+        }
+    }
 
-                try {
-                    List<Testcase> testcases = slickClient.testcases(query).getList();
-                    if(testcases != null && testcases.size() > 0) {
-                        testcase = testcases.get(0);
-                    }
-                } catch (SlickError e) {
-                    // ignore
-                }
+    protected Project awaitProject() throws SlickError {
+        try {
+            return SlickFutures.getUninterruptibly(projectInitialization);
+        } catch (ExecutionException e) {
+            throw SlickFutures.asSlickError("Unable to initialize the slick project", e);
+        }
+    }
 
-                if(testcase == null) {
-                    testcase = new Testcase();
-                    testcase.setName(metaData.title());
-                    testcase.setProject(projectReference);
-                    testcase = slickClient.testcases().create(testcase);
+    /**
+     * Wait for the project and testrun, and the testcases of the project, if they are still being looked up in the
+     * background.
+     *
+     * @return true if results can be reported, to slick or to the spool it fell back to
+     */
+    public boolean awaitInitialization() {
+        for(Future<?> initialization : new Future<?>[] {testrunInitialization, testcaseIndexInitialization}) {
+            if(initialization != null) {
+                try {
+                    SlickFutures.getUninterruptibly(initialization);
+                } catch (ExecutionException e) {
+                    // initializationFailed reported it
                 }
+            }
+        }
+        return usingSlick;
+    }
 
-                testcase.setName(metaData.title());
-                testcase.setAutomated(true);
-                testcase.setAutomationId(automationId);
-                testcase.setAutomationKey(getValueOrNullIfEmpty(metaData.automationKey()));
-                testcase.setAutomationTool("junit");
-                ComponentReference componentReference = null;
-                Component component = null;
-                if(metaData.component() != null && !"".equals(metaData.component())) {
-                    componentReference = new ComponentReference();
-                    componentReference.setName(metaData.component());
-                    if(project.getComponents() != null) {
-                        for (Component possible : project.getComponents()) {
-                            if (metaData.component().equals(possible.getName())) {
-                                componentReference.setId(possible.getId());
-                                componentReference.setCode(possible.getCode());
-                                component = possible;
-                                break;
-                            }
-                        }
-                    }
-                    if(componentReference.getId() == null) {
-                        component = new Component();
-                        component.setName(metaData.component());
-                        try {
-                            component = slickClient.project(project.getId()).components().create(component);
-                            componentReference.setId(component.getId());
-                            project = slickClient.project(project.getId()).get();
-                        } catch (SlickError e) {
-                            component = null;
-                            componentReference = null;
-                        }
-                    }
-                }
-                testcase.setComponent(componentReference);
-                FeatureReference featureReference = null;
-                if(metaData.feature() != null && !"".equals(metaData.feature()) && component != null) {
-                    featureReference = new FeatureReference();
-                    featureReference.setName(metaData.feature());
-                    Feature feature = null;
-                    if(component.getFeatures() != null) {
-                        for(Feature possible: component.getFeatures()) {
-                            if(metaData.feature().equals(possible.getName())) {
-                                featureReference.setId(possible.getId());
-                                feature = possible;
-                                break;
-                            }
-                        }
-                    }
-                    if(feature == null) {
-                        feature = new Feature();
-                        feature.setName(metaData.feature());
-                        if(component.getFeatures() == null) {
-                            component.setFeatures(new ArrayList<Feature>(1));
-                        }
-                        component.getFeatures().add(feature);
-                        try {
-                            component = slickClient.project(project.getId()).component(component.getId()).update(component);
-                            project = slickClient.project(project.getId()).get();
-                            if(component.getFeatures() != null) {
-                                for(Feature possible: component.getFeatures()) {
-                                    if(metaData.feature().equals(possible.getName())) {
-                                        featureReference.setId(feature.getId());
-                                    }
-                                }
-
-                            } else {
-                                // this shouldn't be possible which probably means it'll happen
-                                feature = null;
-                                featureReference = null;
-                            }
-                        } catch (SlickError e) {
-                            feature = null;
-                            featureReference = null;
-                        }
-                    }
+    /**
+     * Start spooling results to a journal instead of sending them to slick.  Everything that would go to slick
+     * is written to a new journal file in the spool directory, which SlickJournalReplay can send to slick later.
+     *
+     * @param spoolDirectory the directory to write the journal to
+     */
+    protected void initializeSpool(String spoolDirectory) {
+        try {
+            String name = "slick-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + "-" +
+                          UUID.randomUUID().toString().substring(0, 8) + ".journal";
+            final SlickJournal journal = new SlickJournal(Paths.get(spoolDirectory).resolve(name));
+            SlickJournal.Record record = new SlickJournal.Record(SlickJournal.CONFIGURATION);
+            record.configuration = new HashMap<>();
+            for(String configurationName : new String[] {ConfigurationNames.BASE_URL, ConfigurationNames.PROJECT_NAME,
+                    ConfigurationNames.RELEASE_NAME, ConfigurationNames.BUILD_NAME, ConfigurationNames.TESTPLAN_NAME,
+                    ConfigurationNames.TESTRUN_NAME}) {
+                String value = configurationSource.getConfigurationEntry(configurationName, null);
+                if(value != null) {
+                    record.configuration.put(configurationName, value);
                 }
-                testcase.setFeature(featureReference);
-                if(metaData.steps() != null && metaData.steps().length > 0) {
-                    testcase.setSteps(new ArrayList<Step>(metaData.steps().length));
-                    for(com.slickqa.junit.annotations.Step metaStep : metaData.steps()) {
-                        Step slickStep = new Step();
-                        slickStep.setName(metaStep.step());
-                        slickStep.setExpectedResult(metaStep.expectation());
-                        testcase.getSteps().add(slickStep);
+            }
+            journal.append(record);
+            Runtime.getRuntime().addShutdownHook(new Thread("slick-journal-close") {
+                @Override
+                public void run() {
+                    try {
+                        journal.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
                     }
                 }
-                testcase = slickClient.testcase(testcase.getId()).update(testcase);
-                TestcaseReference testReference = new TestcaseReference();
-                testReference.setName(testcase.getName());
-                testReference.setAutomationId(testcase.getAutomationId());
-                testReference.setAutomationKey(testcase.getAutomationKey());
-                testReference.setTestcaseId(testcase.getId());
-                testReference.setAutomationTool(testcase.getAutomationTool());
+            });
+            this.journal = journal;
+            slickClient = null;
+            resultUpdateDispatcher = null;
+            logShipper = null;
+            usingSlick = true;
+            System.err.println("!! slick results are being spooled to " + journal.getFile() + " !!");
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("!!!!!! Unable to create slick spool in " + spoolDirectory + ", no slick report will happen !!!!!!");
+        }
+    }
 
-                TestrunReference testrunReference = new TestrunReference();
-                testrunReference.setName(testrun.getName());
-                testrunReference.setTestrunId(testrun.getId());
+    /**
+     * @return the journal results are spooled to, or null if they are sent to slick
+     */
+    public SlickJournal getJournal() {
+        return journal;
+    }
 
-                Result result = new Result();
-                result.setProject(projectReference);
-                result.setTestrun(testrunReference);
-                result.setTestcase(testReference);
-                result.setStatus("NO_RESULT");
-                result.setReason("not run yet...");
-                result.setRecorded(new Date());
-                result = slickClient.results().create(result);
-                results.put(automationId, result);
-            }
+    protected void spool(SlickJournal.Record record) throws SlickError {
+        try {
+            journal.append(record);
+        } catch (IOException e) {
+            throw new SlickError("Unable to write " + record.type + " to slick spool " + journal.getFile(), e);
         }
     }
 
-    public static String getValueOrNullIfEmpty(String value) {
-        if(value == null || "".equals(value)) {
+    /**
+     * Create the client used to talk to slick.
+     *
+     * @param baseurl the url of the slick api
+     * @return a slick client
+     */
+    protected SlickClient createSlickClient(String baseurl) {
+        return SlickClientFactory.getSlickClient(baseurl);
+    }
+
+    /**
+     * Create the testcase cache if it is turned on in the configuration.  The cache is saved when the JVM exits.
+     *
+     * @return the testcase cache or null if it isn't used
+     */
+    protected TestcaseCache initializeTestcaseCache() {
+        String cacheFile = configurationSource.getConfigurationEntry(ConfigurationNames.TESTCASE_CACHE_FILE, null);
+        if(cacheFile == null && Boolean.parseBoolean(configurationSource.getConfigurationEntry(ConfigurationNames.TESTCASE_CACHE, "false"))) {
+            cacheFile = "target/slick-testcase-cache.json";
+        }
+        if(cacheFile == null) {
             return null;
-        } else {
-            return value;
         }
+        final TestcaseCache cache = new TestcaseCache(Paths.get(cacheFile),
+                configurationSource.getConfigurationEntry(ConfigurationNames.TESTCASE_CACHE_EPOCH, null),
+                getIntegerConfigurationEntry(ConfigurationNames.TESTCASE_CACHE_MAX_AGE, (int) TestcaseCache.DEFAULT_MAX_AGE_HOURS));
+        Runtime.getRuntime().addShutdownHook(new Thread("slick-testcase-cache") {
+            @Override
+            public void run() {
+                cache.save();
+            }
+        });
+        return cache;
     }
 
-    public Result getResultFor(Description testDescription) {
-        String automationId = getAutomationId(testDescription);
-        if(results.containsKey(automationId)) {
-            return results.get(automationId);
-        } else {
+    /**
+     * Create the project snapshot, if one is configured.  It is saved when the JVM exits, with the components
+     * created during the run.
+     *
+     * @param baseurl the url of the slick api
+     * @param projectName the name of the project
+     * @return the snapshot or null if there isn't one
+     */
+    protected ProjectSnapshot initializeProjectSnapshot(String baseurl, String projectName) {
+        String snapshotFile = configurationSource.getConfigurationEntry(ConfigurationNames.PROJECT_SNAPSHOT_FILE, null);
+        if(snapshotFile == null) {
             return null;
         }
+        ProjectSnapshot snapshot = new ProjectSnapshot(Paths.get(snapshotFile), baseurl, projectName,
+                configurationSource.getConfigurationEntry(ConfigurationNames.TESTPLAN_NAME, null),
+                getIntegerConfigurationEntry(ConfigurationNames.PROJECT_SNAPSHOT_MAX_AGE, (int) ProjectSnapshot.DEFAULT_MAX_AGE_HOURS));
+        Runtime.getRuntime().addShutdownHook(new Thread("slick-project-snapshot") {
+            @Override
+            public void run() {
+                saveProjectSnapshot();
+            }
+        });
+        return snapshot;
     }
 
-    public Result getOrCreateResultFor(Description testDescription) {
-        if(isUsingSlick()) {
-            Result result = getResultFor(testDescription);
-            if(result == null) {
-                try {
-                    addResultFor(testDescription);
-                    return getResultFor(testDescription);
-                } catch (SlickError e) {
-                    e.printStackTrace();
-                    System.err.println("!!!! ERROR creating slick result for " + testDescription.getDisplayName() + " !!!!");
-                    return null;
+    /**
+     * Save the project snapshot, if there is one and slick was initialized.
+     */
+    public void saveProjectSnapshot() {
+        if(projectSnapshot == null || journal != null || testrunInitialization == null || !testrunInitialization.isDone() || testrun == null) {
+            return;
+        }
+        projectSnapshot.save(project, componentRegistry.getComponents(), testrun.getTestplanId());
+    }
+
+    /**
+     * Create the cache of uploaded files, if files are deduplicated.  It is saved when the JVM exits if it has a
+     * file.
+     *
+     * @return the cache or null if every file is uploaded
+     */
+    protected AttachmentCache initializeAttachmentCache() {
+        String cacheFile = configurationSource.getConfigurationEntry(ConfigurationNames.FILE_CACHE_FILE, null);
+        if(cacheFile == null && !Boolean.parseBoolean(configurationSource.getConfigurationEntry(ConfigurationNames.FILE_DEDUPE, "true"))) {
+            return null;
+        }
+        final AttachmentCache cache = new AttachmentCache(cacheFile != null ? Paths.get(cacheFile) : null,
+                configurationSource.getConfigurationEntry(ConfigurationNames.BASE_URL, null), AttachmentCache.DEFAULT_MAX_AGE_HOURS);
+        if(cacheFile != null) {
+            cache.load();
+            Runtime.getRuntime().addShutdownHook(new Thread("slick-file-cache") {
+                @Override
+                public void run() {
+                    cache.save();
                 }
-            } else {
-                return result;
-            }
-        } else {
+            });
+        }
+        return cache;
+    }
+
+    /**
+     * Create the image optimizer, if images are optimized before they are uploaded.
+     *
+     * @return the optimizer or null if images are uploaded as they are
+     */
+    protected ImageOptimizer initializeImageOptimizer() {
+        if(!Boolean.parseBoolean(configurationSource.getConfigurationEntry(ConfigurationNames.OPTIMIZE_IMAGES, "false"))) {
+            return null;
+        }
+        return new ImageOptimizer(getIntegerConfigurationEntry(ConfigurationNames.OPTIMIZE_IMAGES_MAX_SIZE, ImageOptimizer.DEFAULT_MAX_SIZE),
+                getIntegerConfigurationEntry(ConfigurationNames.OPTIMIZE_IMAGES_QUALITY, ImageOptimizer.DEFAULT_QUALITY));
+    }
+
+    /**
+     * Create the dispatcher for background result updates if they are turned on in the configuration.
+     *
+     * @return the dispatcher or null if results are updated from the test thread
+     */
+    protected ResultUpdateDispatcher initializeResultUpdateDispatcher() {
+        if(!Boolean.parseBoolean(configurationSource.getConfigurationEntry(ConfigurationNames.ASYNC_UPDATES, "false"))) {
+            return null;
+        }
+        ResultUpdateDispatcher dispatcher = new ResultUpdateDispatcher(slickClient, getIntegerConfigurationEntry(ConfigurationNames.ASYNC_UPDATE_THREADS, 4));
+        dispatcher.drainOnShutdown(getIntegerConfigurationEntry(ConfigurationNames.ASYNC_SHUTDOWN_TIMEOUT, 30));
+        return dispatcher;
+    }
+
+    /**
+     * Create the background log shipper if it is turned on in the configuration.
+     *
+     * @return the log shipper or null if logs are sent from the test thread
+     */
+    protected LogShipper initializeLogShipper() {
+        if(!Boolean.parseBoolean(configurationSource.getConfigurationEntry(ConfigurationNames.ASYNC_LOGS, "false"))) {
+            return null;
+        }
+        LogShipper.Overflow overflow = LogShipper.Overflow.BLOCK;
+        String overflowName = configurationSource.getConfigurationEntry(ConfigurationNames.ASYNC_LOGS_OVERFLOW, null);
+        if(overflowName != null) {
+            try {
+                overflow = LogShipper.Overflow.valueOf(overflowName.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println("!! WARNING: unknown " + ConfigurationNames.ASYNC_LOGS_OVERFLOW + " " + overflowName + ", using " + overflow + " !!");
+            }
+        }
+        int timeoutSeconds = getIntegerConfigurationEntry(ConfigurationNames.ASYNC_SHUTDOWN_TIMEOUT, 30);
+        LogShipper shipper = new LogShipper(slickClient, getIntegerConfigurationEntry(ConfigurationNames.ASYNC_LOGS_BUFFER_SIZE, 8192),
+                overflow, getIntegerConfigurationEntry(ConfigurationNames.ASYNC_LOGS_MAX_LATENCY, 1000),
+                TimeUnit.SECONDS.toMillis(timeoutSeconds));
+        shipper.drainOnShutdown(timeoutSeconds);
+        return shipper;
+    }
+
+    /**
+     * Load all the junit testcases of the project into testcaseIndex, keyed by automation id.  If this fails
+     * the index is left empty and testcases are looked up one at a time when results are registered.
+     */
+    protected void loadTestcaseIndex() {
+        HashMap<String, String> query = new HashMap<>();
+        query.put("project.id", project.getId());
+        query.put("automationTool", "junit");
+        try {
+            List<Testcase> testcases = slickClient.testcases(query).getList();
+            if(testcases != null) {
+                for(Testcase testcase : testcases) {
+                    if(testcase.getAutomationId() != null) {
+                        testcaseIndex.put(testcase.getAutomationId(), testcase);
+                    }
+                }
+            }
+        } catch (SlickError e) {
+            // don't care, we'll query for each testcase instead
+        }
+    }
+
+    public SlickConfigurationSource getConfigurationSource() {
+        return configurationSource;
+    }
+
+    /**
+     * @return true if slick is configured and initializing it hasn't failed, initialization may still be running
+     */
+    public boolean isUsingSlick() {
+        return usingSlick;
+    }
+
+    /**
+     * @return the testrun, once it has been created (this waits for it), or null if it couldn't be
+     */
+    public Testrun getTestrun() {
+        awaitInitialization();
+        return testrun;
+    }
+
+    public SlickClient getSlickClient() {
+        if(usingSlick) {
+            return slickClient;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * @return the dispatcher sending result updates in the background, or null if they are sent from the test thread
+     */
+    public ResultUpdateDispatcher getResultUpdateDispatcher() {
+        return resultUpdateDispatcher;
+    }
+
+    /**
+     * @return the shipper sending log entries in the background, or null if they are sent from the test thread
+     */
+    public LogShipper getLogShipper() {
+        return logShipper;
+    }
+
+    /**
+     * Send an update for a result to slick.  When background updates are turned on this only queues the update,
+     * otherwise it is sent before this returns.
+     *
+     * @param resultId the id of the result to update
+     * @param update the (partial) result to send
+     * @throws SlickError if the update was sent and slick returned an error
+     */
+    public void updateResult(String resultId, Result update) throws SlickError {
+        if(journal != null) {
+            SlickJournal.Record record = new SlickJournal.Record(SlickJournal.UPDATE);
+            record.resultRef = resultId;
+            record.update = update;
+            spool(record);
+        } else if(resultUpdateDispatcher != null) {
+            resultUpdateDispatcher.update(resultId, update);
+        } else {
+            slickClient.result(resultId).update(update);
+        }
+    }
+
+    /**
+     * Add log entries to a result.
+     *
+     * @param resultId the id of the result
+     * @param entries the log entries to add
+     * @throws SlickError if slick returned an error
+     */
+    public void addLogs(String resultId, List<LogEntry> entries) throws SlickError {
+        if(journal != null) {
+            SlickJournal.Record record = new SlickJournal.Record(SlickJournal.LOGS);
+            record.resultRef = resultId;
+            record.logs = new ArrayList<>(entries);
+            spool(record);
+        } else {
+            slickClient.result(resultId).addLogs(entries);
+        }
+    }
+
+    /**
+     * Upload a file to slick.  When spooling, the path of the file is recorded instead and the file is uploaded
+     * when the journal is replayed.
+     *
+     * @param localPath the file to upload
+     * @return the stored file
+     * @throws SlickError if the file couldn't be uploaded
+     */
+    public StoredFile uploadFile(Path localPath) throws SlickError {
+        if(journal != null) {
+            SlickJournal.Record record = new SlickJournal.Record(SlickJournal.FILE);
+            record.fileRef = journal.newReference("file");
+            record.path = localPath.toAbsolutePath().toString();
+            record.filename = localPath.getFileName().toString();
+            spool(record);
+            StoredFile file = new StoredFile();
+            file.setId(record.fileRef);
+            file.setFilename(record.filename);
+            return file;
+        }
+        if(fileStreamer != null) {
+            return fileStreamer.upload(localPath, localPath.getFileName().toString(), null);
+        }
+        return slickClient.files().createAndUpload(localPath);
+    }
+
+    /**
+     * Upload a file to slick under another name.  Unlike uploadFile(Path), when spooling the file is copied next to
+     * the journal, so it can be deleted once this returns.
+     *
+     * @param localPath the file to upload
+     * @param filename the name of the file in slick
+     * @param mimetype the mime type of the file
+     * @return the stored file
+     * @throws SlickError if the file couldn't be uploaded
+     */
+    public StoredFile uploadFile(Path localPath, String filename, String mimetype) throws SlickError {
+        if(journal != null || fileStreamer == null) {
+            try (InputStream inputStream = Files.newInputStream(localPath)) {
+                return uploadFile(filename, mimetype, inputStream);
+            } catch (IOException e) {
+                throw new SlickError("Unable to read " + localPath, e);
+            }
+        }
+        return fileStreamer.upload(localPath, filename, mimetype);
+    }
+
+    /**
+     * Upload the contents of a stream to slick as a file.  When spooling, the contents are copied next to the
+     * journal and uploaded when the journal is replayed.
+     *
+     * @param filename the name of the file
+     * @param mimetype the mime type of the file
+     * @param inputStream the contents of the file
+     * @return the stored file
+     * @throws SlickError if the file couldn't be uploaded
+     */
+    public StoredFile uploadFile(String filename, String mimetype, InputStream inputStream) throws SlickError {
+        if(journal != null) {
+            SlickJournal.Record record = new SlickJournal.Record(SlickJournal.FILE);
+            record.fileRef = journal.newReference("file");
+            record.filename = filename;
+            record.mimetype = mimetype;
+            try {
+                Path files = journal.getFile().resolveSibling(journal.getFile().getFileName() + ".files");
+                Files.createDirectories(files);
+                Path copy = files.resolve(record.fileRef);
+                Files.copy(inputStream, copy);
+                record.path = copy.toAbsolutePath().toString();
+            } catch (IOException e) {
+                throw new SlickError("Unable to spool file " + filename, e);
+            }
+            spool(record);
+            StoredFile file = new StoredFile();
+            file.setId(record.fileRef);
+            file.setFilename(filename);
+            file.setMimetype(mimetype);
+            return file;
+        }
+        return slickClient.files().createAndUpload(filename, mimetype, inputStream);
+    }
+
+    /**
+     * Add an uploaded file to the files of a result.
+     *
+     * @param resultId the id of the result
+     * @param file the file, as returned by uploadFile
+     * @throws SlickError if slick returned an error
+     */
+    public void addFileToResult(String resultId, StoredFile file) throws SlickError {
+        addFilesToResult(resultId, Collections.singletonList(file));
+    }
+
+    /**
+     * Add uploaded files to a result, with one update.
+     *
+     * @param resultId the id of the result
+     * @param added the files, as returned by uploadFile
+     * @throws SlickError if slick returned an error
+     */
+    public void addFilesToResult(String resultId, List<StoredFile> added) throws SlickError {
+        if(journal != null) {
+            for(StoredFile file : added) {
+                SlickJournal.Record record = new SlickJournal.Record(SlickJournal.ATTACH);
+                record.resultRef = resultId;
+                record.fileRef = file.getId();
+                spool(record);
+            }
+            return;
+        }
+        Result current = slickClient.result(resultId).get();
+        List<StoredFile> files = current.getFiles();
+        if(files == null) {
+            files = new ArrayList<>(added.size());
+        }
+        files.addAll(added);
+        Result update = new Result();
+        update.setFiles(files);
+        slickClient.result(current.getId()).update(update);
+    }
+
+    /**
+     * Upload a file and add it to a result.  Unless results are spooled, the upload happens in the background and
+     * the file is added to the result when commitFiles is called for it.
+     *
+     * @param resultId the id of the result
+     * @param localPath the file to upload
+     */
+    public void queueFile(String resultId, Path localPath) {
+        if(attachmentQueue != null) {
+            attachmentQueue.add(resultId, localPath);
+            return;
+        }
+        StoredFile file = null;
+        try {
+            file = uploadFile(localPath);
+        } catch (SlickError e) {
+            e.printStackTrace();
+            System.err.println("!! ERROR: unable to upload file " + localPath.toString() + " !!");
+        }
+        if(file != null) {
+            attachFile(resultId, file);
+        }
+    }
+
+    /**
+     * Upload the contents of a stream and add it to a result, see queueFile(String, Path).  The stream is read
+     * before this returns.
+     *
+     * @param resultId the id of the result
+     * @param filename the name of the file
+     * @param mimetype the mime type of the file
+     * @param inputStream the contents of the file
+     */
+    public void queueFile(String resultId, String filename, String mimetype, InputStream inputStream) {
+        if(attachmentQueue != null) {
+            attachmentQueue.add(resultId, filename, mimetype, inputStream);
+            return;
+        }
+        StoredFile file = null;
+        try {
+            file = uploadFile(filename, mimetype, inputStream);
+        } catch (SlickError e) {
+            e.printStackTrace();
+            System.err.println("!! ERROR: unable to upload file " + filename + " !!");
+        }
+        if(file != null) {
+            attachFile(resultId, file);
+        }
+    }
+
+    protected void attachFile(String resultId, StoredFile file) {
+        try {
+            addFileToResult(resultId, file);
+        } catch (SlickError e) {
+            e.printStackTrace();
+            System.err.println("!! ERROR: adding file to result " + resultId + " !!");
+        }
+    }
+
+    /**
+     * Wait for the files queued for a result to be uploaded, and add them to it.  Files held for the status of the
+     * result (see slick.files.retain) stay held.
+     *
+     * @param resultId the id of the result
+     */
+    public void commitFiles(String resultId) {
+        commitFiles(resultId, null);
+    }
+
+    /**
+     * Wait for the files queued for a result that ended to be uploaded, and add them to it.  Files held for the
+     * status of the result are uploaded first if the status is retained, or discarded if it isn't.
+     *
+     * @param resultId the id of the result
+     * @param status the status the result ended with
+     */
+    public void commitFiles(String resultId, String status) {
+        if(attachmentQueue != null) {
+            attachmentQueue.commit(resultId, status);
+        }
+    }
+
+    /**
+     * Mark a result as started.  If a coalesce window is configured the update is held back for that long, and
+     * if the result finishes in the meantime it is sent along with the final status instead.
+     *
+     * @param resultId the id of the result that started
+     * @param update the RUNNING update for the result
+     * @throws SlickError if the update was sent and slick returned an error
+     */
+    public void startResult(final String resultId, Result update) throws SlickError {
+        if(coalesceWindowMillis <= 0) {
+            updateResult(resultId, update);
+            return;
+        }
+        final PendingStart pending = new PendingStart(update);
+        pendingStarts.put(resultId, pending);
+        getCoalesceTimer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (pending) {
+                    if(!pending.claimed) {
+                        pending.claimed = true;
+                        try {
+                            updateResult(resultId, pending.update);
+                        } catch (SlickError e) {
+                            e.printStackTrace();
+                            System.err.println("!! ERROR: Unable to set result to starting. !!");
+                        } finally {
+                            // only now, so a finishResult while RUNNING is being sent finds it and waits
+                            pendingStarts.remove(resultId, pending);
+                        }
+                    }
+                }
+            }
+        }, coalesceWindowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Send the final status of a result.  If the RUNNING update for the result is still being held back, it's
+     * values are folded into this update so only one update is sent.
+     *
+     * @param resultId the id of the result that finished
+     * @param update the final update for the result
+     * @throws SlickError if the update was sent and slick returned an error
+     */
+    public void finishResult(String resultId, Result update) throws SlickError {
+        PendingStart pending = pendingStarts.remove(resultId);
+        if(pending != null) {
+            // if the timer got there first this waits for it to finish sending RUNNING, so the updates stay in order
+            synchronized (pending) {
+                if(!pending.claimed) {
+                    pending.claimed = true;
+                    update.setStarted(pending.update.getStarted());
+                    if(update.getReason() == null) {
+                        update.setReason(pending.update.getReason());
+                    }
+                }
+            }
+        }
+        updateResult(resultId, update);
+    }
+
+    protected synchronized ScheduledExecutorService getCoalesceTimer() {
+        if(coalesceTimer == null) {
+            coalesceTimer = Executors.newSingleThreadScheduledExecutor(new SlickThreadFactory("slick-coalesce"));
+        }
+        return coalesceTimer;
+    }
+
+    /**
+     * @return how many log entries below WARN each test keeps in memory until it fails, 0 if they are sent as usual
+     */
+    public int getCapturedLogSize() {
+        return capturedLogSize;
+    }
+
+    /**
+     * @return true if the captured log entries of skipped tests are sent to slick too
+     */
+    public boolean isCapturedLogSentOnSkip() {
+        return capturedLogSentOnSkip;
+    }
+
+    /**
+     * @return how long (in milliseconds) repeats of a log entry are counted instead of sent, 0 if they aren't
+     */
+    public long getCollapseLogsWindowMillis() {
+        return collapseLogsWindowMillis;
+    }
+
+    /**
+     * @return the most entries with the same level and format a test sends per second, 0 for no limit
+     */
+    public int getLogsRateLimit() {
+        return logsRateLimit;
+    }
+
+    /**
+     * @return how many bytes of log a test sends before the rest goes to an attached file, 0 if it never does
+     */
+    public long getBulkLogsThreshold() {
+        return bulkLogsThreshold;
+    }
+
+    /**
+     * @return the encoder for exceptions sent to slick, shared by all the tests of the run
+     */
+    public ThrowableEncoder getThrowableEncoder() {
+        return throwableEncoder;
+    }
+
+    /**
+     * @return the failures of the run grouped by signature, or null if failures aren't grouped
+     */
+    public FailureClusters getFailureClusters() {
+        return failureClusters;
+    }
+
+    /**
+     * Attach the summary of the failure clusters to the testrun, once, when the run is over.  When results are
+     * spooled the summary is written next to the journal instead.
+     */
+    public void uploadFailureClusters() {
+        if(failureClusters == null || !usingSlick) {
+            return;
+        }
+        byte[] summary = failureClusters.takeSummary();
+        if(summary == null) {
+            return;
+        }
+        try {
+            if(journal != null) {
+                Files.write(Paths.get(journal.getFile().toString() + "." + FailureClusters.SUMMARY_FILENAME), summary);
+                return;
+            }
+            Testrun testrun = getTestrun();
+            if(testrun == null) {
+                return;
+            }
+            StoredFile file = slickClient.files().createAndUpload(FailureClusters.SUMMARY_FILENAME, "application/json", new ByteArrayInputStream(summary));
+            Testrun current = slickClient.testrun(testrun.getId()).get();
+            List<StoredFile> files = current.getFiles();
+            if(files == null) {
+                files = new ArrayList<>(1);
+            }
+            files.add(file);
+            Testrun update = new Testrun();
+            update.setFiles(files);
+            slickClient.testrun(current.getId()).update(update);
+        } catch (SlickError | IOException | RuntimeException e) {
+            e.printStackTrace();
+            System.err.println("!! ERROR: Unable to attach the failure clusters to the testrun !!");
+        }
+    }
+
+    /**
+     * @return the flusher that sends log entries of idle tests, created the first time it is needed
+     */
+    public synchronized SlickLogFlusher getLogFlusher() {
+        if(logFlusher == null) {
+            logFlusher = new SlickLogFlusher(SlickLogFlusher.DEFAULT_PERIOD_MILLIS);
+        }
+        return logFlusher;
+    }
+
+    public String getAutomationId(Description testDescription) {
+        String automationId = null;
+        try {
+            SlickMetaData metaData = testDescription.getAnnotation(SlickMetaData.class);
+            if(metaData != null && metaData.automationId() != null && !"".equals(metaData.automationId())) {
+                automationId = metaData.automationId();
+            }
+        } catch (RuntimeException e) {
+            // ignore
+        }
+        if(automationId == null) {
+            automationId = testDescription.getClassName() + ":" + testDescription.getMethodName();
+        }
+
+        return automationId;
+    }
+
+    public void addResultFor(Description testDescription) throws SlickError {
+        if(isUsingSlick() && testDescription.isTest() && testDescription.getAnnotation(SlickMetaData.class) != null) {
+            registerResult(testDescription, false);
+        }
+    }
+
+    /**
+     * Register a result for a test, making sure only one thread at a time registers a result for a given automation
+     * id.  A thread asking while a registration for the same automation id is in progress waits for that one and
+     * gets it's result instead of creating another.
+     *
+     * @param testDescription the test to register a result for
+     * @param onlyIfMissing if true and a result already exists for the test, return it instead of creating one
+     * @return the result for the test
+     * @throws SlickError if the result couldn't be created
+     */
+    protected Result registerResult(final Description testDescription, final boolean onlyIfMissing) throws SlickError {
+        final String automationId = getAutomationId(testDescription);
+        FutureTask<Result> task = new FutureTask<>(new Callable<Result>() {
+            @Override
+            public Result call() throws Exception {
+                Result existing = results.get(automationId);
+                if(onlyIfMissing && existing != null) {
+                    return existing;
+                }
+                return createResultFor(testDescription, automationId);
+            }
+        });
+        FutureTask<Result> inFlight = registrations.putIfAbsent(automationId, task);
+        if(inFlight == null) {
+            inFlight = task;
+            try {
+                task.run();
+            } finally {
+                registrations.remove(automationId, task);
+            }
+        }
+        try {
+            return SlickFutures.getUninterruptibly(inFlight);
+        } catch (ExecutionException e) {
+            throw SlickFutures.asSlickError("Unable to create result for " + automationId, e);
+        }
+    }
+
+    /**
+     * Create the result (and if needed the testcase) for a test in slick, and remember it.
+     *
+     * @param testDescription the test to create a result for, it must have SlickMetaData
+     * @param automationId the automation id of the test
+     * @return the new result
+     * @throws SlickError if the result couldn't be created
+     */
+    protected Result createResultFor(Description testDescription, String automationId) throws SlickError {
+        SlickMetaData metaData = testDescription.getAnnotation(SlickMetaData.class);
+        // a result needs the project, the testrun and the testcases, wait for them if they are still being looked up
+        if(!awaitInitialization()) {
+            throw new SlickError("Unable to create result for " + automationId + ", slick couldn't be initialized");
+        }
+        if(projectSnapshotUsed) {
+            // wait for the snapshot's project to be checked, and the testrun moved out of it if it was stale
+            try {
+                SlickFutures.getUninterruptibly(projectSnapshotGate);
+            } catch (ExecutionException e) {
+                throw SlickFutures.asSlickError("Unable to create result for " + automationId + ", the project snapshot was stale", e);
+            }
+        }
+        if(journal != null) {
+            return spoolResultFor(testDescription, automationId, metaData);
+        }
+        ProjectReference projectReference = this.projectReference;
+
+        TestcaseReference testReference = null;
+        String fingerprint = null;
+        TestcaseCache.Entry cached = null;
+        if(testcaseCache != null) {
+            fingerprint = TestcaseCache.fingerprint(automationId, metaData);
+            cached = testcaseCache.get(automationId, fingerprint);
+            if(cached != null) {
+                testReference = new TestcaseReference();
+                testReference.setName(metaData.title());
+                testReference.setAutomationId(automationId);
+                testReference.setAutomationKey(getValueOrNullIfEmpty(metaData.automationKey()));
+                testReference.setTestcaseId(cached.testcaseId);
+                testReference.setAutomationTool("junit");
+            }
+        }
+
+        if(testReference == null) {
+            testReference = resolveTestcaseReference(automationId, metaData, projectReference, fingerprint);
+        }
+
+        TestrunReference testrunReference = new TestrunReference();
+        testrunReference.setName(testrun.getName());
+        testrunReference.setTestrunId(testrun.getId());
+
+        Result result = new Result();
+        result.setProject(projectReference);
+        result.setTestrun(testrunReference);
+        result.setTestcase(testReference);
+        result.setStatus("NO_RESULT");
+        result.setReason("not run yet...");
+        result.setRecorded(new Date());
+        Result created;
+        try {
+            created = slickClient.results().create(result);
+        } catch (SlickError e) {
+            if(cached == null) {
+                throw e;
+            }
+            // the cached testcase may have been deleted or moved since it was cached, look it up and try again
+            System.err.println("!! WARNING: unable to create result for " + automationId + " with cached testcase " +
+                    cached.testcaseId + ", looking the testcase up again: " + e.getMessage() + " !!");
+            testcaseCache.remove(automationId, cached);
+            Testcase indexed = testcaseIndex.get(automationId);
+            if(indexed != null && cached.testcaseId.equals(indexed.getId())) {
+                testcaseIndex.remove(automationId, indexed);
+            }
+            result.setTestcase(resolveTestcaseReference(automationId, metaData, projectReference, fingerprint));
+            created = slickClient.results().create(result);
+        }
+        results.put(automationId, created);
+        return created;
+    }
+
+    /**
+     * Resolve the testcase of a test and remember it in the testcase cache.
+     *
+     * @param automationId the automation id of the test
+     * @param metaData the metadata of the test
+     * @param projectReference a reference to the project to create the testcase in
+     * @param fingerprint the fingerprint of the test's metadata, or null if there is no testcase cache
+     * @return a reference to the testcase for the result
+     * @throws SlickError if the testcase can't be created or updated
+     */
+    protected TestcaseReference resolveTestcaseReference(String automationId, SlickMetaData metaData, ProjectReference projectReference, String fingerprint) throws SlickError {
+        Testcase testcase = resolveTestcase(automationId, metaData, projectReference);
+        TestcaseReference testReference = new TestcaseReference();
+        testReference.setName(testcase.getName());
+        testReference.setAutomationId(testcase.getAutomationId());
+        testReference.setAutomationKey(testcase.getAutomationKey());
+        testReference.setTestcaseId(testcase.getId());
+        testReference.setAutomationTool(testcase.getAutomationTool());
+        if(testcaseCache != null) {
+            testcaseCache.put(automationId, new TestcaseCache.Entry(testcase.getId(),
+                    testcase.getComponent() == null ? null : testcase.getComponent().getId(),
+                    testcase.getFeature() == null ? null : testcase.getFeature().getId(),
+                    fingerprint));
+        }
+        return testReference;
+    }
+
+    /**
+     * Record the registration of a result in the spool journal.  The result gets a reference that is only
+     * meaningful inside the journal, the real result is created when the journal is replayed.
+     *
+     * @param testDescription the test to create a result for
+     * @param automationId the automation id of the test
+     * @param metaData the metadata of the test
+     * @return a local result standing in for the slick one
+     * @throws SlickError if the journal couldn't be written
+     */
+    protected Result spoolResultFor(Description testDescription, String automationId, SlickMetaData metaData) throws SlickError {
+        SlickJournal.Record record = new SlickJournal.Record(SlickJournal.REGISTER);
+        record.resultRef = journal.newReference("result");
+        record.automationId = automationId;
+        record.className = testDescription.getClassName();
+        record.methodName = testDescription.getMethodName();
+        record.copyMetaData(metaData);
+        spool(record);
+
+        Result result = new Result();
+        result.setId(record.resultRef);
+        result.setStatus("NO_RESULT");
+        result.setReason("not run yet...");
+        result.setRecorded(new Date(record.time));
+        results.put(automationId, result);
+        return result;
+    }
+
+    /**
+     * Find (or create) the testcase for a test, and bring it up to date with the test's metadata.
+     *
+     * @param automationId the automation id of the test
+     * @param metaData the metadata of the test
+     * @param projectReference a reference to the project to create the testcase in
+     * @return the testcase as it is in slick
+     * @throws SlickError if the testcase can't be created or updated
+     */
+    protected Testcase resolveTestcase(String automationId, SlickMetaData metaData, ProjectReference projectReference) throws SlickError {
+        Testcase testcase = testcaseIndex.get(automationId);
+
+        FutureTask<Void> prefetch = testcasePrefetch;
+        if(testcase == null && prefetch != null) {
+            // the first test missing from the testcase cache runs the prefetch, the rest wait for it
+            prefetch.run();
+            try {
+                SlickFutures.getUninterruptibly(prefetch);
+            } catch (ExecutionException e) {
+                // loadTestcaseIndex doesn't throw
+            }
+            testcase = testcaseIndex.get(automationId);
+        }
+
+        if(testcase == null) {
+            HashMap<String, String> query = new HashMap<>();
+            query.put("project.id", project.getId());
+            query.put("automationId", automationId);
+            try {
+                List<Testcase> testcases = slickClient.testcases(query).getList();
+                if(testcases != null && testcases.size() > 0) {
+                    testcase = testcases.get(0);
+                }
+            } catch (SlickError e) {
+                // ignore
+            }
+        }
+
+        if(testcase == null) {
+            testcase = new Testcase();
+            testcase.setName(metaData.title());
+            testcase.setProject(projectReference);
+            testcase = slickClient.testcases().create(testcase);
+        }
+
+        if(applyMetaData(testcase, automationId, metaData)) {
+            testcase = slickClient.testcase(testcase.getId()).update(testcase);
+        }
+        testcaseIndex.put(automationId, testcase);
+        return testcase;
+    }
+
+    /**
+     * Copy the values from a test's metadata onto it's testcase.
+     *
+     * @param testcase the testcase to update
+     * @param automationId the automation id of the test
+     * @param metaData the metadata of the test
+     * @return true if anything on the testcase changed and it needs to be updated in slick
+     */
+    protected boolean applyMetaData(Testcase testcase, String automationId, SlickMetaData metaData) {
+        ComponentReference oldComponent = testcase.getComponent();
+        FeatureReference oldFeature = testcase.getFeature();
+        boolean changed = !Objects.equals(metaData.title(), testcase.getName()) ||
+                          !Boolean.TRUE.equals(testcase.getAutomated()) ||
+                          !Objects.equals(automationId, testcase.getAutomationId()) ||
+                          !Objects.equals(getValueOrNullIfEmpty(metaData.automationKey()), testcase.getAutomationKey()) ||
+                          !"junit".equals(testcase.getAutomationTool());
+
+        testcase.setName(metaData.title());
+        testcase.setAutomated(true);
+        testcase.setAutomationId(automationId);
+        testcase.setAutomationKey(getValueOrNullIfEmpty(metaData.automationKey()));
+        testcase.setAutomationTool("junit");
+        setComponentAndFeature(testcase, metaData);
+        changed = changed || !isSameComponent(oldComponent, testcase.getComponent()) ||
+                  !isSameFeature(oldFeature, testcase.getFeature());
+
+        if(metaData.steps() != null && metaData.steps().length > 0) {
+            List<Step> steps = new ArrayList<>(metaData.steps().length);
+            for(com.slickqa.junit.annotations.Step metaStep : metaData.steps()) {
+                Step slickStep = new Step();
+                slickStep.setName(metaStep.step());
+                slickStep.setExpectedResult(metaStep.expectation());
+                steps.add(slickStep);
+            }
+            changed = changed || !isSameSteps(testcase.getSteps(), steps);
+            testcase.setSteps(steps);
+        }
+        return changed;
+    }
+
+    protected static boolean isSameComponent(ComponentReference first, ComponentReference second) {
+        if(first == null || second == null) {
+            return first == second;
+        }
+        return Objects.equals(first.getId(), second.getId()) && Objects.equals(first.getName(), second.getName());
+    }
+
+    protected static boolean isSameFeature(FeatureReference first, FeatureReference second) {
+        if(first == null || second == null) {
+            return first == second;
+        }
+        return Objects.equals(first.getId(), second.getId()) && Objects.equals(first.getName(), second.getName());
+    }
+
+    protected static boolean isSameSteps(List<Step> first, List<Step> second) {
+        if(first == null || second == null) {
+            return first == second;
+        }
+        if(first.size() != second.size()) {
+            return false;
+        }
+        for(int i = 0; i < first.size(); i++) {
+            if(!Objects.equals(first.get(i).getName(), second.get(i).getName()) ||
+               !Objects.equals(first.get(i).getExpectedResult(), second.get(i).getExpectedResult())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Fill in the component and feature references of a testcase from it's metadata, creating them in slick
+     * if they don't exist yet.  Components and features come from the component registry.
+     *
+     * @param testcase the testcase to set the component and feature on
+     * @param metaData the metadata of the test
+     */
+    protected void setComponentAndFeature(Testcase testcase, SlickMetaData metaData) {
+        ComponentReference componentReference = null;
+        Component component = null;
+        if(metaData.component() != null && !"".equals(metaData.component())) {
+            try {
+                component = componentRegistry.getOrCreateComponent(metaData.component());
+                componentReference = new ComponentReference();
+                componentReference.setName(component.getName());
+                componentReference.setId(component.getId());
+                componentReference.setCode(component.getCode());
+            } catch (SlickError e) {
+                component = null;
+            }
+        }
+        testcase.setComponent(componentReference);
+        FeatureReference featureReference = null;
+        if(metaData.feature() != null && !"".equals(metaData.feature()) && component != null) {
+            try {
+                Feature feature = componentRegistry.getOrCreateFeature(component.getName(), metaData.feature());
+                if(feature != null) {
+                    featureReference = new FeatureReference();
+                    featureReference.setName(feature.getName());
+                    featureReference.setId(feature.getId());
+                }
+            } catch (SlickError e) {
+                featureReference = null;
+            }
+        }
+        testcase.setFeature(featureReference);
+    }
+
+    public static String getValueOrNullIfEmpty(String value) {
+        if(value == null || "".equals(value)) {
+            return null;
+        } else {
+            return value;
+        }
+    }
+
+    public Result getResultFor(Description testDescription) {
+        return results.get(getAutomationId(testDescription));
+    }
+
+    public Result getOrCreateResultFor(Description testDescription) {
+        if(isUsingSlick()) {
+            Result result = getResultFor(testDescription);
+            if(result == null) {
+                try {
+                    return registerResult(testDescription, true);
+                } catch (SlickError e) {
+                    e.printStackTrace();
+                    System.err.println("!!!! ERROR creating slick result for " + testDescription.getDisplayName() + " !!!!");
+                    return null;
+                }
+            } else {
+                return result;
+            }
+        } else {
             return null;
         }
     }
@@ -352,20 +1674,90 @@ public class SlickJunitController {
 
     public void createSuiteResults(ArrayList<Description> children) {
         if(isUsingSlick()) {
-            for (Description child : children) {
-                if (child.isTest()) {
-                    try {
-                        addResultFor(child);
-                    } catch (SlickError e) {
-                        e.printStackTrace();
-                        System.err.println("!!!! ERROR creating slick result for " + child.getDisplayName() + " !!!!");
-                    }
-                } else {
-                    if (child.getChildren() != null) {
-                        createSuiteResults(child.getChildren());
+            Map<String, Description> tests = new LinkedHashMap<>();
+            collectTests(children, tests);
+            registerResults(new ArrayList<>(tests.values()));
+        }
+    }
+
+    /**
+     * Walk the description tree collecting the tests to register.  Tests are keyed by automation id, so a test
+     * that shows up more than once only gets one result.
+     *
+     * @param children the descriptions to walk
+     * @param tests where to put the tests found
+     */
+    protected void collectTests(List<Description> children, Map<String, Description> tests) {
+        for (Description child : children) {
+            if (child.isTest()) {
+                tests.put(getAutomationId(child), child);
+            } else {
+                if (child.getChildren() != null) {
+                    collectTests(child.getChildren(), tests);
+                }
+            }
+        }
+    }
+
+    /**
+     * Register results for all the tests given.  The tests are split into batches of at most registrationBatchSize
+     * (smaller when there are few tests, so there is a batch for every worker) and the batches are registered by a
+     * pool of registrationThreads workers, as every registration takes several round trips to slick.  This does not
+     * return until every batch is done.
+     *
+     * @param tests the tests to create results for
+     */
+    protected void registerResults(List<Description> tests) {
+        int perThread = (tests.size() + Math.max(1, registrationThreads) - 1) / Math.max(1, registrationThreads);
+        int batchSize = Math.max(1, Math.min(registrationBatchSize, perThread));
+        int batchCount = (tests.size() + batchSize - 1) / batchSize;
+        int threads = Math.min(registrationThreads, batchCount);
+        if(threads <= 1) {
+            registerBatch(tests);
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new SlickThreadFactory("slick-registration"));
+        try {
+            List<Future<?>> batches = new ArrayList<>(batchCount);
+            for(int start = 0; start < tests.size(); start += batchSize) {
+                final List<Description> batch = tests.subList(start, Math.min(start + batchSize, tests.size()));
+                batches.add(pool.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        registerBatch(batch);
                     }
+                }));
+            }
+            for(Future<?> batch : batches) {
+                try {
+                    batch.get();
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                    System.err.println("!!!! ERROR registering a batch of slick results !!!!");
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("!!!! Interrupted while registering slick results !!!!");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Register results one at a time for a batch of tests.  Errors are reported per test, and don't stop the
+     * rest of the batch.
+     *
+     * @param batch the tests to create results for
+     */
+    protected void registerBatch(List<Description> batch) {
+        for (Description test : batch) {
+            try {
+                addResultFor(test);
+            } catch (SlickError e) {
+                e.printStackTrace();
+                System.err.println("!!!! ERROR creating slick result for " + test.getDisplayName() + " !!!!");
+            }
         }
     }
 }
@@ -0,0 +1,59 @@
+package com.slickqa.junit;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the buffered log entries of tests that have stopped logging.  A SlickResultLogger only checks how long
+ * it's entries have waited when a new entry arrives, so a test that logs a few lines and then hangs would keep them
+ * to itself until it finished.  Loggers with buffered entries register here, and one timer thread checks all of
+ * them periodically.
+ */
+public class SlickLogFlusher {
+    public static final long DEFAULT_PERIOD_MILLIS = 1000;
+
+    protected final Set<SlickResultLogger> loggers;
+    protected final ScheduledExecutorService timer;
+
+    public SlickLogFlusher(long periodMillis) {
+        this.loggers = Collections.newSetFromMap(new ConcurrentHashMap<SlickResultLogger, Boolean>());
+        this.timer = Executors.newSingleThreadScheduledExecutor(new SlickThreadFactory("slick-log-flusher"));
+        timer.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flushStale();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void register(SlickResultLogger logger) {
+        loggers.add(logger);
+    }
+
+    public void deregister(SlickResultLogger logger) {
+        loggers.remove(logger);
+    }
+
+    protected void flushStale() {
+        for(SlickResultLogger logger : loggers) {
+            try {
+                logger.flushIfStale();
+            } catch (RuntimeException e) {
+                // keep the timer alive for the other loggers
+                e.printStackTrace();
+                System.err.println("!! ERROR: Unable to flush logs to slick !!");
+            }
+        }
+    }
+
+    /**
+     * @return the number of loggers currently being watched
+     */
+    public int getLiveCount() {
+        return loggers.size();
+    }
+}
@@ -0,0 +1,113 @@
+package com.slickqa.junit;
+
+import org.junit.runner.Runner;
+import org.junit.runners.ParentRunner;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerBuilder;
+import org.junit.runners.model.RunnerScheduler;
+
+import java.lang.annotation.*;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * A SlickSuite that runs it's test classes (and optionally the methods of each class) in parallel on a fork join
+ * pool.  Results are registered up front the same way SlickSuite does, and SlickResultRule keeps the current result
+ * and logger per thread, so reporting to slick works the same as when the tests run one at a time.
+ *
+ * The number of threads and whether methods run in parallel come from the Parallelism annotation on the suite class,
+ * which can be overridden with the slick.parallel.threads and slick.parallel.methods configuration.
+ */
+public class SlickParallelSuite extends SlickSuite {
+
+    /**
+     * How a SlickParallelSuite should run it's tests.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    @Inherited
+    public @interface Parallelism {
+        /**
+         * @return the number of threads to run tests on, 0 means the number of processors
+         */
+        int threads() default 0;
+
+        /**
+         * @return true to also run the methods of each test class in parallel
+         */
+        boolean methods() default false;
+    }
+
+    /**
+     * Runs the children of a runner as fork join tasks.  When this is used from inside the pool (a test class
+     * running it's methods) waiting for the children helps run queued tests instead of blocking a pool thread.
+     */
+    protected static class ForkJoinScheduler implements RunnerScheduler {
+        private final ForkJoinPool pool;
+        private final boolean shutdownWhenFinished;
+        private final Queue<ForkJoinTask<?>> tasks;
+
+        /**
+         * @param pool the pool to run the children on
+         * @param shutdownWhenFinished true to shut the pool down once the children are finished
+         */
+        public ForkJoinScheduler(ForkJoinPool pool, boolean shutdownWhenFinished) {
+            this.pool = pool;
+            this.shutdownWhenFinished = shutdownWhenFinished;
+            this.tasks = new ConcurrentLinkedQueue<>();
+        }
+
+        @Override
+        public void schedule(Runnable childStatement) {
+            ForkJoinTask<?> task = ForkJoinTask.adapt(childStatement);
+            tasks.add(task);
+            if(ForkJoinTask.getPool() == pool) {
+                task.fork();
+            } else {
+                pool.execute(task);
+            }
+        }
+
+        @Override
+        public void finished() {
+            ForkJoinTask<?> task;
+            try {
+                while((task = tasks.poll()) != null) {
+                    task.join();
+                }
+            } finally {
+                if(shutdownWhenFinished) {
+                    pool.shutdown();
+                }
+            }
+        }
+    }
+
+    protected final ForkJoinPool pool;
+
+    public SlickParallelSuite(Class<?> klass, RunnerBuilder builder) throws InitializationError {
+        super(klass, builder);
+        Parallelism parallelism = klass.getAnnotation(Parallelism.class);
+        SlickConfigurationSource configuration = controller.getConfigurationSource();
+        int threads = controller.getIntegerConfigurationEntry(ConfigurationNames.PARALLEL_THREADS,
+                parallelism != null ? parallelism.threads() : 0);
+        boolean methods = Boolean.parseBoolean(configuration.getConfigurationEntry(ConfigurationNames.PARALLEL_METHODS,
+                String.valueOf(parallelism != null && parallelism.methods())));
+        if(threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+
+        pool = new ForkJoinPool(threads);
+        // the suite's scheduler finishes last, it shuts the pool down
+        setScheduler(new ForkJoinScheduler(pool, true));
+        if(methods) {
+            for(Runner child : getChildren()) {
+                if(child instanceof ParentRunner) {
+                    ((ParentRunner<?>) child).setScheduler(new ForkJoinScheduler(pool, false));
+                }
+            }
+        }
+    }
+}
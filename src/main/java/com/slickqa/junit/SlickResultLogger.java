@@ -1,57 +1,491 @@
 package com.slickqa.junit;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.slickqa.client.errors.SlickError;
 import com.slickqa.client.model.LogEntry;
 import com.slickqa.client.model.Result;
+import com.slickqa.client.model.StoredFile;
 import com.slickqa.junit.annotations.SlickLogger;
 
-import java.text.MessageFormat;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 /**
- * Implementation of SlickLogger interface.
+ * Implementation of SlickLogger interface.  Entries are buffered and sent to slick from the test thread, unless
+ * the controller has a LogShipper (slick.logs.async) in which case they are handed to it to send in the background.
+ *
+ * A logger with buffered entries is also registered with the controller's SlickLogFlusher, which sends entries that
+ * have waited MAX_SECONDS_SINCE_FIRST_ENTRY even when the test isn't logging anything else (say because it is hung).
+ * Only one send happens at a time, so entries reach slick in order and the final flush (from close) waits for a send
+ * the flusher already started.
+ *
+ * When the controller has a captured log size (slick.logs.capture), entries below WARN are kept in a bounded ring
+ * instead, and only sent if the rule calls uploadCapturedLog (when the test fails).  Passing tests send only their
+ * warnings and errors.
+ *
+ * Logging doesn't create garbage for entries that are kept in the buffer or ring: entries are pooled PendingEntry
+ * objects holding the time as a long and the level and logger name as constant strings, and they only become
+ * LogEntry (and Date) objects when they are sent.
+ *
+ * Format patterns are parsed once (see MessageTemplate, which also understands SLF4J style {} patterns), and when
+ * the arguments are immutable the message isn't formatted until the entry is sent, so entries that are never sent
+ * (the capture ring of a passing test) are never formatted.
+ *
+ * Noisy tests can be held back per format (and level): with a collapse window (slick.logs.collapse.window) repeats
+ * of an entry within the window after it was sent are only counted, and with a rate limit (slick.logs.ratelimit)
+ * entries over the limit in a second are only counted.  The count, with the times of the first and last entry held
+ * back, is sent as one entry when the next entry for the format is sent or when the test ends.
+ *
+ * Very chatty tests can send the bulk of their log as a file instead (slick.logs.bulk.threshold): once a test has
+ * logged more than the threshold, the rest of it's entries are written to a gzip compressed file with one JSON
+ * entry per line.  When the test ends the file is uploaded once and attached to the result, and an entry saying
+ * where the rest of the log went is all that is added to the log.
  */
 public class SlickResultLogger implements SlickLogger {
     public static int BUFFER_SIZE = 10;
     public static int MAX_SECONDS_SINCE_FIRST_ENTRY = 5;
     public static final String LOGGER_NAME = "testcase";
+    protected static final int MAX_POOLED_ENTRIES = 1024;
+    protected static final int MAX_REPEAT_PATTERNS = 1024;
+    protected static final ObjectMapper BULK_MAPPER = new ObjectMapper();
+    protected static final String[] LEVEL_NAMES;
+    static {
+        LogLevel[] levels = LogLevel.values();
+        LEVEL_NAMES = new String[levels.length];
+        for (LogLevel level : levels) {
+            LEVEL_NAMES[level.ordinal()] = level.toString();
+        }
+    }
+
+    /**
+     * A log entry waiting to be sent.  Either it wraps a LogEntry that was given to addLogEntry, or it holds the
+     * values of an entry this logger made, which are turned into a LogEntry when it is sent.
+     */
+    protected static class PendingEntry {
+        long time;
+        String level;
+        boolean verbose;
+        String message;
+        MessageTemplate template;
+        Object argument1;
+        Object argument2;
+        Object[] arguments;
+        int argumentCount;
+        String exceptionClassName;
+        String exceptionMessage;
+        List<String> exceptionStackTrace;
+        LogEntry entry;
+
+        LogEntry toLogEntry() {
+            if (entry != null) {
+                return entry;
+            }
+            LogEntry logEntry = new LogEntry();
+            logEntry.setEntryTime(new Date(time));
+            logEntry.setLevel(level);
+            logEntry.setLoggerName(LOGGER_NAME);
+            logEntry.setMessage(getMessage());
+            if (exceptionClassName != null) {
+                logEntry.setExceptionClassName(exceptionClassName);
+                logEntry.setExceptionMessage(exceptionMessage);
+                logEntry.setExceptionStackTrace(exceptionStackTrace);
+            }
+            return logEntry;
+        }
+
+        String getMessage() {
+            if (message == null && template != null) {
+                message = template.format(argument1, argument2, arguments, argumentCount);
+            }
+            return message;
+        }
+
+        int estimateBytes() {
+            if (entry != null) {
+                return LogShipper.estimateBytes(entry);
+            }
+            int bytes = 96;
+            if (message != null) {
+                bytes += message.length();
+            } else if (template != null) {
+                bytes += template.getPattern().length() + 16 * argumentCount;
+            }
+            if (exceptionStackTrace != null) {
+                for (String frame : exceptionStackTrace) {
+                    bytes += frame.length() + 4;
+                }
+            }
+            return bytes;
+        }
+
+        long getTime() {
+            if (entry != null) {
+                return entry.getEntryTime() != null ? entry.getEntryTime().getTime() : time;
+            }
+            return time;
+        }
+
+        void clear() {
+            message = null;
+            template = null;
+            argument1 = null;
+            argument2 = null;
+            arguments = null;
+            exceptionClassName = null;
+            exceptionMessage = null;
+            exceptionStackTrace = null;
+            entry = null;
+        }
+    }
+
+    /**
+     * How often entries with one format (and level) have been logged, for collapsing repeats and rate limiting.
+     */
+    protected static class Repeat {
+        long sentAt;
+        long second;
+        int sentThisSecond;
+        int heldBack;
+        long firstHeldBack;
+        long lastHeldBack;
+    }
+
     protected LogLevel minimumLevel;
     protected SlickResultRule slick;
-    protected ArrayList<LogEntry> buffer;
+    protected ArrayList<PendingEntry> buffer;
+    protected final Object bufferLock;
+    protected final Object sendLock;
+    protected volatile String resultId;
+    protected boolean registered;
+    protected boolean closed;
+    protected ArrayDeque<PendingEntry> captured;
+    protected int capturedLimit;
+    protected long discarded;
+    protected final ArrayDeque<PendingEntry> pool;
+    protected long collapseWindowMillis;
+    protected int rateLimit;
+    protected Map<String, Repeat>[] repeats;
+    protected long bulkThreshold;
+    protected long inlineBytes;
+    protected Path bulkFile;
+    protected OutputStream bulkOutput;
+    protected long bulkEntries;
+    protected long bulkBytes;
+    protected ThrowableEncoder throwableEncoder;
 
 
     public SlickResultLogger(SlickResultRule slick) {
         this.slick = slick;
         this.minimumLevel = SlickLogger.DEFAULT_MINIMUM_LOG_LEVEL;
         buffer = new ArrayList<>(BUFFER_SIZE);
+        bufferLock = new Object();
+        sendLock = new Object();
+        registered = false;
+        closed = false;
+        SlickJunitController controller = slick.getSlickJunitController();
+        capturedLimit = controller != null ? controller.getCapturedLogSize() : 0;
+        captured = capturedLimit > 0 ? new ArrayDeque<PendingEntry>(Math.min(capturedLimit, MAX_POOLED_ENTRIES)) : null;
+        discarded = 0;
+        pool = new ArrayDeque<>();
+        collapseWindowMillis = controller != null ? controller.getCollapseLogsWindowMillis() : 0;
+        rateLimit = controller != null ? controller.getLogsRateLimit() : 0;
+        bulkThreshold = controller != null ? controller.getBulkLogsThreshold() : 0;
+        inlineBytes = 0;
+        throwableEncoder = controller != null ? controller.getThrowableEncoder() : new ThrowableEncoder(false);
+        if (collapseWindowMillis > 0 || rateLimit > 0) {
+            @SuppressWarnings("unchecked")
+            Map<String, Repeat>[] byLevel = new Map[LogLevel.values().length];
+            repeats = byLevel;
+        }
+    }
+
+    /**
+     * Decide whether an entry should be sent, or only counted because it is a repeat or over the rate limit.
+     *
+     * @param level the level of the entry
+     * @param pattern the format (or message) of the entry
+     * @return true if the entry should be sent
+     */
+    protected boolean admit(LogLevel level, String pattern) {
+        if (repeats == null || pattern == null) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        PendingEntry summary = null;
+        synchronized (bufferLock) {
+            Map<String, Repeat> byPattern = repeats[level.ordinal()];
+            if (byPattern == null) {
+                byPattern = repeats[level.ordinal()] = new HashMap<>();
+            }
+            Repeat repeat = byPattern.get(pattern);
+            if (repeat == null) {
+                if (byPattern.size() < MAX_REPEAT_PATTERNS) {
+                    repeat = new Repeat();
+                    repeat.sentAt = now;
+                    repeat.second = now / 1000;
+                    repeat.sentThisSecond = 1;
+                    byPattern.put(pattern, repeat);
+                }
+                return true;
+            }
+            if (now / 1000 != repeat.second) {
+                repeat.second = now / 1000;
+                repeat.sentThisSecond = 0;
+            }
+            if ((collapseWindowMillis > 0 && now - repeat.sentAt < collapseWindowMillis) ||
+                (rateLimit > 0 && repeat.sentThisSecond >= rateLimit)) {
+                if (repeat.heldBack == 0) {
+                    repeat.firstHeldBack = now;
+                }
+                repeat.heldBack++;
+                repeat.lastHeldBack = now;
+                return false;
+            }
+            summary = summaryFor(level, pattern, repeat);
+            repeat.sentAt = now;
+            repeat.sentThisSecond++;
+        }
+        if (summary != null) {
+            add(summary);
+        }
+        return true;
+    }
+
+    /**
+     * Make the entry reporting the entries that were held back for a format, must be called holding bufferLock.
+     *
+     * @return the entry, or null if nothing was held back
+     */
+    protected PendingEntry summaryFor(LogLevel level, String pattern, Repeat repeat) {
+        if (repeat.heldBack == 0) {
+            return null;
+        }
+        SimpleDateFormat time = new SimpleDateFormat("HH:mm:ss.SSS");
+        PendingEntry summary = obtain();
+        summary.time = repeat.lastHeldBack;
+        summary.level = LEVEL_NAMES[level.ordinal()];
+        summary.verbose = level.getLevel() < LogLevel.WARN.getLevel();
+        summary.message = "\"" + pattern + "\" repeated " + repeat.heldBack + " more times between " +
+                          time.format(new Date(repeat.firstHeldBack)) + " and " + time.format(new Date(repeat.lastHeldBack));
+        repeat.heldBack = 0;
+        return summary;
+    }
+
+    /**
+     * Send the counts of entries that are still held back, called when the test ends.
+     */
+    protected void addRepeatSummaries() {
+        if (repeats == null) {
+            return;
+        }
+        List<PendingEntry> summaries = new ArrayList<>();
+        synchronized (bufferLock) {
+            LogLevel[] levels = LogLevel.values();
+            for (int i = 0; i < repeats.length; i++) {
+                if (repeats[i] != null) {
+                    for (Map.Entry<String, Repeat> repeat : repeats[i].entrySet()) {
+                        PendingEntry summary = summaryFor(levels[i], repeat.getKey(), repeat.getValue());
+                        if (summary != null) {
+                            summaries.add(summary);
+                        }
+                    }
+                }
+            }
+        }
+        for (PendingEntry summary : summaries) {
+            add(summary);
+        }
+    }
+
+    /**
+     * Get an unused entry from the pool, must be called holding bufferLock.
+     */
+    protected PendingEntry obtain() {
+        PendingEntry pending = pool.pollFirst();
+        return pending != null ? pending : new PendingEntry();
+    }
+
+    /**
+     * Return an entry to the pool, must be called holding bufferLock.
+     */
+    protected void recycle(PendingEntry pending) {
+        pending.clear();
+        if (pool.size() < MAX_POOLED_ENTRIES) {
+            pool.addFirst(pending);
+        }
     }
 
     protected void uploadLogsIfNecessary() {
         if (slick.isUsingSlick()) {
-            if (buffer.size() >= BUFFER_SIZE || (buffer.size() > 0 && (((new Date()).getTime() - buffer.get(0).getEntryTime().getTime()) / 1000) >= MAX_SECONDS_SINCE_FIRST_ENTRY)) {
+            boolean flush;
+            synchronized (bufferLock) {
+                flush = buffer.size() >= BUFFER_SIZE || isStale(System.currentTimeMillis());
+            }
+            if (flush) {
                 flushLogs();
             }
         }
     }
 
+    protected boolean isStale(long now) {
+        return buffer.size() > 0 && ((now - buffer.get(0).getTime()) / 1000) >= MAX_SECONDS_SINCE_FIRST_ENTRY;
+    }
+
+    /**
+     * Send the buffered entries if the oldest has waited too long.  Called by the SlickLogFlusher's thread.
+     */
+    public void flushIfStale() {
+        String id = resultId;
+        if (id != null) {
+            boolean stale;
+            synchronized (bufferLock) {
+                stale = isStale(System.currentTimeMillis());
+            }
+            if (stale) {
+                send(id);
+            }
+        }
+    }
+
     @Override
     public void flushLogs() {
-        if (slick.isUsingSlick() && buffer.size() > 0) {
+        LogShipper shipper = getLogShipper();
+        if (shipper != null) {
+            Result current = slick.getCurrentResult();
+            if (current != null && !shipper.flush(current.getId())) {
+                System.err.println("!! WARNING: timed out waiting for logs of result " + current.getId() + " to be sent to slick !!");
+            }
+        } else if (slick.isUsingSlick()) {
             Result current = slick.getCurrentResult();
             if (current != null) {
+                send(current.getId());
+            }
+        }
+    }
+
+    protected void send(String id) {
+        synchronized (sendLock) {
+            ArrayList<LogEntry> entries;
+            synchronized (bufferLock) {
+                if (buffer.isEmpty()) {
+                    return;
+                }
+                entries = new ArrayList<>(buffer.size());
+                for (PendingEntry pending : buffer) {
+                    entries.add(pending.toLogEntry());
+                    recycle(pending);
+                }
+                buffer.clear();
+            }
+            try {
+                slick.getSlickJunitController().addLogs(id, entries);
+            } catch (SlickError e) {
+                e.printStackTrace();
+                System.err.println("!! ERROR: Unable to post logs to slick !!");
+            }
+        }
+    }
+
+    /**
+     * Send the entries that were kept in memory (see slick.logs.capture) to slick, after whatever is buffered.
+     * If the ring overflowed, a note saying how many entries were discarded goes first.
+     */
+    public void uploadCapturedLog() {
+        addRepeatSummaries();
+        List<LogEntry> entries;
+        long discardedEntries;
+        synchronized (bufferLock) {
+            if (captured == null || captured.isEmpty()) {
+                return;
+            }
+            entries = new ArrayList<>(captured.size() + 1);
+            discardedEntries = discarded;
+            if (discardedEntries > 0) {
+                LogEntry note = new LogEntry();
+                note.setEntryTime(new Date(captured.peekFirst().getTime()));
+                note.setLevel(LEVEL_NAMES[LogLevel.WARN.ordinal()]);
+                note.setLoggerName(LOGGER_NAME);
+                note.setMessage(discardedEntries + " earlier log entries were discarded, only the last " + capturedLimit + " were kept");
+                entries.add(note);
+            }
+            for (PendingEntry pending : captured) {
+                entries.add(pending.toLogEntry());
+                recycle(pending);
+            }
+            captured.clear();
+            discarded = 0;
+        }
+        Result current = slick.getCurrentResult();
+        if (current == null) {
+            return;
+        }
+        if (bulkThreshold > 0) {
+            List<LogEntry> inline = new ArrayList<>(entries.size());
+            for (LogEntry entry : entries) {
+                if (!(useBulk(LogShipper.estimateBytes(entry)) && writeBulk(entry))) {
+                    inline.add(entry);
+                }
+            }
+            entries = inline;
+            if (entries.isEmpty()) {
+                return;
+            }
+        }
+        LogShipper shipper = getLogShipper();
+        if (shipper != null) {
+            for (LogEntry entry : entries) {
+                shipper.append(current.getId(), entry);
+            }
+        } else {
+            flushLogs();
+            synchronized (sendLock) {
                 try {
-                    slick.getSlickClient().result(current.getId()).addLogs(buffer);
+                    slick.getSlickJunitController().addLogs(current.getId(), entries);
                 } catch (SlickError e) {
                     e.printStackTrace();
                     System.err.println("!! ERROR: Unable to post logs to slick !!");
-                } finally {
-                    buffer = new ArrayList<>(BUFFER_SIZE);
                 }
             }
         }
     }
 
+    /**
+     * Stop timed flushing of this logger and send whatever is left.  Called by the rule before the final status
+     * of the result is sent.
+     */
+    public void close() {
+        addRepeatSummaries();
+        finishBulkLog();
+        boolean wasRegistered;
+        synchronized (bufferLock) {
+            closed = true;
+            wasRegistered = registered;
+            registered = false;
+            if (captured != null) {
+                for (PendingEntry pending : captured) {
+                    recycle(pending);
+                }
+                captured.clear();
+            }
+        }
+        if (wasRegistered) {
+            slick.getSlickJunitController().getLogFlusher().deregister(this);
+        }
+        flushLogs();
+    }
+
     @Override
     public LogLevel getMinimumLogLevel() {
         return minimumLevel;
@@ -62,11 +496,184 @@ public class SlickResultLogger implements SlickLogger {
         this.minimumLevel = newMiniumum;
     }
 
+    protected LogShipper getLogShipper() {
+        SlickJunitController controller = slick.getSlickJunitController();
+        return controller != null ? controller.getLogShipper() : null;
+    }
+
     @Override
     public void addLogEntry(LogEntry entry) {
-        if (slick.isUsingSlick()) {
-            buffer.add(entry);
+        PendingEntry pending;
+        synchronized (bufferLock) {
+            pending = obtain();
+        }
+        pending.entry = entry;
+        pending.time = System.currentTimeMillis();
+        pending.verbose = isVerbose(entry);
+        add(pending);
+    }
+
+    protected static boolean isVerbose(LogEntry entry) {
+        try {
+            return LogLevel.valueOf(entry.getLevel()).getLevel() < LogLevel.WARN.getLevel();
+        } catch (IllegalArgumentException | NullPointerException e) {
+            // not one of our levels, don't hold it back
+            return false;
+        }
+    }
+
+    protected void add(PendingEntry pending) {
+        if (captured != null && pending.verbose) {
+            synchronized (bufferLock) {
+                if (closed) {
+                    recycle(pending);
+                } else {
+                    if (captured.size() >= capturedLimit) {
+                        recycle(captured.removeFirst());
+                        discarded++;
+                    }
+                    captured.addLast(pending);
+                }
+            }
+        } else {
+            append(pending);
+        }
+    }
+
+    /**
+     * Decide whether an entry goes to the bulk log file, opening the file when the threshold is first passed.
+     *
+     * @param estimatedBytes the estimated size of the entry
+     * @return true if the entry should be written to the bulk log file
+     */
+    protected boolean useBulk(int estimatedBytes) {
+        if (bulkThreshold <= 0) {
+            return false;
+        }
+        if (bulkOutput == null) {
+            if (inlineBytes < bulkThreshold) {
+                inlineBytes += estimatedBytes;
+                return false;
+            }
+            try {
+                bulkFile = Files.createTempFile("slick-log-", ".ndjson.gz");
+                bulkOutput = new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(bulkFile), 8192));
+                bulkEntries = 0;
+                bulkBytes = 0;
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("!! ERROR: Unable to create bulk log file, logging to slick instead !!");
+                bulkThreshold = 0;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected boolean writeBulk(LogEntry entry) {
+        try {
+            byte[] line = BULK_MAPPER.writeValueAsString(entry).getBytes(StandardCharsets.UTF_8);
+            bulkOutput.write(line);
+            bulkOutput.write('\n');
+            bulkEntries++;
+            bulkBytes += line.length + 1;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("!! ERROR: Unable to write to bulk log file " + bulkFile + " !!");
+            return false;
+        }
+    }
+
+    /**
+     * Upload the bulk log file (if there is one), attach it to the result and log where it went.
+     */
+    protected void finishBulkLog() {
+        if (bulkOutput == null) {
+            return;
+        }
+        // nothing else goes to the file once it is uploaded
+        bulkThreshold = 0;
+        try {
+            bulkOutput.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("!! ERROR: Unable to write to bulk log file " + bulkFile + " !!");
+        }
+        bulkOutput = null;
+        Result current = slick.getCurrentResult();
+        String id = current != null ? current.getId() : resultId;
+        try {
+            if (id != null) {
+                String filename = "log-" + id + ".ndjson.gz";
+                SlickJunitController controller = slick.getSlickJunitController();
+                StoredFile file = controller.uploadFile(bulkFile, filename, "application/gzip");
+                controller.addFileToResult(id, file);
+                PendingEntry summary;
+                synchronized (bufferLock) {
+                    summary = obtain();
+                }
+                summary.time = System.currentTimeMillis();
+                summary.level = LEVEL_NAMES[LogLevel.INFO.ordinal()];
+                summary.verbose = false;
+                summary.message = bulkEntries + " more log entries (" + bulkBytes + " bytes of JSON, compressed to " +
+                                  Files.size(bulkFile) + ") were attached as " + filename;
+                append(summary);
+            }
+        } catch (SlickError | IOException e) {
+            e.printStackTrace();
+            System.err.println("!! ERROR: Unable to upload bulk log file " + bulkFile + " !!");
+        } finally {
+            try {
+                Files.deleteIfExists(bulkFile);
+            } catch (IOException e) {
+                // it's a temp file
+            }
+        }
+    }
+
+    protected void append(PendingEntry pending) {
+        LogShipper shipper = getLogShipper();
+        if ((shipper != null || slick.isUsingSlick()) && useBulk(pending.estimateBytes())) {
+            LogEntry entry = pending.toLogEntry();
+            if (writeBulk(entry)) {
+                synchronized (bufferLock) {
+                    recycle(pending);
+                }
+                return;
+            }
+        }
+        if (shipper != null) {
+            Result current = slick.getCurrentResult();
+            LogEntry entry = pending.toLogEntry();
+            synchronized (bufferLock) {
+                recycle(pending);
+            }
+            if (current != null) {
+                shipper.append(current.getId(), entry);
+            }
+        } else if (slick.isUsingSlick()) {
+            boolean register = false;
+            synchronized (bufferLock) {
+                buffer.add(pending);
+                if (resultId == null) {
+                    Result current = slick.getCurrentResult();
+                    if (current != null) {
+                        resultId = current.getId();
+                    }
+                }
+                if (!registered && !closed && resultId != null) {
+                    registered = register = true;
+                }
+            }
+            if (register) {
+                slick.getSlickJunitController().getLogFlusher().register(this);
+            }
             uploadLogsIfNecessary();
+        } else {
+            synchronized (bufferLock) {
+                recycle(pending);
+            }
         }
         // TODO: print message if configured
     }
@@ -76,62 +683,85 @@ public class SlickResultLogger implements SlickLogger {
         return level.getLevel() >= getMinimumLogLevel().getLevel();
     }
 
-    private LogEntry getLogEntryFor(LogLevel level, String msg) {
-        LogEntry entry = new LogEntry();
-        entry.setEntryTime(new Date());
-        entry.setLevel(level.toString());
-        entry.setLoggerName(LOGGER_NAME);
-        entry.setMessage(msg);
-        return entry;
+    /**
+     * Log a message this logger made, through a pooled entry.
+     */
+    protected void addPendingEntry(LogLevel level, String msg, Throwable t) {
+        PendingEntry pending;
+        synchronized (bufferLock) {
+            pending = obtain();
+        }
+        pending.message = msg;
+        if (t != null) {
+            pending.exceptionClassName = t.getClass().getName();
+            pending.exceptionMessage = t.getMessage();
+            pending.exceptionStackTrace = throwableEncoder.encodeForLog(t);
+        }
+        addPendingEntry(level, pending);
+    }
+
+    /**
+     * Log a formatted message this logger made.  The message is formatted now unless formatting can wait until
+     * the entry is sent.
+     */
+    protected void addFormattedEntry(LogLevel level, String format, Object argument1, Object argument2, Object[] arguments, int count) {
+        MessageTemplate template = MessageTemplate.compile(format);
+        PendingEntry pending;
+        synchronized (bufferLock) {
+            pending = obtain();
+        }
+        if (MessageTemplate.canDefer(argument1, argument2, arguments, count)) {
+            pending.template = template;
+            pending.argument1 = argument1;
+            pending.argument2 = argument2;
+            // the caller could reuse it's array
+            pending.arguments = arguments != null ? arguments.clone() : null;
+            pending.argumentCount = count;
+        } else {
+            pending.message = template.format(argument1, argument2, arguments, count);
+        }
+        addPendingEntry(level, pending);
     }
 
-    private String getFormattedMessage(String message, Object[] arguments) {
-        return MessageFormat.format(message, arguments);
-
+    protected void addPendingEntry(LogLevel level, PendingEntry pending) {
+        pending.time = System.currentTimeMillis();
+        pending.level = LEVEL_NAMES[level.ordinal()];
+        pending.verbose = level.getLevel() < LogLevel.WARN.getLevel();
+        add(pending);
     }
 
     @Override
     public void log(LogLevel level, String msg) {
-        if (isLevelEnabled(level)) {
-            addLogEntry(getLogEntryFor(level, msg));
+        if (isLevelEnabled(level) && admit(level, msg)) {
+            addPendingEntry(level, msg, null);
         }
     }
 
     @Override
     public void log(LogLevel level, String format, Object arg) {
-        if (isLevelEnabled(level)) {
-            addLogEntry(getLogEntryFor(level, getFormattedMessage(format, new Object[]{arg})));
+        if (isLevelEnabled(level) && admit(level, format)) {
+            addFormattedEntry(level, format, arg, null, null, 1);
         }
     }
 
     @Override
     public void log(LogLevel level, String format, Object arg1, Object arg2) {
-        if (isLevelEnabled(level)) {
-            addLogEntry(getLogEntryFor(level, getFormattedMessage(format, new Object[]{arg1, arg2})));
+        if (isLevelEnabled(level) && admit(level, format)) {
+            addFormattedEntry(level, format, arg1, arg2, null, 2);
         }
     }
 
     @Override
     public void log(LogLevel level, String format, Object... args) {
-        if (isLevelEnabled(level)) {
-            addLogEntry(getLogEntryFor(level, getFormattedMessage(format, args)));
+        if (isLevelEnabled(level) && admit(level, format)) {
+            addFormattedEntry(level, format, null, null, args, args == null ? 0 : args.length);
         }
     }
 
     @Override
     public void log(LogLevel level, String msg, Throwable t) {
-        if (isLevelEnabled(level)) {
-            LogEntry entry = getLogEntryFor(level, msg);
-            entry.setExceptionClassName(t.getClass().getName());
-            entry.setExceptionMessage(t.getMessage());
-            StackTraceElement[] elements = t.getStackTrace();
-            ArrayList<String> stackTrace = new ArrayList<>(elements.length);
-            for (StackTraceElement element : elements) {
-                stackTrace.add(element.toString());
-            }
-
-            entry.setExceptionStackTrace(stackTrace);
-            addLogEntry(entry);
+        if (isLevelEnabled(level) && admit(level, msg)) {
+            addPendingEntry(level, msg, t);
         }
     }
 
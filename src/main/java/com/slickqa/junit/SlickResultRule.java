@@ -3,7 +3,6 @@ package com.slickqa.junit;
 import com.slickqa.client.SlickClient;
 import com.slickqa.client.errors.SlickError;
 import com.slickqa.client.model.Result;
-import com.slickqa.client.model.StoredFile;
 import com.slickqa.junit.annotations.SlickLogger;
 import com.slickqa.junit.annotations.SlickMetaData;
 import org.junit.internal.AssumptionViolatedException;
@@ -11,25 +10,21 @@ import org.junit.rules.TestWatcher;
 import org.junit.runner.Description;
 
 import java.io.InputStream;
-import java.io.PrintWriter;
-import java.io.StringWriter;
 import java.nio.file.Path;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 
 /**
  * JUnit rule to use inside the tests
  */
 public class SlickResultRule extends TestWatcher {
 
-    private SlickJunitController slickJunitController;
+    private volatile SlickJunitController slickJunitController;
 
     private ThreadLocal<Result> currentResult;
 
     private ThreadLocal<SlickLogger> logger;
 
-    private boolean triedToInitialize;
+    private volatile boolean triedToInitialize;
 
     public SlickClient getSlickClient() {
         if(isUsingSlick()) {
@@ -54,7 +49,7 @@ public class SlickResultRule extends TestWatcher {
         return logger.get();
     }
 
-    private SlickJunitController getSlickJunitController() {
+    protected SlickJunitController getSlickJunitController() {
         if(!triedToInitialize) {
             slickJunitController = SlickJunitControllerFactory.getControllerInstance();
             triedToInitialize = true;
@@ -78,38 +73,11 @@ public class SlickResultRule extends TestWatcher {
         return current;
     }
 
-    private void addFileToResult(String resultId, StoredFile file) {
-        try {
-            Result current = getSlickClient().result(resultId).get();
-            List<StoredFile> files = current.getFiles();
-            if(files == null) {
-                files = new ArrayList<>(1);
-            }
-            files.add(file);
-            Result update = new Result();
-            update.setFiles(files);
-            getSlickClient().result(current.getId()).update(update);
-        } catch (SlickError e) {
-            e.printStackTrace();
-            System.err.println("!! ERROR: adding file to result " + resultId + " !!");
-        }
-
-    }
-
     public void addFile(Path localPath) {
         if(isUsingSlick()) {
             Result current = currentResult.get();
             if(current != null) {
-                StoredFile file = null;
-                try {
-                    file = getSlickClient().files().createAndUpload(localPath);
-                } catch (SlickError e) {
-                    e.printStackTrace();
-                    System.err.println("!! ERROR: unable to upload file " + localPath.toString() + " !!");
-                }
-                if (file != null) {
-                    addFileToResult(current.getId(), file);
-                }
+                getSlickJunitController().queueFile(current.getId(), localPath);
             } else {
                 System.err.println("!! WARNING: no current result when trying to add " + localPath.toString() + " !!");
             }
@@ -120,35 +88,63 @@ public class SlickResultRule extends TestWatcher {
         if(isUsingSlick()) {
             Result current = currentResult.get();
             if(current != null) {
-                StoredFile file = null;
-                try {
-                    file = getSlickClient().files().createAndUpload(filename, mimetype, inputStream);
-                } catch (SlickError e) {
-                    e.printStackTrace();
-                    System.err.println("!! ERROR: unable to upload file " + filename + " !!");
-                }
-                if (file != null) {
-                    addFileToResult(current.getId(), file);
-                }
+                getSlickJunitController().queueFile(current.getId(), filename, mimetype, inputStream);
             } else {
                 System.err.println("!! WARNING: no current result when trying to add " + filename + " !!");
             }
         }
     }
 
+    /**
+     * Wait for the files added to the current test so far to be uploaded, and add them to it's result.  This
+     * happens anyway when the test ends.  Files held until the test's status is known (see slick.files.retain)
+     * aren't uploaded by this.
+     */
+    public void flushFiles() {
+        if(isUsingSlick()) {
+            Result current = currentResult.get();
+            if(current != null) {
+                getSlickJunitController().commitFiles(current.getId());
+            }
+        }
+    }
+
+    /**
+     * Send what is left of the current test's log, and stop it from being flushed in the background.
+     */
+    private void closeLog() {
+        SlickLogger current = logger.get();
+        if(current instanceof SlickResultLogger) {
+            ((SlickResultLogger) current).close();
+        } else if(current != null) {
+            current.flushLogs();
+        }
+    }
+
+    /**
+     * Send the log entries the current test kept in memory (see slick.logs.capture).
+     */
+    private void uploadCapturedLog() {
+        SlickLogger current = logger.get();
+        if(current instanceof SlickResultLogger) {
+            ((SlickResultLogger) current).uploadCapturedLog();
+        }
+    }
+
     @Override
     protected void succeeded(Description description) {
         super.succeeded(description);
         if(isUsingSlick()) {
             Result result = getSlickJunitController().getResultFor(description);
             if(result != null) {
-                log().flushLogs();
+                closeLog();
+                getSlickJunitController().commitFiles(result.getId(), "PASS");
                 Result update = new Result();
                 update.setFinished(new Date());
                 update.setStatus("PASS");
                 update.setRunstatus("FINISHED");
                 try {
-                    getSlickClient().result(result.getId()).update(update);
+                    getSlickJunitController().finishResult(result.getId(), update);
                 } catch (SlickError e) {
                     e.printStackTrace();
                     System.err.println("!! ERROR: Unable to pass result !!");
@@ -163,16 +159,21 @@ public class SlickResultRule extends TestWatcher {
         if(isUsingSlick()) {
             Result result = getSlickJunitController().getResultFor(description);
             if(result != null) {
-                log().flushLogs();
+                uploadCapturedLog();
+                closeLog();
+                getSlickJunitController().commitFiles(result.getId(), "FAIL");
                 Result update = new Result();
                 update.setFinished(new Date());
                 update.setStatus("FAIL");
                 update.setRunstatus("FINISHED");
-                StringWriter sw = new StringWriter();
-                e.printStackTrace(new PrintWriter(sw));
-                update.setReason(e.getMessage() + "\n" + sw.toString());
+                SlickJunitController controller = getSlickJunitController();
+                if(controller.getFailureClusters() != null) {
+                    update.setReason(controller.getFailureClusters().reasonFor(result.getId(), description.getDisplayName(), e, controller.getThrowableEncoder()));
+                } else {
+                    update.setReason(controller.getThrowableEncoder().toReason(e));
+                }
                 try {
-                    getSlickClient().result(result.getId()).update(update);
+                    getSlickJunitController().finishResult(result.getId(), update);
                 } catch (SlickError err) {
                     err.printStackTrace();
                     System.err.println("!! ERROR: Unable to pass result !!");
@@ -187,14 +188,18 @@ public class SlickResultRule extends TestWatcher {
         if(isUsingSlick()) {
             Result result = getSlickJunitController().getResultFor(description);
             if(result != null) {
-                log().flushLogs();
+                if(getSlickJunitController().isCapturedLogSentOnSkip()) {
+                    uploadCapturedLog();
+                }
+                closeLog();
+                getSlickJunitController().commitFiles(result.getId(), "SKIPPED");
                 Result update = new Result();
                 update.setFinished(new Date());
                 update.setStatus("SKIPPED");
                 update.setRunstatus("FINISHED");
                 update.setReason(e.getMessage());
                 try {
-                    getSlickClient().result(result.getId()).update(update);
+                    getSlickJunitController().finishResult(result.getId(), update);
                 } catch (SlickError err) {
                     err.printStackTrace();
                     System.err.println("!! ERROR: Unable to pass result !!");
@@ -203,19 +208,33 @@ public class SlickResultRule extends TestWatcher {
         }
     }
 
+    @Override
+    protected void finished(Description description) {
+        super.finished(description);
+        closeLog();
+        flushFiles();
+        // threads are reused when tests run in parallel, don't leave this test's result around for the next one
+        currentResult.remove();
+        logger.remove();
+    }
+
     @Override
     protected void starting(Description description) {
         super.starting(description);
         logger.set(new SlickResultLogger(this));
         if(isUsingSlick() && description.getAnnotation(SlickMetaData.class) != null) {
             Result result = getSlickJunitController().getOrCreateResultFor(description);
+            if(result == null) {
+                currentResult.set(null);
+                return;
+            }
             Result update = new Result();
             update.setStarted(new Date());
             update.setReason("");
             update.setRunstatus("RUNNING");
             try {
-                result = getSlickClient().result(result.getId()).update(update);
-                currentResult.set(getSlickClient().result(result.getId()).get());
+                getSlickJunitController().startResult(result.getId(), update);
+                currentResult.set(withUpdate(result, update));
             } catch (SlickError e) {
                 e.printStackTrace();
                 System.err.println("!! ERROR: Unable to set result to starting. !!");
@@ -225,4 +244,36 @@ public class SlickResultRule extends TestWatcher {
             currentResult.set(null);
         }
     }
+
+    /**
+     * Build what a result looks like in slick after an update, without asking slick.
+     *
+     * @param result the result before the update
+     * @param update the update sent for the result
+     * @return a copy of result with the values set in update
+     */
+    private static Result withUpdate(Result result, Result update) {
+        Result updated = new Result();
+        updated.setId(result.getId());
+        updated.setProject(result.getProject());
+        updated.setTestrun(result.getTestrun());
+        updated.setTestcase(result.getTestcase());
+        updated.setComponent(result.getComponent());
+        updated.setConfig(result.getConfig());
+        updated.setConfigurationOverride(result.getConfigurationOverride());
+        updated.setRelease(result.getRelease());
+        updated.setBuild(result.getBuild());
+        updated.setHostname(result.getHostname());
+        updated.setRecorded(result.getRecorded());
+        updated.setHistory(result.getHistory());
+        updated.setLinks(result.getLinks());
+        updated.setFiles(result.getFiles());
+        updated.setStatus(update.getStatus() != null ? update.getStatus() : result.getStatus());
+        updated.setRunstatus(update.getRunstatus() != null ? update.getRunstatus() : result.getRunstatus());
+        updated.setReason(update.getReason() != null ? update.getReason() : result.getReason());
+        updated.setStarted(update.getStarted() != null ? update.getStarted() : result.getStarted());
+        updated.setFinished(update.getFinished() != null ? update.getFinished() : result.getFinished());
+        updated.setRunlength(update.getRunlength() != null ? update.getRunlength() : result.getRunlength());
+        return updated;
+    }
 }
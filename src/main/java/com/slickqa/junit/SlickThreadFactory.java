@@ -0,0 +1,25 @@
+package com.slickqa.junit;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factory for the background workers used to talk to slick.  Threads are named after the job they do
+ * (makes thread dumps readable) and are daemon threads so that they never keep the test JVM alive.
+ */
+public class SlickThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final AtomicInteger count;
+
+    public SlickThreadFactory(String prefix) {
+        this.prefix = prefix;
+        this.count = new AtomicInteger(0);
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, prefix + "-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
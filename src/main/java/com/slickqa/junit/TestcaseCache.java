@@ -0,0 +1,219 @@
+package com.slickqa.junit;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.slickqa.junit.annotations.SlickMetaData;
+import com.slickqa.junit.annotations.Step;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A file that remembers, between runs, which slick testcase (and component and feature) each test was registered
+ * with along with a fingerprint of the test's SlickMetaData.  When the fingerprint of a test hasn't changed the
+ * controller can skip looking up and updating it's testcase.
+ *
+ * The whole file is thrown away when it was written for a different project, when it's epoch doesn't match the
+ * configured one (change the epoch to force everyone to start over) or when it is older than the maximum age.
+ * Several JVMs (surefire forks) can share the file: saving merges with whatever is on disk while holding the lock
+ * of the file (see LockedJsonFile).
+ */
+public class TestcaseCache {
+    public static final long DEFAULT_MAX_AGE_HOURS = 7 * 24;
+
+    /**
+     * What is remembered about a single test.
+     */
+    public static class Entry {
+        public String testcaseId;
+        public String componentId;
+        public String featureId;
+        public String fingerprint;
+
+        public Entry() {
+        }
+
+        public Entry(String testcaseId, String componentId, String featureId, String fingerprint) {
+            this.testcaseId = testcaseId;
+            this.componentId = componentId;
+            this.featureId = featureId;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    /**
+     * The contents of the cache file.
+     */
+    public static class Contents {
+        public String projectId;
+        public String epoch;
+        public long created;
+        public Map<String, Entry> entries = new HashMap<>();
+    }
+
+    protected final Path file;
+    protected final String epoch;
+    protected final long maxAgeMillis;
+    protected final ObjectMapper mapper;
+    protected String projectId;
+    protected long created;
+    protected Map<String, Entry> entries;
+    protected Map<String, Entry> changed;
+
+    public TestcaseCache(Path file, String epoch, long maxAgeHours) {
+        this.file = file.toAbsolutePath();
+        this.epoch = epoch;
+        this.maxAgeMillis = TimeUnit.HOURS.toMillis(maxAgeHours);
+        this.mapper = new ObjectMapper();
+        this.mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.entries = new ConcurrentHashMap<>();
+        this.changed = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Load the cache file for a project.  An invalid, missing or unreadable file leaves the cache empty.
+     *
+     * @param projectId the id of the project the results are going to
+     * @return true if any entries were loaded
+     */
+    public boolean load(String projectId) {
+        this.projectId = projectId;
+        this.created = System.currentTimeMillis();
+        Contents contents = readIfValid();
+        if(contents != null) {
+            created = contents.created;
+            entries.putAll(contents.entries);
+        }
+        return !entries.isEmpty();
+    }
+
+    /**
+     * Forget every entry, for when the project they were loaded for turned out to be another one.
+     */
+    public void clear() {
+        entries.clear();
+        changed.clear();
+    }
+
+    protected Contents readIfValid() {
+        if(!Files.isReadable(file)) {
+            return null;
+        }
+        try {
+            Contents contents = mapper.readValue(file.toFile(), Contents.class);
+            if(contents != null && contents.entries != null && projectId.equals(contents.projectId) &&
+               (epoch == null ? contents.epoch == null : epoch.equals(contents.epoch)) &&
+               System.currentTimeMillis() - contents.created < maxAgeMillis) {
+                return contents;
+            }
+        } catch (IOException e) {
+            System.err.println("!! WARNING: ignoring unreadable slick testcase cache " + file + ": " + e.getMessage() + " !!");
+        }
+        return null;
+    }
+
+    /**
+     * Get the cached entry for a test, but only if it's metadata still has the same fingerprint.
+     *
+     * @param automationId the automation id of the test
+     * @param fingerprint the fingerprint of the test's current metadata
+     * @return the entry or null if the test has to be looked up
+     */
+    public Entry get(String automationId, String fingerprint) {
+        Entry entry = entries.get(automationId);
+        if(entry != null && entry.testcaseId != null && fingerprint.equals(entry.fingerprint)) {
+            return entry;
+        }
+        return null;
+    }
+
+    public void put(String automationId, Entry entry) {
+        entries.put(automationId, entry);
+        changed.put(automationId, entry);
+    }
+
+    /**
+     * Forget the entry of a test, for when slick no longer has it's testcase.  Nothing is removed if the entry was
+     * replaced in the meantime.
+     *
+     * @param automationId the automation id of the test
+     * @param entry the entry that turned out to be wrong
+     */
+    public void remove(String automationId, Entry entry) {
+        entries.remove(automationId, entry);
+        changed.remove(automationId, entry);
+    }
+
+    /**
+     * Write the entries that changed in this JVM to the cache file, merging them with what other JVMs may have
+     * written since it was loaded.
+     */
+    public synchronized void save() {
+        if(changed.isEmpty() || projectId == null) {
+            return;
+        }
+        final Map<String, Entry> saving = new HashMap<>(changed);
+        try {
+            LockedJsonFile.write(file, mapper, new LockedJsonFile.Contents() {
+                @Override
+                public Object build() {
+                    Contents contents = readIfValid();
+                    if(contents == null) {
+                        contents = new Contents();
+                        contents.projectId = projectId;
+                        contents.epoch = epoch;
+                        contents.created = created;
+                    }
+                    contents.entries.putAll(saving);
+                    return contents;
+                }
+            });
+            for(Map.Entry<String, Entry> saved : saving.entrySet()) {
+                changed.remove(saved.getKey(), saved.getValue());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("!! ERROR: unable to save slick testcase cache " + file + " !!");
+        }
+    }
+
+    /**
+     * Calculate a fingerprint of everything in a test's metadata that ends up on it's testcase.
+     *
+     * @param automationId the automation id of the test
+     * @param metaData the metadata of the test
+     * @return a hex encoded hash of the metadata
+     */
+    public static String fingerprint(String automationId, SlickMetaData metaData) {
+        StringBuilder content = new StringBuilder();
+        content.append(automationId).append('\u0000')
+               .append(metaData.title()).append('\u0000')
+               .append(metaData.component()).append('\u0000')
+               .append(metaData.feature()).append('\u0000')
+               .append(metaData.automationKey());
+        if(metaData.steps() != null) {
+            for(Step step : metaData.steps()) {
+                content.append('\u0000').append(step.step()).append('\u0000').append(step.expectation());
+            }
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(content.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for(byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every jvm is required to have SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+}
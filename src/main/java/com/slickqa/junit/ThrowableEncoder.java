@@ -0,0 +1,224 @@
+package com.slickqa.junit;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Turns exceptions into the text sent to slick, for log entries and the reason of failed results.
+ *
+ * In compact mode the text is laid out like Throwable.printStackTrace, with the full chain of causes
+ * and suppressed exceptions, but runs of frames from test frameworks and reflection (junit, surefire, the IDE
+ * runners) are replaced by a "... N frames in org.junit" line.  Frame strings are interned for the run, and a
+ * stack trace that was already logged in this run is logged as a reference to the first one ("[same stack trace
+ * as trace-3]") followed only by the exception messages, which are the part that usually differs.  Failure reasons
+ * are never sent as references.
+ *
+ * With compact mode off (the default) the text is what Throwable.printStackTrace and StackTraceElement.toString
+ * give.
+ */
+public class ThrowableEncoder {
+    public static final String[] DEFAULT_FRAMEWORK_PACKAGES = {
+            "org.junit.", "junit.", "org.apache.maven.surefire.", "org.gradle.", "com.intellij.rt.",
+            "org.eclipse.jdt.internal.junit", "sun.reflect.", "jdk.internal.reflect.", "java.lang.reflect."
+    };
+    public static final int MIN_TRIMMED_FRAMES = 3;
+    public static final int MAX_INTERNED_FRAMES = 100000;
+    public static final int MAX_REMEMBERED_TRACES = 10000;
+
+    /**
+     * What encoding one exception (with it's causes) produced.
+     */
+    protected static class Encoding {
+        final String framePrefix;
+        final String markerPrefix;
+        final List<String> lines = new ArrayList<>();
+        final List<String> headers = new ArrayList<>();
+        final StringBuilder shape = new StringBuilder();
+
+        Encoding(String framePrefix, String markerPrefix) {
+            this.framePrefix = framePrefix;
+            this.markerPrefix = markerPrefix;
+        }
+    }
+
+    protected final boolean compact;
+    protected final String[] frameworkPackages;
+    protected final ConcurrentMap<StackTraceElement, String> frames;
+    protected final ConcurrentMap<String, String> traces;
+    protected final AtomicInteger traceCounter;
+
+    public ThrowableEncoder(boolean compact) {
+        this(compact, DEFAULT_FRAMEWORK_PACKAGES);
+    }
+
+    public ThrowableEncoder(boolean compact, String[] frameworkPackages) {
+        this.compact = compact;
+        this.frameworkPackages = frameworkPackages.clone();
+        this.frames = new ConcurrentHashMap<>();
+        this.traces = new ConcurrentHashMap<>();
+        this.traceCounter = new AtomicInteger(0);
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * Encode the stack trace of an exception for a log entry.  The class and message of the exception itself go in
+     * their own fields of the log entry, so they aren't part of the lines.
+     *
+     * @param t the exception
+     * @return the lines of the stack trace
+     */
+    public List<String> encodeForLog(Throwable t) {
+        if(!compact) {
+            StackTraceElement[] elements = t.getStackTrace();
+            ArrayList<String> stackTrace = new ArrayList<>(elements.length);
+            for (StackTraceElement element : elements) {
+                stackTrace.add(element.toString());
+            }
+            return stackTrace;
+        }
+        Encoding encoding = encode(t, "", "");
+        String shape = encoding.shape.toString();
+        String reference = traces.get(shape);
+        if(reference != null) {
+            List<String> lines = new ArrayList<>(encoding.headers.size() + 1);
+            lines.add("[same stack trace as " + reference + "]");
+            lines.addAll(encoding.headers);
+            return lines;
+        }
+        List<String> lines = new ArrayList<>(encoding.lines.size() + 1);
+        if(traces.size() < MAX_REMEMBERED_TRACES) {
+            String created = "trace-" + traceCounter.incrementAndGet();
+            reference = traces.putIfAbsent(shape, created);
+            lines.add("[" + (reference != null ? reference : created) + "]");
+        }
+        lines.addAll(encoding.lines);
+        return lines;
+    }
+
+    /**
+     * Encode an exception as the reason of a failed result: it's message followed by the whole stack trace.
+     *
+     * @param t the exception that failed the test
+     * @return the reason
+     */
+    public String toReason(Throwable t) {
+        if(!compact) {
+            StringWriter sw = new StringWriter();
+            t.printStackTrace(new PrintWriter(sw));
+            return t.getMessage() + "\n" + sw.toString();
+        }
+        StringBuilder reason = new StringBuilder();
+        reason.append(t.getMessage()).append('\n').append(t).append('\n');
+        for(String line : encode(t, "\tat ", "\t").lines) {
+            reason.append(line).append('\n');
+        }
+        return reason.toString();
+    }
+
+    protected Encoding encode(Throwable t, String framePrefix, String markerPrefix) {
+        Encoding encoding = new Encoding(framePrefix, markerPrefix);
+        Set<Throwable> seen = Collections.newSetFromMap(new IdentityHashMap<Throwable, Boolean>());
+        seen.add(t);
+        encoding.shape.append(t.getClass().getName()).append('\n');
+        StackTraceElement[] trace = t.getStackTrace();
+        appendFrames(trace, trace.length, "", encoding);
+        appendRelated(t, trace, "", encoding, seen);
+        return encoding;
+    }
+
+    protected void appendRelated(Throwable t, StackTraceElement[] trace, String indent, Encoding encoding, Set<Throwable> seen) {
+        for(Throwable suppressed : t.getSuppressed()) {
+            appendEnclosed(suppressed, trace, "Suppressed: ", indent + "\t", encoding, seen);
+        }
+        if(t.getCause() != null) {
+            appendEnclosed(t.getCause(), trace, "Caused by: ", indent, encoding, seen);
+        }
+    }
+
+    protected void appendEnclosed(Throwable t, StackTraceElement[] enclosingTrace, String caption, String indent, Encoding encoding, Set<Throwable> seen) {
+        if(!seen.add(t)) {
+            String circular = indent + caption + "[CIRCULAR REFERENCE: " + t + "]";
+            encoding.lines.add(circular);
+            encoding.headers.add(circular);
+            return;
+        }
+        String header = indent + caption + t;
+        encoding.lines.add(header);
+        encoding.headers.add(header);
+        encoding.shape.append(caption).append(t.getClass().getName()).append('\n');
+
+        // frames the enclosing trace also ends with are only counted, like printStackTrace does
+        StackTraceElement[] trace = t.getStackTrace();
+        int m = trace.length - 1;
+        int n = enclosingTrace.length - 1;
+        while(m >= 0 && n >= 0 && trace[m].equals(enclosingTrace[n])) {
+            m--;
+            n--;
+        }
+        int inCommon = trace.length - 1 - m;
+        appendFrames(trace, m + 1, indent, encoding);
+        if(inCommon > 0) {
+            encoding.lines.add(indent + encoding.markerPrefix + "... " + inCommon + " more");
+            encoding.shape.append(inCommon).append('\n');
+        }
+        appendRelated(t, trace, indent, encoding, seen);
+    }
+
+    protected void appendFrames(StackTraceElement[] trace, int count, String indent, Encoding encoding) {
+        int i = 0;
+        while(i < count) {
+            String framework = compact ? frameworkPackage(trace[i]) : null;
+            if(framework != null) {
+                int end = i + 1;
+                while(end < count && frameworkPackage(trace[end]) != null) {
+                    end++;
+                }
+                if(end - i >= MIN_TRIMMED_FRAMES) {
+                    String marker = indent + encoding.markerPrefix + "... " + (end - i) + " frames in " + framework;
+                    encoding.lines.add(marker);
+                    encoding.shape.append(marker).append('\n');
+                    i = end;
+                    continue;
+                }
+            }
+            String frame = indent.isEmpty() && encoding.framePrefix.isEmpty() ? frameString(trace[i]) : indent + encoding.framePrefix + frameString(trace[i]);
+            encoding.lines.add(frame);
+            encoding.shape.append(frame).append('\n');
+            i++;
+        }
+    }
+
+    /**
+     * @return the framework package the frame belongs to (without the trailing dot), or null
+     */
+    protected String frameworkPackage(StackTraceElement frame) {
+        String className = frame.getClassName();
+        for(String prefix : frameworkPackages) {
+            if(className.startsWith(prefix)) {
+                return prefix.endsWith(".") ? prefix.substring(0, prefix.length() - 1) : prefix;
+            }
+        }
+        return null;
+    }
+
+    protected String frameString(StackTraceElement frame) {
+        String text = frames.get(frame);
+        if(text == null) {
+            text = frame.toString();
+            if(frames.size() < MAX_INTERNED_FRAMES) {
+                String existing = frames.putIfAbsent(frame, text);
+                if(existing != null) {
+                    text = existing;
+                }
+            }
+        }
+        return text;
+    }
+}
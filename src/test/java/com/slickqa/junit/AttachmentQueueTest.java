@@ -0,0 +1,267 @@
+package com.slickqa.junit;
+
+import com.slickqa.client.model.LogEntry;
+import com.slickqa.client.model.StoredFile;
+import org.junit.Test;
+import org.junit.runner.Description;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for uploading the files of a test in the background.
+ */
+public class AttachmentQueueTest {
+
+    @Test
+    public void filesAreAddedInOrderWithOneUpdate() throws Exception {
+        FakeSlickClient slick = new FakeSlickClient();
+        slick.latencyMillis = 20;
+        final SlickJunitController controller = FakeSlickClient.Controller.create(slick, new HashMap<String, String>());
+        SlickResultRule rule = new SlickResultRule() {
+            @Override
+            protected SlickJunitController getSlickJunitController() {
+                return controller;
+            }
+        };
+        Description test = Description.createTestDescription("com.example.FilesTest", "screenshots",
+                FakeSlickClient.metaData("Screenshot Test", "Files", "Queue"));
+        rule.starting(test);
+        String resultId = rule.getCurrentResult().getId();
+        int gets = slick.count("result.get");
+        int updates = slick.count("result.update");
+
+        Path screenshot = Files.createTempFile("screenshot-", ".png");
+        try {
+            for(int i = 0; i < 8; i++) {
+                // the file is copied before addFile returns, so it can be overwritten right away
+                Files.write(screenshot, ("screenshot " + i).getBytes(StandardCharsets.UTF_8));
+                rule.addFile(screenshot);
+                rule.addFile("page-" + i + ".html", "text/html", new ByteArrayInputStream(("page " + i).getBytes(StandardCharsets.UTF_8)));
+            }
+        } finally {
+            Files.delete(screenshot);
+        }
+        rule.succeeded(test);
+        rule.finished(test);
+
+        assertEquals(gets + 1, slick.count("result.get"));
+        // one update for the files, one for the PASS
+        assertEquals(updates + 2, slick.count("result.update"));
+        List<StoredFile> files = slick.results.get(resultId).getFiles();
+        assertEquals(16, files.size());
+        for(int i = 0; i < 8; i++) {
+            assertEquals(screenshot.getFileName().toString(), files.get(2 * i).getFilename());
+            assertEquals("screenshot " + i, slick.fileContents.get(files.get(2 * i).getId()).toString("UTF-8"));
+            assertEquals("page-" + i + ".html", files.get(2 * i + 1).getFilename());
+        }
+    }
+
+    private static SlickResultRule ruleFor(final SlickJunitController controller) {
+        return new SlickResultRule() {
+            @Override
+            protected SlickJunitController getSlickJunitController() {
+                return controller;
+            }
+        };
+    }
+
+    private static String attachBaseline(SlickResultRule rule, String name) {
+        Description test = Description.createTestDescription("com.example.FilesTest", name,
+                FakeSlickClient.metaData("Baseline Test " + name, "Files", "Dedupe"));
+        rule.starting(test);
+        String resultId = rule.getCurrentResult().getId();
+        rule.addFile("baseline.txt", "text/plain", new ByteArrayInputStream("the same baseline".getBytes(StandardCharsets.UTF_8)));
+        rule.succeeded(test);
+        rule.finished(test);
+        return resultId;
+    }
+
+    @Test
+    public void identicalFilesAreUploadedOnce() throws Exception {
+        Path cacheFile = Files.createTempDirectory("slick-file-cache-").resolve("files.json");
+        HashMap<String, String> configuration = new HashMap<>();
+        configuration.put(ConfigurationNames.FILE_CACHE_FILE, cacheFile.toString());
+        FakeSlickClient slick = new FakeSlickClient();
+        SlickJunitController controller = FakeSlickClient.Controller.create(slick, configuration);
+        SlickResultRule rule = ruleFor(controller);
+        String first = attachBaseline(rule, "first");
+        String second = attachBaseline(rule, "second");
+        assertEquals(1, slick.count("files.create"));
+        String fileId = slick.results.get(first).getFiles().get(0).getId();
+        assertEquals(fileId, slick.results.get(second).getFiles().get(0).getId());
+
+        // the next run finds the upload in the cache file
+        controller.attachmentQueue.cache.save();
+        controller = FakeSlickClient.Controller.create(slick, configuration);
+        String third = attachBaseline(ruleFor(controller), "third");
+        assertEquals(1, slick.count("files.create"));
+        assertEquals(fileId, slick.results.get(third).getFiles().get(0).getId());
+    }
+
+    @Test
+    public void identicalFilesAddedByPathAreHashedAndUploadedOnce() throws Exception {
+        HashMap<String, String> configuration = new HashMap<>();
+        configuration.put(ConfigurationNames.FILE_CACHE_FILE, Files.createTempDirectory("slick-file-cache-").resolve("files.json").toString());
+        FakeSlickClient slick = new FakeSlickClient();
+        SlickResultRule rule = ruleFor(FakeSlickClient.Controller.create(slick, configuration));
+        Description test = Description.createTestDescription("com.example.FilesTest", "samePath",
+                FakeSlickClient.metaData("Same File Test", "Files", "Dedupe"));
+        rule.starting(test);
+        String resultId = rule.getCurrentResult().getId();
+        Path baseline = Files.createTempFile("baseline-", ".txt");
+        try {
+            Files.write(baseline, "the same baseline".getBytes(StandardCharsets.UTF_8));
+            rule.addFile(baseline);
+            rule.addFile(baseline);
+        } finally {
+            Files.delete(baseline);
+        }
+        rule.succeeded(test);
+        rule.finished(test);
+
+        assertEquals(1, slick.count("files.create"));
+        List<StoredFile> files = slick.results.get(resultId).getFiles();
+        assertEquals(2, files.size());
+        assertEquals(files.get(0).getId(), files.get(1).getId());
+    }
+
+    @Test
+    public void screenshotsAreScaledDownAndStoredAsJpeg() throws Exception {
+        HashMap<String, String> configuration = new HashMap<>();
+        configuration.put(ConfigurationNames.OPTIMIZE_IMAGES, "true");
+        configuration.put(ConfigurationNames.OPTIMIZE_IMAGES_MAX_SIZE, "800");
+        FakeSlickClient slick = new FakeSlickClient();
+        SlickResultRule rule = ruleFor(FakeSlickClient.Controller.create(slick, configuration));
+        Description test = Description.createTestDescription("com.example.FilesTest", "screenshot",
+                FakeSlickClient.metaData("Optimized Screenshot Test", "Files", "Images"));
+        rule.starting(test);
+        String resultId = rule.getCurrentResult().getId();
+
+        BufferedImage image = new BufferedImage(2400, 1600, BufferedImage.TYPE_INT_ARGB);
+        Random random = new Random(3);
+        for(int y = 0; y < image.getHeight(); y++) {
+            for(int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, 0xff000000 | (x * 255 / image.getWidth()) << 16 | (y * 255 / image.getHeight()) << 8 | random.nextInt(64));
+            }
+        }
+        Path screenshot = Files.createTempFile("screenshot-", ".png");
+        long originalBytes;
+        try {
+            ImageIO.write(image, "png", screenshot.toFile());
+            originalBytes = Files.size(screenshot);
+            rule.addFile(screenshot);
+        } finally {
+            Files.delete(screenshot);
+        }
+        rule.succeeded(test);
+        rule.finished(test);
+
+        StoredFile stored = slick.results.get(resultId).getFiles().get(0);
+        assertTrue(stored.getFilename().endsWith(".jpg"));
+        assertEquals("image/jpeg", stored.getMimetype());
+        byte[] contents = slick.fileContents.get(stored.getId()).toByteArray();
+        assertTrue(contents.length < originalBytes);
+        BufferedImage uploaded = ImageIO.read(new ByteArrayInputStream(contents));
+        assertEquals(800, uploaded.getWidth());
+        assertEquals(533, uploaded.getHeight());
+
+        boolean logged = false;
+        for(LogEntry entry : slick.logs.get(resultId)) {
+            logged |= entry.getMessage().contains("2400x1600, " + originalBytes + " bytes") &&
+                      entry.getMessage().contains("800x533, " + contents.length + " bytes");
+        }
+        assertTrue(logged);
+    }
+
+    @Test
+    public void onlyFilesOfFailedTestsAreUploadedWhenRetainingFailures() throws Exception {
+        HashMap<String, String> configuration = new HashMap<>();
+        configuration.put(ConfigurationNames.FILE_RETAINED_STATUSES, "fail");
+        FakeSlickClient slick = new FakeSlickClient();
+        SlickJunitController controller = FakeSlickClient.Controller.create(slick, configuration);
+        SlickResultRule rule = ruleFor(controller);
+        Path screenshot = Files.createTempFile("screenshot-", ".png");
+        try {
+            Files.write(screenshot, "passing screenshot".getBytes(StandardCharsets.UTF_8));
+            Description passing = Description.createTestDescription("com.example.FilesTest", "passing",
+                    FakeSlickClient.metaData("Retained Pass Test", "Files", "Retain"));
+            rule.starting(passing);
+            String passed = rule.getCurrentResult().getId();
+            rule.addFile(screenshot);
+            rule.flushFiles();
+            Path staged = controller.attachmentQueue.pending.get(passed).held.get(0).staged;
+            assertTrue(Files.exists(staged));
+            rule.succeeded(passing);
+            rule.finished(passing);
+            assertEquals(0, slick.count("files.create"));
+            List<StoredFile> passedFiles = slick.results.get(passed).getFiles();
+            assertTrue(passedFiles == null || passedFiles.isEmpty());
+            // the staged copy of a discarded file is deleted
+            assertFalse(Files.exists(staged));
+            assertFalse(Files.exists(staged.getParent()));
+
+            Files.write(screenshot, "failing screenshot".getBytes(StandardCharsets.UTF_8));
+            Description failing = Description.createTestDescription("com.example.FilesTest", "failing",
+                    FakeSlickClient.metaData("Retained Fail Test", "Files", "Retain"));
+            rule.starting(failing);
+            String failed = rule.getCurrentResult().getId();
+            rule.addFile(screenshot);
+            // the file was copied when it was added, what the test does with it afterwards doesn't matter
+            Files.write(screenshot, "overwritten screenshot".getBytes(StandardCharsets.UTF_8));
+            // nothing is sent until the status is known
+            rule.flushFiles();
+            assertEquals(0, slick.count("files.create"));
+            rule.failed(new AssertionError("broken"), failing);
+            rule.finished(failing);
+            List<StoredFile> files = slick.results.get(failed).getFiles();
+            assertEquals(1, files.size());
+            assertEquals("failing screenshot", slick.fileContents.get(files.get(0).getId()).toString("UTF-8"));
+        } finally {
+            Files.delete(screenshot);
+        }
+    }
+
+    @Test
+    public void heldFilesOfResultsThatNeverEndAreDeleted() throws Exception {
+        HashMap<String, String> configuration = new HashMap<>();
+        configuration.put(ConfigurationNames.FILE_RETAINED_STATUSES, "fail");
+        FakeSlickClient slick = new FakeSlickClient();
+        SlickJunitController controller = FakeSlickClient.Controller.create(slick, configuration);
+        SlickResultRule rule = ruleFor(controller);
+        Description test = Description.createTestDescription("com.example.FilesTest", "interrupted",
+                FakeSlickClient.metaData("Interrupted Test", "Files", "Retain"));
+        rule.starting(test);
+        String resultId = rule.getCurrentResult().getId();
+        Path screenshot = Files.createTempFile("screenshot-", ".png");
+        try {
+            Files.write(screenshot, "screenshot".getBytes(StandardCharsets.UTF_8));
+            rule.addFile(screenshot);
+            rule.addFile("page.html", "text/html", new ByteArrayInputStream("page".getBytes(StandardCharsets.UTF_8)));
+            List<AttachmentQueue.StagedUpload> held = new ArrayList<>(controller.attachmentQueue.pending.get(resultId).held);
+            assertEquals(2, held.size());
+            for(AttachmentQueue.StagedUpload file : held) {
+                assertTrue(Files.exists(file.staged));
+            }
+
+            // what the shutdown hook does when the run ends before the test does
+            controller.attachmentQueue.discardHeld();
+            for(AttachmentQueue.StagedUpload file : held) {
+                assertFalse(Files.exists(file.staged.getParent()));
+            }
+            assertEquals(0, slick.count("files.create"));
+        } finally {
+            Files.delete(screenshot);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.slickqa.junit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.slickqa.client.model.StoredFile;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for grouping failures by signature.
+ */
+public class FailureClustersTest {
+
+    private static Throwable connectionRefused(String host, int port) {
+        Exception cause = new java.net.ConnectException("Connection refused to " + host + ":" + port + " session 5f2b7c1e-8a41-4d2e-9c3b-0e7d6a5b4c3d");
+        cause.setStackTrace(new StackTraceElement[]{
+                new StackTraceElement("java.net.PlainSocketImpl", "connect", "PlainSocketImpl.java", 1),
+                new StackTraceElement("com.example.Client", "open", "Client.java", 42),
+                new StackTraceElement("com.example.ClientTest", "connects", "ClientTest.java", port)
+        });
+        return new RuntimeException("request failed", cause);
+    }
+
+    @Test
+    public void idsAndNumbersDontSplitClusters() {
+        assertEquals("Connection refused to host-#:# session <id> at @<id>",
+                FailureClusters.maskMessage("Connection refused to host-12:8080 session 5f2b7c1e-8a41-4d2e-9c3b-0e7d6a5b4c3d at @1b6d3586"));
+        assertEquals("expected:<#> but was:<#> for #", FailureClusters.maskMessage("expected:<5> but was:<6> for 507f1f77bcf86cd799439011"));
+    }
+
+    @Test
+    public void onlyTheFirstFailureOfAClusterCarriesTheStackTrace() throws Exception {
+        FakeSlickClient slick = new FakeSlickClient();
+        HashMap<String, String> config = new HashMap<>();
+        config.put(ConfigurationNames.FAILURE_CLUSTERS, "true");
+        config.put(ConfigurationNames.COMPACT_EXCEPTIONS, "true");
+        SlickJunitController controller = FakeSlickClient.Controller.create(slick, config);
+        FailureClusters clusters = controller.getFailureClusters();
+        ThrowableEncoder encoder = controller.getThrowableEncoder();
+
+        String first = clusters.reasonFor("r1", "first", connectionRefused("host-1", 8080), encoder);
+        String second = clusters.reasonFor("r2", "second", connectionRefused("host-2", 8081), encoder);
+        String other = clusters.reasonFor("r3", "third", new AssertionError("expected:<1> but was:<2>"), encoder);
+        String id = first.substring("[failure cluster ".length(), first.indexOf(']'));
+        assertTrue(first, first.contains("Caused by: java.net.ConnectException"));
+        assertTrue(second, second.startsWith("[failure cluster " + id + "] request failed\n"));
+        assertTrue(second, second.contains("Same failure as first (result r1)"));
+        assertTrue(second, second.contains("\tat com.example.Client.open\n"));
+        assertFalse(second, second.contains("Caused by:"));
+        assertFalse(other, other.contains(id));
+
+        List<FailureClusters.Cluster> sorted = clusters.getClusters();
+        assertEquals(2, sorted.size());
+        assertEquals(id, sorted.get(0).id);
+        assertEquals(2, sorted.get(0).count);
+
+        controller.uploadFailureClusters();
+        controller.uploadFailureClusters();
+        assertEquals(1, slick.count("files.createAndUpload") + slick.count("files.create"));
+        List<StoredFile> files = slick.testruns.get(controller.getTestrun().getId()).getFiles();
+        assertEquals(1, files.size());
+        assertEquals(FailureClusters.SUMMARY_FILENAME, files.get(0).getFilename());
+        JsonNode summary = new ObjectMapper().readTree(slick.fileContents.get(files.get(0).getId()).toByteArray());
+        assertEquals(id, summary.get(0).get("id").asText());
+        assertEquals("r2", summary.get(0).get("resultIds").get(1).asText());
+    }
+}
@@ -0,0 +1,632 @@
+package com.slickqa.junit;
+
+import com.slickqa.client.SlickClient;
+import com.slickqa.client.apiparts.*;
+import com.slickqa.client.errors.SlickError;
+import com.slickqa.client.model.*;
+import com.slickqa.junit.annotations.SlickMetaData;
+import com.slickqa.junit.annotations.Step;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in memory stand in for slick, for testing the controller and rule without a server.  It counts every call made
+ * to it (by names like "results.create" or "result.update") and can add latency to every call to make races more
+ * likely.
+ */
+public class FakeSlickClient implements InvocationHandler {
+    public final ConcurrentMap<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+    public final Map<String, Project> projects = new ConcurrentHashMap<>();
+    public final Map<String, Testcase> testcases = new ConcurrentHashMap<>();
+    public final Map<String, TestPlan> testplans = new ConcurrentHashMap<>();
+    public final Map<String, Testrun> testruns = new ConcurrentHashMap<>();
+    public final Map<String, Result> results = new ConcurrentHashMap<>();
+    public final Map<String, StoredFile> files = new ConcurrentHashMap<>();
+    public final Map<String, ByteArrayOutputStream> fileContents = new ConcurrentHashMap<>();
+    public final ConcurrentMap<String, List<Result>> resultUpdates = new ConcurrentHashMap<>();
+    public final ConcurrentMap<String, List<LogEntry>> logs = new ConcurrentHashMap<>();
+    public volatile long latencyMillis = 0;
+    // every call by name, in the order they were made
+    public final List<String> callLog = new CopyOnWriteArrayList<>();
+    // calls by name that wait for their latch to be released before doing anything
+    public final ConcurrentMap<String, CountDownLatch> holds = new ConcurrentHashMap<>();
+    // when set, updates setting a result RUNNING count down runningUpdateHeld and wait for this to be released
+    public volatile CountDownLatch holdRunningUpdates;
+    public final CountDownLatch runningUpdateHeld = new CountDownLatch(1);
+    private final AtomicInteger ids = new AtomicInteger(0);
+
+    public SlickClient client() {
+        return (SlickClient) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{SlickClient.class}, this);
+    }
+
+    public int count(String call) {
+        AtomicInteger count = calls.get(call);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * Wait until a call has been made (it may still be held).
+     *
+     * @return true if it was made within the timeout
+     */
+    public boolean awaitCall(String name, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while(!callLog.contains(name)) {
+            if(System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    public List<Result> updatesFor(String resultId) {
+        List<Result> updates = resultUpdates.get(resultId);
+        return updates == null ? Collections.<Result>emptyList() : updates;
+    }
+
+    private void call(String name) {
+        calls.putIfAbsent(name, new AtomicInteger(0));
+        calls.get(name).incrementAndGet();
+        callLog.add(name);
+        CountDownLatch hold = holds.get(name);
+        if(hold != null) {
+            try {
+                hold.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if(latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private String nextId() {
+        return "id" + ids.incrementAndGet();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        Object arg = args == null || args.length == 0 ? null : args[0];
+        switch (name) {
+            case "project":
+                return projectApi((String) arg);
+            case "projects":
+                return new Collection<Project>("projects", projects) {
+                    @Override
+                    Project created(Project project) {
+                        project.setId(nextId());
+                        return project;
+                    }
+                };
+            case "testcases":
+                return new Collection<Testcase>("testcases", testcases, (Map<String, String>) arg) {
+                    @Override
+                    Testcase created(Testcase testcase) {
+                        testcase.setId(nextId());
+                        return testcase;
+                    }
+
+                    @Override
+                    boolean matches(Testcase testcase, Map<String, String> query) {
+                        return matchesValue(query, "project.id", testcase.getProject() == null ? null : testcase.getProject().getId()) &&
+                               matchesValue(query, "automationId", testcase.getAutomationId()) &&
+                               matchesValue(query, "automationTool", testcase.getAutomationTool());
+                    }
+                };
+            case "testcase":
+                return new Item<Testcase>("testcase", testcases, (String) arg);
+            case "testplans":
+                return new Collection<TestPlan>("testplans", testplans, (Map<String, String>) arg) {
+                    @Override
+                    TestPlan created(TestPlan testplan) {
+                        testplan.setId(nextId());
+                        return testplan;
+                    }
+
+                    @Override
+                    boolean matches(TestPlan testplan, Map<String, String> query) {
+                        return matchesValue(query, "project.id", testplan.getProject() == null ? null : testplan.getProject().getId()) &&
+                               matchesValue(query, "project.name", testplan.getProject() == null ? null : testplan.getProject().getName()) &&
+                               matchesValue(query, "name", testplan.getName());
+                    }
+                };
+            case "testruns":
+                return new Collection<Testrun>("testruns", testruns) {
+                    @Override
+                    Testrun created(Testrun testrun) {
+                        testrun.setId(nextId());
+                        return testrun;
+                    }
+                };
+            case "testrun":
+                return new Item<Testrun>("testrun", testruns, (String) arg);
+            case "results":
+                return resultQueryApi();
+            case "result":
+                return resultApi((String) arg);
+            case "files":
+                return filesQueryApi();
+            case "file":
+                return filesApi((String) arg);
+            default:
+                throw new UnsupportedOperationException("FakeSlickClient doesn't support " + name);
+        }
+    }
+
+    private static boolean matchesValue(Map<String, String> query, String key, String value) {
+        return query == null || !query.containsKey(key) || query.get(key).equals(value);
+    }
+
+    private class Collection<T> implements QueryAndCreateApi<T> {
+        final String name;
+        final Map<String, T> items;
+        final Map<String, String> query;
+
+        Collection(String name, Map<String, T> items) {
+            this(name, items, null);
+        }
+
+        Collection(String name, Map<String, T> items, Map<String, String> query) {
+            this.name = name;
+            this.items = items;
+            this.query = query;
+        }
+
+        T created(T item) {
+            return item;
+        }
+
+        boolean matches(T item, Map<String, String> query) {
+            return true;
+        }
+
+        @Override
+        public List<T> getList() throws SlickError {
+            call(name + ".query");
+            List<T> found = new ArrayList<>();
+            for(T item : items.values()) {
+                if(matches(item, query)) {
+                    found.add(item);
+                }
+            }
+            return found;
+        }
+
+        @Override
+        public T create(T item) throws SlickError {
+            call(name + ".create");
+            T created = created(item);
+            items.put(idOf(created), created);
+            return created;
+        }
+
+        @Override
+        public T findOrCreate(T item) throws SlickError {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private class Item<T> implements RetrieveUpdateDeleteApi<T> {
+        final String name;
+        final Map<String, T> items;
+        final String id;
+
+        Item(String name, Map<String, T> items, String id) {
+            this.name = name;
+            this.items = items;
+            this.id = id;
+        }
+
+        @Override
+        public T get() throws SlickError {
+            call(name + ".get");
+            T item = items.get(id);
+            if(item == null) {
+                throw new SlickError("No " + name + " with id " + id);
+            }
+            return item;
+        }
+
+        @Override
+        public T update(T update) throws SlickError {
+            call(name + ".update");
+            if(!items.containsKey(id)) {
+                throw new SlickError("No " + name + " with id " + id);
+            }
+            items.put(id, update);
+            return update;
+        }
+
+        @Override
+        public void delete() throws SlickError {
+            call(name + ".delete");
+            items.remove(id);
+        }
+    }
+
+    private static String idOf(Object item) {
+        try {
+            return (String) item.getClass().getMethod("getId").invoke(item);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private ProjectApi projectApi(final String idOrName) {
+        return new ProjectApi() {
+            Project find() throws SlickError {
+                for(Project project : projects.values()) {
+                    if(idOrName.equals(project.getId()) || idOrName.equals(project.getName())) {
+                        return project;
+                    }
+                }
+                throw new SlickError("No project " + idOrName);
+            }
+
+            @Override
+            public Project get() throws SlickError {
+                call("project.get");
+                return find();
+            }
+
+            @Override
+            public Project update(Project project) throws SlickError {
+                call("project.update");
+                projects.put(project.getId(), project);
+                return project;
+            }
+
+            @Override
+            public void delete() throws SlickError {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public QueryAndCreateApi<Release> releases() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public ReleaseApi release(String s) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public QueryAndCreateApi<Component> components() {
+                return new QueryAndCreateApi<Component>() {
+                    @Override
+                    public List<Component> getList() throws SlickError {
+                        call("components.query");
+                        return find().getComponents();
+                    }
+
+                    @Override
+                    public Component create(Component component) throws SlickError {
+                        call("components.create");
+                        Project project = find();
+                        synchronized (project) {
+                            component.setId(nextId());
+                            List<Component> components = project.getComponents() == null ? new ArrayList<Component>() : new ArrayList<>(project.getComponents());
+                            components.add(component);
+                            project.setComponents(components);
+                        }
+                        return component;
+                    }
+
+                    @Override
+                    public Component findOrCreate(Component component) throws SlickError {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public RetrieveUpdateDeleteApi<Component> component(final String componentId) {
+                return new RetrieveUpdateDeleteApi<Component>() {
+                    @Override
+                    public Component get() throws SlickError {
+                        call("component.get");
+                        Project project = find();
+                        synchronized (project) {
+                            for(Component component : project.getComponents()) {
+                                if(componentId.equals(component.getId())) {
+                                    return component;
+                                }
+                            }
+                        }
+                        throw new SlickError("No component with id " + componentId);
+                    }
+
+                    @Override
+                    public Component update(Component update) throws SlickError {
+                        call("component.update");
+                        Project project = find();
+                        synchronized (project) {
+                            Component copy = new Component();
+                            copy.setId(componentId);
+                            copy.setName(update.getName());
+                            copy.setCode(update.getCode());
+                            List<Feature> features = new ArrayList<>();
+                            if(update.getFeatures() != null) {
+                                for(Feature feature : update.getFeatures()) {
+                                    Feature stored = new Feature();
+                                    stored.setName(feature.getName());
+                                    stored.setId(feature.getId() == null ? nextId() : feature.getId());
+                                    features.add(stored);
+                                }
+                            }
+                            copy.setFeatures(features);
+                            List<Component> components = new ArrayList<>();
+                            for(Component component : project.getComponents()) {
+                                components.add(componentId.equals(component.getId()) ? copy : component);
+                            }
+                            project.setComponents(components);
+                            return copy;
+                        }
+                    }
+
+                    @Override
+                    public void delete() throws SlickError {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    private ResultQueryApi resultQueryApi() {
+        return new ResultQueryApi() {
+            @Override
+            public int count() throws SlickError {
+                return results.size();
+            }
+
+            @Override
+            public List<Result> getList() throws SlickError {
+                call("results.query");
+                return new ArrayList<>(results.values());
+            }
+
+            @Override
+            public Result create(Result result) throws SlickError {
+                call("results.create");
+                if(result.getTestcase() != null && result.getTestcase().getTestcaseId() != null &&
+                   !testcases.containsKey(result.getTestcase().getTestcaseId())) {
+                    throw new SlickError("No testcase with id " + result.getTestcase().getTestcaseId());
+                }
+                result.setId(nextId());
+                results.put(result.getId(), result);
+                return result;
+            }
+
+            @Override
+            public Result findOrCreate(Result result) throws SlickError {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private ResultApi resultApi(final String id) {
+        return new ResultApi() {
+            @Override
+            public Integer addLogs(List<LogEntry> entries) throws SlickError {
+                call("result.addLogs");
+                logs.putIfAbsent(id, new CopyOnWriteArrayList<LogEntry>());
+                List<LogEntry> existing = logs.get(id);
+                existing.addAll(entries);
+                return existing.size();
+            }
+
+            @Override
+            public Result get() throws SlickError {
+                call("result.get");
+                Result result = results.get(id);
+                if(result == null) {
+                    throw new SlickError("No result with id " + id);
+                }
+                return result;
+            }
+
+            @Override
+            public Result update(Result update) throws SlickError {
+                call("result.update");
+                Result result = results.get(id);
+                if(result == null) {
+                    throw new SlickError("No result with id " + id);
+                }
+                CountDownLatch hold = holdRunningUpdates;
+                if(hold != null && "RUNNING".equals(update.getRunstatus())) {
+                    runningUpdateHeld.countDown();
+                    try {
+                        hold.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                resultUpdates.putIfAbsent(id, new CopyOnWriteArrayList<Result>());
+                resultUpdates.get(id).add(update);
+                synchronized (result) {
+                    if(update.getStatus() != null) result.setStatus(update.getStatus());
+                    if(update.getRunstatus() != null) result.setRunstatus(update.getRunstatus());
+                    if(update.getReason() != null) result.setReason(update.getReason());
+                    if(update.getStarted() != null) result.setStarted(update.getStarted());
+                    if(update.getFinished() != null) result.setFinished(update.getFinished());
+                    // new Result objects start with an empty list of files, slick doesn't treat that as a change
+                    if(update.getFiles() != null && !update.getFiles().isEmpty()) result.setFiles(new ArrayList<>(update.getFiles()));
+                }
+                return result;
+            }
+
+            @Override
+            public void delete() throws SlickError {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private FilesQueryApi filesQueryApi() {
+        return new FilesQueryApi() {
+            @Override
+            public StoredFile create(StoredFile file) throws SlickError {
+                call("files.create");
+                file.setId(nextId());
+                if(file.getChunkSize() == null) {
+                    file.setChunkSize(262144);
+                }
+                files.put(file.getId(), file);
+                fileContents.put(file.getId(), new ByteArrayOutputStream());
+                return file;
+            }
+
+            @Override
+            public StoredFile createAndUpload(Path path) throws SlickError {
+                try (InputStream input = Files.newInputStream(path)) {
+                    return createAndUpload(path.getFileName().toString(), "application/octet-stream", input);
+                } catch (IOException e) {
+                    throw new SlickError("Unable to read " + path, e);
+                }
+            }
+
+            @Override
+            public StoredFile createAndUpload(String filename, String mimetype, InputStream input) throws SlickError {
+                call("files.createAndUpload");
+                StoredFile file = new StoredFile();
+                file.setId(nextId());
+                file.setFilename(filename);
+                file.setMimetype(mimetype);
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                try {
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while((read = input.read(buffer)) != -1) {
+                        content.write(buffer, 0, read);
+                    }
+                } catch (IOException e) {
+                    throw new SlickError("Unable to read " + filename, e);
+                }
+                file.setLength((long) content.size());
+                files.put(file.getId(), file);
+                fileContents.put(file.getId(), content);
+                return file;
+            }
+        };
+    }
+
+    private FilesApi filesApi(final String id) {
+        return new FilesApi() {
+            @Override
+            public StoredFile get() throws SlickError {
+                call("file.get");
+                return files.get(id);
+            }
+
+            @Override
+            public StoredFile addChunk(byte[] chunk) throws SlickError {
+                call("file.addChunk");
+                fileContents.get(id).write(chunk, 0, chunk.length);
+                return files.get(id);
+            }
+
+            @Override
+            public StoredFile update(StoredFile file) throws SlickError {
+                call("file.update");
+                files.put(id, file);
+                return file;
+            }
+        };
+    }
+
+    /**
+     * Make an instance of SlickMetaData, for describing tests that don't exist as methods.
+     */
+    public static SlickMetaData metaData(final String title, final String component, final String feature) {
+        return (SlickMetaData) Proxy.newProxyInstance(FakeSlickClient.class.getClassLoader(), new Class<?>[]{SlickMetaData.class}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                switch (method.getName()) {
+                    case "annotationType":
+                        return SlickMetaData.class;
+                    case "title":
+                        return title;
+                    case "component":
+                        return component;
+                    case "feature":
+                        return feature;
+                    case "automationId":
+                    case "automationKey":
+                        return "";
+                    case "steps":
+                        return new Step[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    case "equals":
+                        return proxy == args[0];
+                    default:
+                        return "@SlickMetaData(title=" + title + ")";
+                }
+            }
+        });
+    }
+
+    /**
+     * A controller that talks to a FakeSlickClient, configured from a map instead of system properties.
+     */
+    public static class Controller extends SlickJunitController {
+        private static FakeSlickClient nextSlick;
+        private static Map<String, String> nextConfiguration;
+
+        public static synchronized Controller create(FakeSlickClient slick, Map<String, String> configuration) {
+            nextSlick = slick;
+            nextConfiguration = new HashMap<>(configuration);
+            if(!nextConfiguration.containsKey(ConfigurationNames.BASE_URL)) {
+                nextConfiguration.put(ConfigurationNames.BASE_URL, "http://localhost/slick");
+            }
+            if(!nextConfiguration.containsKey(ConfigurationNames.PROJECT_NAME)) {
+                nextConfiguration.put(ConfigurationNames.PROJECT_NAME, "fake");
+            }
+            return new Controller();
+        }
+
+        @Override
+        protected SlickConfigurationSource initializeConfigurationSource() {
+            final Map<String, String> configuration = nextConfiguration;
+            return new SlickConfigurationSource() {
+                @Override
+                public String getConfigurationEntry(String name) {
+                    return configuration.get(name);
+                }
+
+                @Override
+                public String getConfigurationEntry(String name, String defaultValue) {
+                    return configuration.containsKey(name) ? configuration.get(name) : defaultValue;
+                }
+            };
+        }
+
+        @Override
+        protected SlickClient createSlickClient(String baseurl) {
+            return nextSlick.client();
+        }
+    }
+}
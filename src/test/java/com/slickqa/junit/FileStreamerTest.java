@@ -0,0 +1,183 @@
+package com.slickqa.junit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.slickqa.client.SlickClientFactory;
+import com.slickqa.client.errors.SlickError;
+import com.slickqa.client.model.StoredFile;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for streaming files to a stub slick server with the real slick client.
+ */
+public class FileStreamerTest {
+    private static final int CHUNK_SIZE = 65536;
+
+    private HttpServer server;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final List<StoredFile> created = new ArrayList<>();
+    private final List<Integer> chunkSizes = new ArrayList<>();
+    private final ByteArrayOutputStream contents = new ByteArrayOutputStream();
+    private StoredFile updated;
+    // the addchunk request (counting from 1) the server fails, along with the client's 2 retries of it, 0 for none
+    private int failChunk;
+    private int chunkRequests;
+    private FileStreamer streamer;
+    private Path file;
+
+    private static byte[] read(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/slick/files", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = read(exchange.getRequestBody());
+                String path = exchange.getRequestURI().getPath();
+                StoredFile response;
+                synchronized (FileStreamerTest.this) {
+                    if(path.endsWith("/addchunk") && failChunk > 0 && ++chunkRequests >= failChunk && chunkRequests < failChunk + 3) {
+                        exchange.sendResponseHeaders(500, -1);
+                        exchange.close();
+                        return;
+                    }
+                    if(path.endsWith("/addchunk")) {
+                        chunkSizes.add(body.length);
+                        contents.write(body);
+                        response = created.get(0);
+                    } else if("PUT".equals(exchange.getRequestMethod())) {
+                        response = updated = mapper.readValue(body, StoredFile.class);
+                    } else {
+                        response = mapper.readValue(body, StoredFile.class);
+                        response.setId("file-1");
+                        response.setChunkSize(CHUNK_SIZE);
+                        created.add(response);
+                    }
+                }
+                byte[] json = mapper.writeValueAsBytes(response);
+                exchange.getResponseHeaders().add("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, json.length);
+                exchange.getResponseBody().write(json);
+                exchange.close();
+            }
+        });
+        server.start();
+        streamer = new FileStreamer(SlickClientFactory.getSlickClient("http://127.0.0.1:" + server.getAddress().getPort() + "/slick"),
+                FileStreamer.DEFAULT_COMPRESS_THRESHOLD);
+        file = null;
+        failChunk = 0;
+        chunkRequests = 0;
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.stop(0);
+        if(file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void filesAreSentInChunks() throws Exception {
+        byte[] video = new byte[3 * CHUNK_SIZE + 1234];
+        new Random(7).nextBytes(video);
+        file = Files.createTempFile("recording-", ".mp4");
+        Files.write(file, video);
+
+        StoredFile stored = streamer.upload(file, "recording.mp4", "video/mp4");
+        assertEquals("file-1", stored.getId());
+        assertEquals("recording.mp4", created.get(0).getFilename());
+        assertEquals(Long.valueOf(video.length), created.get(0).getLength());
+        assertEquals(Arrays.asList(CHUNK_SIZE, CHUNK_SIZE, CHUNK_SIZE, 1234), chunkSizes);
+        assertArrayEquals(video, contents.toByteArray());
+        assertNull(updated);
+    }
+
+    @Test
+    public void largeTextFilesAreCompressedOnTheWay() throws Exception {
+        StringBuilder har = new StringBuilder("{\"log\": {\"entries\": [");
+        for(int i = 0; har.length() < 2 * FileStreamer.DEFAULT_COMPRESS_THRESHOLD; i++) {
+            har.append("{\"request\": {\"url\": \"http://example.com/page/").append(i).append("\"}},");
+        }
+        har.append("{}]}}");
+        byte[] original = har.toString().getBytes(StandardCharsets.UTF_8);
+        file = Files.createTempFile("session-", ".har");
+        Files.write(file, original);
+
+        streamer.upload(file, "session.har", null);
+        assertEquals("session.har.gz", created.get(0).getFilename());
+        assertEquals("application/gzip", created.get(0).getMimetype());
+        for(int size : chunkSizes.subList(0, chunkSizes.size() - 1)) {
+            assertEquals(CHUNK_SIZE, size);
+        }
+        byte[] compressed = contents.toByteArray();
+        assertTrue(compressed.length < original.length / 4);
+        assertEquals(Long.valueOf(compressed.length), updated.getLength());
+        assertArrayEquals(original, read(new GZIPInputStream(new ByteArrayInputStream(compressed))));
+    }
+
+    @Test
+    public void chunkFailingWhileCompressingLeavesAFileMarkedPartial() throws Exception {
+        StringBuilder log = new StringBuilder();
+        Random random = new Random(11);
+        while(log.length() < 2 * FileStreamer.DEFAULT_COMPRESS_THRESHOLD) {
+            // random enough to need several chunks once compressed
+            log.append(Long.toHexString(random.nextLong())).append(' ').append(random.nextInt()).append('\n');
+        }
+        file = Files.createTempFile("server-", ".log");
+        Files.write(file, log.toString().getBytes(StandardCharsets.UTF_8));
+        failChunk = 2;
+
+        try {
+            streamer.upload(file, "server.log", null);
+            fail("the upload should have failed");
+        } catch (SlickError e) {
+            // expected
+        }
+        // the failed chunk was tried 3 times, closing the gzip stream didn't send anything after it
+        assertEquals(4, chunkRequests);
+        assertEquals(Arrays.asList(CHUNK_SIZE), chunkSizes);
+        assertNotNull(updated);
+        assertEquals("server.log.gz.partial", updated.getFilename());
+        assertEquals(Long.valueOf(CHUNK_SIZE), updated.getLength());
+    }
+
+    @Test
+    public void smallTextFilesAreNotCompressed() throws Exception {
+        file = Files.createTempFile("config-", ".json");
+        Files.write(file, "{\"small\": true}".getBytes(StandardCharsets.UTF_8));
+        streamer.upload(file, "config.json", null);
+        assertEquals("config.json", created.get(0).getFilename());
+        assertEquals("application/json", created.get(0).getMimetype());
+        assertEquals("{\"small\": true}", contents.toString("UTF-8"));
+    }
+}
@@ -0,0 +1,71 @@
+package com.slickqa.junit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for writing a shared JSON file under it's lock.
+ */
+public class LockedJsonFileTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writersInTheSameJvmTakeTurnsAndMerge() throws Exception {
+        final Path file = folder.getRoot().toPath().resolve("shared.json");
+        final ObjectMapper mapper = new ObjectMapper();
+        int writers = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(writers);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> writes = new ArrayList<>();
+        for(int i = 0; i < writers; i++) {
+            final String key = "writer-" + i;
+            writes.add(pool.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    start.await();
+                    return LockedJsonFile.write(file, mapper, new LockedJsonFile.Contents() {
+                        @Override
+                        @SuppressWarnings("unchecked")
+                        public Object build() throws IOException {
+                            Map<String, String> contents = Files.exists(file) ? mapper.readValue(file.toFile(), Map.class) : new HashMap<String, String>();
+                            contents.put(key, key);
+                            return contents;
+                        }
+                    });
+                }
+            }));
+        }
+        start.countDown();
+        for(Future<Boolean> write : writes) {
+            assertTrue(write.get(10, TimeUnit.SECONDS));
+        }
+        pool.shutdown();
+
+        Map<?, ?> written = mapper.readValue(file.toFile(), Map.class);
+        assertEquals(writers, written.size());
+    }
+
+    @Test
+    public void nothingIsWrittenWhenThereAreNoContents() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("empty.json");
+        assertFalse(LockedJsonFile.write(file, new ObjectMapper(), new LockedJsonFile.Contents() {
+            @Override
+            public Object build() {
+                return null;
+            }
+        }));
+        assertFalse(Files.exists(file));
+    }
+}
@@ -0,0 +1,112 @@
+package com.slickqa.junit;
+
+import com.slickqa.client.model.LogEntry;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for sending logs in the background.
+ */
+public class LogShipperTest {
+
+    private static LogEntry entry(int number) {
+        LogEntry entry = new LogEntry();
+        entry.setEntryTime(new Date());
+        entry.setLevel("INFO");
+        entry.setMessage("entry " + number);
+        return entry;
+    }
+
+    @Test
+    public void ringBufferHandsEveryItemToExactlyOneConsumer() throws Exception {
+        final LogRingBuffer<Integer> buffer = new LogRingBuffer<>(64);
+        final int producers = 4;
+        final int perProducer = 5000;
+        final ConcurrentMap<Integer, Boolean> seen = new ConcurrentHashMap<>();
+        final AtomicInteger duplicates = new AtomicInteger(0);
+        final CountDownLatch produced = new CountDownLatch(producers);
+        ExecutorService pool = Executors.newFixedThreadPool(producers + 2);
+        for(int p = 0; p < producers; p++) {
+            final int base = p * perProducer;
+            pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for(int i = 0; i < perProducer; i++) {
+                        while(!buffer.offer(base + i)) {
+                            Thread.yield();
+                        }
+                    }
+                    produced.countDown();
+                }
+            });
+        }
+        List<Future<?>> consumers = new ArrayList<>();
+        for(int c = 0; c < 2; c++) {
+            consumers.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    while(produced.getCount() > 0 || buffer.size() > 0) {
+                        Integer item = buffer.poll();
+                        if(item == null) {
+                            Thread.yield();
+                        } else if(seen.put(item, Boolean.TRUE) != null) {
+                            duplicates.incrementAndGet();
+                        }
+                    }
+                }
+            }));
+        }
+        for(Future<?> consumer : consumers) {
+            consumer.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertEquals(0, duplicates.get());
+        assertEquals(producers * perProducer, seen.size());
+        assertNull(buffer.poll());
+    }
+
+    @Test
+    public void blockingShipperBatchesEveryEntry() throws Exception {
+        FakeSlickClient slick = new FakeSlickClient();
+        slick.latencyMillis = 5;
+        LogShipper shipper = new LogShipper(slick.client(), 32, LogShipper.Overflow.BLOCK, 200, 30000);
+        for(int i = 0; i < 2000; i++) {
+            shipper.append("result-1", entry(i));
+        }
+        assertTrue(shipper.flush("result-1"));
+        shipper.shutdown(10, TimeUnit.SECONDS);
+
+        List<LogEntry> logs = slick.logs.get("result-1");
+        assertEquals(2000, logs.size());
+        for(int i = 0; i < 2000; i++) {
+            assertEquals("entry " + i, logs.get(i).getMessage());
+        }
+        assertEquals(0, shipper.getDroppedCount());
+        assertTrue("expected batches, got " + slick.count("result.addLogs") + " requests", slick.count("result.addLogs") < 200);
+    }
+
+    @Test
+    public void droppedEntriesAreCountedOnTheResult() throws Exception {
+        FakeSlickClient slick = new FakeSlickClient();
+        slick.latencyMillis = 20;
+        LogShipper shipper = new LogShipper(slick.client(), 16, LogShipper.Overflow.DROP_NEWEST, 1000, 30000);
+        for(int i = 0; i < 1000; i++) {
+            shipper.append("result-1", entry(i));
+        }
+        assertTrue(shipper.flush("result-1"));
+        shipper.shutdown(10, TimeUnit.SECONDS);
+
+        assertTrue(shipper.getDroppedCount() > 0);
+        assertEquals(1000, shipper.getShippedCount() + shipper.getDroppedCount());
+        List<LogEntry> logs = slick.logs.get("result-1");
+        LogEntry note = logs.get(logs.size() - 1);
+        assertEquals("WARN", note.getLevel());
+        assertTrue(note.getMessage().startsWith(shipper.getDroppedCount() + " log entries were dropped"));
+    }
+}
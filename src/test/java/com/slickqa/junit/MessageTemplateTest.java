@@ -0,0 +1,60 @@
+package com.slickqa.junit;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.text.MessageFormat;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for parsing and formatting log message patterns.
+ */
+public class MessageTemplateTest {
+
+    private static void assertFormatsLikeMessageFormat(String pattern, Object... arguments) {
+        assertEquals(pattern, MessageFormat.format(pattern, arguments), MessageTemplate.compile(pattern).format(arguments));
+    }
+
+    @Test
+    public void messageFormatPatternsFormatLikeMessageFormat() {
+        Date now = new Date();
+        assertFormatsLikeMessageFormat("no arguments at all");
+        assertFormatsLikeMessageFormat("{0} and {1}", "first", "second");
+        assertFormatsLikeMessageFormat("{1} before {0}, {0} again", "first", "second");
+        assertFormatsLikeMessageFormat("numbers {0} {1} {2}", 1234567, 3.14159, new BigDecimal("12345.678"));
+        assertFormatsLikeMessageFormat("a date {0}", now);
+        assertFormatsLikeMessageFormat("nothing for {0} {1} {2}", "only one");
+        assertFormatsLikeMessageFormat("null is {0}", (Object) null);
+        assertFormatsLikeMessageFormat("it''s '{quoted}' {0} '' done", "value");
+        assertFormatsLikeMessageFormat("unterminated 'quote {0}", "value");
+        assertFormatsLikeMessageFormat("stray } brace {0}", "value");
+        assertFormatsLikeMessageFormat("typed {0,number,#.##} {1,date,yyyy}", 3.14159, now);
+        assertFormatsLikeMessageFormat("choice {0,choice,0#none|1#one|1<many}", 5);
+    }
+
+    @Test
+    public void slf4jPatternsReplacePlaceholdersInOrder() {
+        assertEquals("a=1 b=two", MessageTemplate.compile("a={} b={}").format(1, "two"));
+        assertEquals("it's 5", MessageTemplate.compile("it's {}").format(5));
+        assertEquals("missing {}", MessageTemplate.compile("missing {}").format());
+        assertEquals("escaped {} x", MessageTemplate.compile("escaped \\{} {}").format("x"));
+        assertEquals("array [1, [2, 3]]", MessageTemplate.compile("array {}").format((Object) new Object[]{1, new Object[]{2, 3}}));
+        assertTrue(MessageTemplate.compile("{}").isSlf4jStyle());
+        assertFalse(MessageTemplate.compile("{0}").isSlf4jStyle());
+    }
+
+    @Test
+    public void patternsAreParsedOnce() {
+        assertSame(MessageTemplate.compile("cached {0}"), MessageTemplate.compile("cached " + "{0}"));
+    }
+
+    @Test
+    public void onlyImmutableArgumentsAreFormattedLater() {
+        assertTrue(MessageTemplate.canDefer("a", 1, null, 2));
+        assertTrue(MessageTemplate.canDefer(null, null, new Object[]{null, 2L, Thread.State.NEW}, 3));
+        assertFalse(MessageTemplate.canDefer(new StringBuilder("mutable"), null, null, 1));
+        assertFalse(MessageTemplate.canDefer(null, null, new Object[]{"a", new Date()}, 2));
+    }
+}
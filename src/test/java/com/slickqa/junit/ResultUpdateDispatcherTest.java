@@ -0,0 +1,88 @@
+package com.slickqa.junit;
+
+import com.slickqa.client.model.Result;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for sending result updates from background threads.
+ */
+public class ResultUpdateDispatcherTest {
+
+    private static Result result(FakeSlickClient slick, String id) {
+        Result result = new Result();
+        result.setId(id);
+        slick.results.put(id, result);
+        return result;
+    }
+
+    private static Result update(int sequence) {
+        Result update = new Result();
+        update.setReason(String.valueOf(sequence));
+        return update;
+    }
+
+    @Test
+    public void interleavedUpdatesReachSlickInOrderPerResult() throws Exception {
+        FakeSlickClient slick = new FakeSlickClient();
+        slick.latencyMillis = 1;
+        ResultUpdateDispatcher dispatcher = new ResultUpdateDispatcher(slick.client(), 4);
+        int results = 5;
+        int updates = 20;
+        for(int r = 0; r < results; r++) {
+            result(slick, "r" + r);
+        }
+        for(int u = 0; u < updates; u++) {
+            for(int r = 0; r < results; r++) {
+                dispatcher.update("r" + r, update(u));
+            }
+        }
+        assertTrue(dispatcher.drain(10, TimeUnit.SECONDS));
+
+        for(int r = 0; r < results; r++) {
+            List<Result> sent = slick.updatesFor("r" + r);
+            assertEquals(updates, sent.size());
+            for(int u = 0; u < updates; u++) {
+                assertEquals(String.valueOf(u), sent.get(u).getReason());
+            }
+        }
+        assertEquals(results * updates, dispatcher.getSentCount());
+        assertEquals(0, dispatcher.getFailedCount());
+        assertEquals(0, dispatcher.getQueueDepth());
+    }
+
+    @Test
+    public void drainWaitsForQueuedUpdatesAndCountsTheLag() throws Exception {
+        FakeSlickClient slick = new FakeSlickClient();
+        CountDownLatch slickIsSlow = new CountDownLatch(1);
+        slick.holds.put("result.update", slickIsSlow);
+        ResultUpdateDispatcher dispatcher = new ResultUpdateDispatcher(slick.client(), 2);
+        result(slick, "r1");
+        result(slick, "r2");
+        dispatcher.update("r1", update(1));
+        dispatcher.update("r2", update(1));
+        dispatcher.update("r1", update(2));
+        // an update for a result slick doesn't have fails, but still counts as done
+        dispatcher.update("missing", update(1));
+
+        // what the shutdown hook does when slick doesn't answer in time
+        assertFalse(dispatcher.drain(100, TimeUnit.MILLISECONDS));
+        assertEquals(4, dispatcher.getQueueDepth());
+
+        Thread.sleep(50);
+        slickIsSlow.countDown();
+        assertTrue(dispatcher.drain(5, TimeUnit.SECONDS));
+        assertEquals(0, dispatcher.getQueueDepth());
+        assertEquals(3, dispatcher.getSentCount());
+        assertEquals(1, dispatcher.getFailedCount());
+        assertEquals(2, slick.updatesFor("r1").size());
+        assertEquals("2", slick.updatesFor("r1").get(1).getReason());
+        assertTrue(String.valueOf(dispatcher.getMaxLagMillis()), dispatcher.getMaxLagMillis() >= 150);
+        assertTrue(dispatcher.getLastLagMillis() <= dispatcher.getMaxLagMillis());
+    }
+}
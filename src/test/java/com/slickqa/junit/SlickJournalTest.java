@@ -0,0 +1,147 @@
+package com.slickqa.junit;
+
+import com.slickqa.client.model.LogEntry;
+import com.slickqa.client.model.Result;
+import com.slickqa.client.model.StoredFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.Description;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for spooling results to a journal and replaying it.
+ */
+public class SlickJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void partiallyWrittenRecordEndsTheJournal() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("test.journal");
+        SlickJournal journal = new SlickJournal(file);
+        for(int i = 0; i < 3; i++) {
+            SlickJournal.Record record = new SlickJournal.Record(SlickJournal.UPDATE);
+            record.resultRef = journal.newReference("result");
+            journal.append(record);
+        }
+        journal.close();
+
+        // a record whose length made it to disk but whose contents didn't
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer torn = ByteBuffer.allocate(8);
+            torn.putInt(1000).put("{\"ty".getBytes(StandardCharsets.UTF_8));
+            torn.flip();
+            channel.write(torn);
+        }
+
+        List<SlickJournal.Record> records = SlickJournal.read(file);
+        assertEquals(3, records.size());
+        assertEquals("result-3", records.get(2).resultRef);
+    }
+
+    @Test
+    public void spooledResultsAreReplayedToSlick() throws Exception {
+        Map<String, String> configuration = new HashMap<>();
+        configuration.put(ConfigurationNames.SPOOL_DIRECTORY, folder.getRoot().getAbsolutePath());
+        FakeSlickClient offline = new FakeSlickClient();
+        SlickJunitController spooling = FakeSlickClient.Controller.create(offline, configuration);
+        assertTrue(spooling.isUsingSlick());
+        assertNotNull(spooling.getJournal());
+
+        Description test = Description.createTestDescription("com.example.SpoolTest", "spooled",
+                FakeSlickClient.metaData("Spooled Test", "Spool", "Replay"));
+        Result result = spooling.getOrCreateResultFor(test);
+        Result update = new Result();
+        update.setStatus("PASS");
+        spooling.finishResult(result.getId(), update);
+        LogEntry entry = new LogEntry();
+        entry.setMessage("hello from the spool");
+        spooling.addLogs(result.getId(), Collections.singletonList(entry));
+        StoredFile file = spooling.uploadFile("spooled.txt", "text/plain",
+                new ByteArrayInputStream("spooled contents".getBytes(StandardCharsets.UTF_8)));
+        spooling.addFileToResult(result.getId(), file);
+        spooling.getJournal().close();
+        assertEquals(0, offline.count("results.create"));
+
+        List<SlickJournal.Record> records = SlickJournal.read(spooling.getJournal().getFile());
+        FakeSlickClient online = new FakeSlickClient();
+        SlickJunitController replaying = FakeSlickClient.Controller.create(online, new HashMap<String, String>());
+        assertEquals(0, new SlickJournalReplay(replaying).replay(records));
+
+        assertEquals(1, online.count("results.create"));
+        Result replayed = online.results.values().iterator().next();
+        assertEquals("PASS", replayed.getStatus());
+        assertEquals("Spooled Test", online.testcases.get(replayed.getTestcase().getTestcaseId()).getName());
+        assertEquals("hello from the spool", online.logs.get(replayed.getId()).get(0).getMessage());
+        assertEquals(1, replayed.getFiles().size());
+        assertEquals("spooled contents", online.fileContents.get(replayed.getFiles().get(0).getId()).toString("UTF-8"));
+    }
+    @Test
+    public void replayAfterErrorsResumesInTheSameTestrun() throws Exception {
+        Map<String, String> configuration = new HashMap<>();
+        configuration.put(ConfigurationNames.SPOOL_DIRECTORY, folder.getRoot().getAbsolutePath());
+        SlickJunitController spooling = FakeSlickClient.Controller.create(new FakeSlickClient(), configuration);
+        Path screenshot = folder.newFile("screenshot.txt").toPath();
+        Files.write(screenshot, "screenshot".getBytes(StandardCharsets.UTF_8));
+        for(int i = 0; i < 2; i++) {
+            Description test = Description.createTestDescription("com.example.SpoolTest", "spooled" + i,
+                    FakeSlickClient.metaData("Spooled Test " + i, "Spool", "Replay"));
+            Result result = spooling.getOrCreateResultFor(test);
+            for(int line = 0; line < 3; line++) {
+                LogEntry entry = new LogEntry();
+                entry.setMessage("line " + line);
+                spooling.addLogs(result.getId(), Collections.singletonList(entry));
+            }
+            Result update = new Result();
+            update.setStatus("PASS");
+            spooling.finishResult(result.getId(), update);
+            spooling.addFileToResult(result.getId(), spooling.uploadFile(screenshot));
+        }
+        spooling.getJournal().close();
+        Path journal = spooling.getJournal().getFile();
+        List<SlickJournal.Record> records = SlickJournal.read(journal);
+
+        // the file the journal points at is missing the first time
+        Files.move(screenshot, screenshot.resolveSibling("moved.txt"));
+        FakeSlickClient online = new FakeSlickClient();
+        SlickJournalReplay.Progress progress = SlickJournalReplay.Progress.load(SlickJournalReplay.progressFileOf(journal));
+        SlickJunitController first = FakeSlickClient.Controller.create(online, new HashMap<String, String>());
+        assertFalse(SlickJournalReplay.replay(journal, records, first, progress));
+        assertTrue(Files.exists(journal));
+        assertEquals(2, online.count("results.create"));
+        // the logs of each result went in one request
+        assertEquals(2, online.count("result.addLogs"));
+
+        Files.move(screenshot.resolveSibling("moved.txt"), screenshot);
+        progress = SlickJournalReplay.Progress.load(SlickJournalReplay.progressFileOf(journal));
+        assertEquals(first.getTestrun().getId(), progress.testrunId);
+        Map<String, String> resume = new HashMap<>();
+        resume.put(ConfigurationNames.TESTRUN_ID, progress.testrunId);
+        SlickJunitController second = FakeSlickClient.Controller.create(online, resume);
+        assertTrue(SlickJournalReplay.replay(journal, records, second, progress));
+
+        assertEquals(1, online.count("testruns.create"));
+        assertEquals(2, online.count("results.create"));
+        assertEquals(2, online.count("result.addLogs"));
+        for(Result replayed : online.results.values()) {
+            assertEquals(first.getTestrun().getId(), replayed.getTestrun().getTestrunId());
+            assertEquals("PASS", replayed.getStatus());
+            assertEquals(3, online.logs.get(replayed.getId()).size());
+            assertEquals(1, replayed.getFiles().size());
+        }
+        assertFalse(Files.exists(journal));
+        assertFalse(Files.exists(SlickJournalReplay.progressFileOf(journal)));
+    }
+}
@@ -0,0 +1,419 @@
+package com.slickqa.junit;
+
+import com.slickqa.client.model.Component;
+import com.slickqa.client.model.Feature;
+import com.slickqa.client.model.Result;
+import com.slickqa.client.model.Testrun;
+import com.slickqa.junit.annotations.SlickMetaData;
+import org.junit.Test;
+import org.junit.runner.Description;
+
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for registering results from several threads at once.
+ */
+public class SlickJunitControllerTest {
+
+    private static List<Description> tests(int count) {
+        List<Description> tests = new ArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            tests.add(Description.createTestDescription("com.example.StressTest", "test" + i,
+                    FakeSlickClient.metaData("Test " + i, "Component " + (i % 5), "Feature " + (i % 3))));
+        }
+        return tests;
+    }
+
+    @Test
+    public void overlappingRegistrationsCreateOneResultPerTest() throws Exception {
+        FakeSlickClient slick = new FakeSlickClient();
+        slick.latencyMillis = 2;
+        final SlickJunitController controller = FakeSlickClient.Controller.create(slick, new HashMap<String, String>());
+        final List<Description> tests = tests(40);
+        final ConcurrentMap<String, Set<String>> seen = new ConcurrentHashMap<>();
+        final CyclicBarrier start = new CyclicBarrier(8);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> threads = new ArrayList<>();
+        for(int t = 0; t < 8; t++) {
+            final long seed = t;
+            threads.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    List<Description> mine = new ArrayList<>(tests);
+                    Collections.shuffle(mine, new Random(seed));
+                    start.await();
+                    for(Description test : mine) {
+                        Result result = controller.getOrCreateResultFor(test);
+                        assertNotNull(result);
+                        seen.putIfAbsent(test.getMethodName(), new CopyOnWriteArraySet<String>());
+                        seen.get(test.getMethodName()).add(result.getId());
+                    }
+                    return null;
+                }
+            }));
+        }
+        for(Future<?> thread : threads) {
+            thread.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertEquals(40, slick.count("results.create"));
+        assertEquals(40, slick.count("testcases.create"));
+        assertEquals(5, slick.count("components.create"));
+        assertEquals(15, slick.count("component.update"));
+        assertEquals(40, seen.size());
+        for(Set<String> ids : seen.values()) {
+            assertEquals(1, ids.size());
+        }
+    }
+
+    @Test
+    public void suiteRegistrationRacingTestsCreatesOneResultPerTest() throws Exception {
+        FakeSlickClient slick = new FakeSlickClient();
+        slick.latencyMillis = 2;
+        Map<String, String> configuration = new HashMap<>();
+        configuration.put(ConfigurationNames.REGISTRATION_BATCH_SIZE, "5");
+        final SlickJunitController controller = FakeSlickClient.Controller.create(slick, configuration);
+        final List<Description> tests = tests(30);
+        final Description suite = Description.createSuiteDescription("StressSuite");
+        for(Description test : tests) {
+            suite.addChild(test);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<?>> threads = new ArrayList<>();
+        threads.add(pool.submit(new Runnable() {
+            @Override
+            public void run() {
+                controller.createSuiteResults(suite.getChildren());
+            }
+        }));
+        for(int t = 0; t < 3; t++) {
+            threads.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for(Description test : tests) {
+                        controller.getOrCreateResultFor(test);
+                    }
+                }
+            }));
+        }
+        for(Future<?> thread : threads) {
+            thread.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertEquals(30, slick.count("results.create"));
+        for(Description test : tests) {
+            assertEquals(slick.results.get(controller.getResultFor(test).getId()).getId(), controller.getResultFor(test).getId());
+        }
+    }
+
+    @Test
+    public void smallSuitesAreRegisteredInParallel() throws Exception {
+        FakeSlickClient slick = new FakeSlickClient();
+        final SlickJunitController controller = FakeSlickClient.Controller.create(slick, new HashMap<String, String>());
+        controller.getTestrun();
+        final Description suite = Description.createSuiteDescription("SmallSuite");
+        for(Description test : tests(8)) {
+            suite.addChild(test);
+        }
+        CountDownLatch creation = new CountDownLatch(1);
+        slick.holds.put("results.create", creation);
+        Thread registration = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                controller.createSuiteResults(suite.getChildren());
+            }
+        });
+        registration.start();
+        // far fewer tests than the batch size, still more than one result is being created at once
+        long deadline = System.currentTimeMillis() + 5000;
+        while(slick.count("results.create") < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(slick.count("results.create") >= 2);
+        creation.countDown();
+        registration.join(5000);
+        assertEquals(8, slick.results.size());
+    }
+
+    @Test
+    public void initializationRunsInTheBackgroundWithLookupsInParallel() throws Exception {
+        FakeSlickClient slick = new FakeSlickClient();
+        CountDownLatch projectLookup = new CountDownLatch(1);
+        CountDownLatch testrunCreation = new CountDownLatch(1);
+        slick.holds.put("project.get", projectLookup);
+        slick.holds.put("testruns.create", testrunCreation);
+        Map<String, String> configuration = new HashMap<>();
+        configuration.put(ConfigurationNames.TESTPLAN_NAME, "Nightly");
+        // returns while the project lookup is held
+        SlickJunitController controller = FakeSlickClient.Controller.create(slick, configuration);
+        assertTrue(controller.isUsingSlick());
+        // the testplan is looked up while the project lookup is held
+        assertTrue(slick.awaitCall("testplans.query", 5000));
+        projectLookup.countDown();
+        // the testcases are prefetched while the testrun creation is held
+        assertTrue(slick.awaitCall("testruns.create", 5000));
+        assertTrue(slick.awaitCall("testcases.query", 5000));
+        testrunCreation.countDown();
+
+        assertEquals("Nightly", controller.getTestrun().getName());
+        assertNotNull(controller.getOrCreateResultFor(tests(1).get(0)));
+        // the prefetch, and the lookup of the test that wasn't in it
+        assertEquals(2, slick.count("testcases.query"));
+    }
+
+    private static Map<String, String> snapshotConfiguration() throws Exception {
+        Map<String, String> configuration = new HashMap<>();
+        configuration.put(ConfigurationNames.TESTPLAN_NAME, "Nightly");
+        configuration.put(ConfigurationNames.PROJECT_SNAPSHOT_FILE,
+                Files.createTempDirectory("slick-snapshot-").resolve("project.json").toString());
+        return configuration;
+    }
+
+    private static SlickJunitController snapshotWritten(FakeSlickClient slick, Map<String, String> configuration) {
+        SlickJunitController controller = FakeSlickClient.Controller.create(slick, configuration);
+        // the first run creates a component, the snapshot has it
+        assertNotNull(controller.getOrCreateResultFor(tests(1).get(0)));
+        controller.saveProjectSnapshot();
+        return controller;
+    }
+
+    @Test
+    public void deletedTestcaseInTheTestcaseCacheIsLookedUpAgain() throws Exception {
+        FakeSlickClient slick = new FakeSlickClient();
+        Map<String, String> configuration = new HashMap<>();
+        configuration.put(ConfigurationNames.TESTCASE_CACHE_FILE,
+                Files.createTempDirectory("slick-cache-").resolve("testcases.json").toString());
+        SlickJunitController first = FakeSlickClient.Controller.create(slick, configuration);
+        String deletedId = first.getOrCreateResultFor(tests(1).get(0)).getTestcase().getTestcaseId();
+        first.testcaseCache.save();
+
+        // someone deleted the testcase since the cache was written
+        slick.testcases.remove(deletedId);
+        SlickJunitController controller = FakeSlickClient.Controller.create(slick, configuration);
+        Result result = controller.getOrCreateResultFor(tests(1).get(0));
+        assertNotNull(result);
+        String testcaseId = result.getTestcase().getTestcaseId();
+        assertTrue(slick.testcases.containsKey(testcaseId));
+        assertEquals(3, slick.count("results.create"));
+        assertEquals(2, slick.count("testcases.create"));
+        String fingerprint = TestcaseCache.fingerprint(controller.getAutomationId(tests(1).get(0)), tests(1).get(0).getAnnotation(SlickMetaData.class));
+        assertEquals(testcaseId, controller.testcaseCache.get(controller.getAutomationId(tests(1).get(0)), fingerprint).testcaseId);
+    }
+
+    @Test
+    public void testsMissingFromAPartlyWarmTestcaseCacheArePrefetchedTogether() throws Exception {
+        FakeSlickClient slick = new FakeSlickClient();
+        Map<String, String> configuration = new HashMap<>();
+        configuration.put(ConfigurationNames.TESTCASE_CACHE_FILE,
+                Files.createTempDirectory("slick-cache-").resolve("testcases.json").toString());
+        SlickJunitController first = FakeSlickClient.Controller.create(slick, configuration);
+        List<Description> tests = tests(4);
+        for(Description test : tests) {
+            assertNotNull(first.getOrCreateResultFor(test));
+        }
+        // the cache only knows the first two tests
+        for(Description test : tests.subList(2, 4)) {
+            String automationId = first.getAutomationId(test);
+            String fingerprint = TestcaseCache.fingerprint(automationId, test.getAnnotation(SlickMetaData.class));
+            first.testcaseCache.remove(automationId, first.testcaseCache.get(automationId, fingerprint));
+        }
+        first.testcaseCache.save();
+        int queries = slick.count("testcases.query");
+
+        SlickJunitController controller = FakeSlickClient.Controller.create(slick, configuration);
+        for(Description test : tests.subList(0, 2)) {
+            assertNotNull(controller.getOrCreateResultFor(test));
+        }
+        // every test so far was in the cache
+        assertEquals(queries, slick.count("testcases.query"));
+        for(Description test : tests.subList(2, 4)) {
+            assertNotNull(controller.getOrCreateResultFor(test));
+        }
+        // one query for the project's testcases, none per test
+        assertEquals(queries + 1, slick.count("testcases.query"));
+        assertEquals(4, slick.count("testcases.create"));
+    }
+
+    @Test
+    public void projectSnapshotLetsResultsBeRegisteredBeforeTheTestplanIsChecked() throws Exception {
+        FakeSlickClient slick = new FakeSlickClient();
+        Map<String, String> configuration = snapshotConfiguration();
+        snapshotWritten(slick, configuration);
+        int components = slick.count("components.create");
+
+        CountDownLatch lookups = new CountDownLatch(1);
+        slick.holds.put("testplans.query", lookups);
+        final SlickJunitController controller = FakeSlickClient.Controller.create(slick, configuration);
+        ExecutorService test = Executors.newSingleThreadExecutor();
+        try {
+            // the testplan lookup checking the snapshot is held, the result doesn't wait for it
+            Future<Result> registered = test.submit(new Callable<Result>() {
+                @Override
+                public Result call() {
+                    return controller.getOrCreateResultFor(tests(1).get(0));
+                }
+            });
+            assertNotNull(registered.get(5, TimeUnit.SECONDS));
+        } finally {
+            test.shutdown();
+        }
+        assertEquals(components, slick.count("components.create"));
+        List<String> calls = new ArrayList<>(slick.callLog);
+        assertTrue(calls.lastIndexOf("testruns.create") < calls.lastIndexOf("results.create"));
+
+        lookups.countDown();
+        controller.projectSnapshotCheck.get(5, TimeUnit.SECONDS);
+        assertEquals(1, slick.count("testplans.create"));
+        assertEquals(0, slick.count("testrun.update"));
+        assertEquals(0, slick.count("testrun.delete"));
+    }
+
+    @Test
+    public void featuresAddedSinceTheProjectSnapshotAreKept() throws Exception {
+        FakeSlickClient slick = new FakeSlickClient();
+        Map<String, String> configuration = snapshotConfiguration();
+        snapshotWritten(slick, configuration);
+
+        // another run added a feature to the component since the snapshot was written
+        Component component = slick.projects.values().iterator().next().getComponents().get(0);
+        assertEquals("Component 0", component.getName());
+        List<Feature> features = new ArrayList<>(component.getFeatures());
+        Feature added = new Feature();
+        added.setName("Added Elsewhere");
+        added.setId("added-elsewhere");
+        features.add(added);
+        component.setFeatures(features);
+
+        SlickJunitController controller = FakeSlickClient.Controller.create(slick, configuration);
+        // Component 0, Feature 2
+        assertNotNull(controller.getOrCreateResultFor(tests(6).get(5)));
+        controller.projectSnapshotCheck.get(5, TimeUnit.SECONDS);
+
+        Set<String> names = new HashSet<>();
+        for(Feature feature : slick.projects.values().iterator().next().getComponents().get(0).getFeatures()) {
+            names.add(feature.getName());
+        }
+        assertEquals(new HashSet<>(Arrays.asList("Feature 0", "Added Elsewhere", "Feature 2")), names);
+    }
+
+    @Test
+    public void staleTestplanInProjectSnapshotIsFixedOnTheTestrun() throws Exception {
+        FakeSlickClient slick = new FakeSlickClient();
+        Map<String, String> configuration = snapshotConfiguration();
+        snapshotWritten(slick, configuration);
+
+        // the testplan was deleted since the snapshot was written
+        slick.testplans.clear();
+        SlickJunitController controller = FakeSlickClient.Controller.create(slick, configuration);
+        Testrun testrun = controller.getTestrun();
+        controller.projectSnapshotCheck.get(5, TimeUnit.SECONDS);
+        assertEquals(1, slick.testplans.size());
+        String testplanId = slick.testplans.keySet().iterator().next();
+        assertEquals(testplanId, testrun.getTestplanId());
+        assertEquals(testplanId, slick.testruns.get(testrun.getId()).getTestplanId());
+        // the testrun was fixed, not replaced
+        assertEquals(0, slick.count("testrun.delete"));
+        assertEquals(2, slick.testruns.size());
+    }
+
+    @Test
+    public void staleProjectInProjectSnapshotMovesTheTestrun() throws Exception {
+        FakeSlickClient slick = new FakeSlickClient();
+        Map<String, String> configuration = snapshotConfiguration();
+        snapshotWritten(slick, configuration);
+
+        // the project was deleted and created again since the snapshot was written
+        slick.projects.clear();
+        SlickJunitController controller = FakeSlickClient.Controller.create(slick, configuration);
+        Testrun testrun = controller.getTestrun();
+        controller.projectSnapshotCheck.get(5, TimeUnit.SECONDS);
+        String projectId = slick.projects.keySet().iterator().next();
+        assertEquals(projectId, slick.testruns.get(testrun.getId()).getProject().getId());
+        assertEquals(0, slick.count("testrun.delete"));
+        Result result = controller.getOrCreateResultFor(tests(2).get(1));
+        assertEquals(projectId, result.getProject().getId());
+    }
+
+    @Test
+    public void resultsWaitForTheTestrunToBeMovedOutOfAStaleProject() throws Exception {
+        FakeSlickClient slick = new FakeSlickClient();
+        Map<String, String> configuration = snapshotConfiguration();
+        snapshotWritten(slick, configuration);
+
+        // the project was deleted and created again since the snapshot was written
+        slick.projects.clear();
+        CountDownLatch projectLookup = new CountDownLatch(1);
+        slick.holds.put("project.get", projectLookup);
+        final SlickJunitController controller = FakeSlickClient.Controller.create(slick, configuration);
+        ExecutorService test = Executors.newSingleThreadExecutor();
+        try {
+            Future<Result> registered = test.submit(new Callable<Result>() {
+                @Override
+                public Result call() {
+                    return controller.getOrCreateResultFor(tests(1).get(0));
+                }
+            });
+            assertTrue(slick.awaitCall("testruns.create", 5000));
+            Thread.sleep(100);
+            assertFalse(registered.isDone());
+
+            projectLookup.countDown();
+            Result result = registered.get(5, TimeUnit.SECONDS);
+            String projectId = slick.projects.keySet().iterator().next();
+            assertEquals(projectId, result.getProject().getId());
+            assertEquals(projectId, slick.testruns.get(result.getTestrun().getTestrunId()).getProject().getId());
+        } finally {
+            test.shutdown();
+        }
+    }
+
+    @Test
+    public void finalStatusArrivesAfterARunningUpdateBeingSent() throws Exception {
+        FakeSlickClient slick = new FakeSlickClient();
+        Map<String, String> configuration = new HashMap<>();
+        configuration.put(ConfigurationNames.COALESCE_WINDOW, "10");
+        final SlickJunitController controller = FakeSlickClient.Controller.create(slick, configuration);
+        final String resultId = controller.getOrCreateResultFor(tests(1).get(0)).getId();
+        slick.holdRunningUpdates = new CountDownLatch(1);
+
+        Result running = new Result();
+        running.setStarted(new Date());
+        running.setRunstatus("RUNNING");
+        controller.startResult(resultId, running);
+        // the window is over and the timer is in the middle of sending RUNNING
+        assertTrue(slick.runningUpdateHeld.await(5, TimeUnit.SECONDS));
+        Thread finisher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Result finished = new Result();
+                finished.setStatus("PASS");
+                finished.setRunstatus("FINISHED");
+                try {
+                    controller.finishResult(resultId, finished);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        finisher.start();
+        finisher.join(200);
+        assertTrue(slick.updatesFor(resultId).isEmpty());
+
+        slick.holdRunningUpdates.countDown();
+        finisher.join(5000);
+        List<Result> updates = slick.updatesFor(resultId);
+        assertEquals(2, updates.size());
+        assertEquals("RUNNING", updates.get(0).getRunstatus());
+        assertEquals("FINISHED", updates.get(1).getRunstatus());
+        assertEquals("FINISHED", slick.results.get(resultId).getRunstatus());
+    }
+}
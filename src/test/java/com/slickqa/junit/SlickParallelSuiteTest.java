@@ -0,0 +1,98 @@
+package com.slickqa.junit;
+
+import com.slickqa.client.model.Result;
+import com.slickqa.junit.annotations.SlickMetaData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.internal.builders.AllDefaultPossibilitiesBuilder;
+import org.junit.runner.notification.RunListener;
+import org.junit.runner.notification.RunNotifier;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for running a suite's tests in parallel while reporting them to slick.
+ */
+public class SlickParallelSuiteTest {
+
+    // a test waits here for another one to be running at the same time, which never happens if they run one by one
+    static final CyclicBarrier TWO_RUNNING = new CyclicBarrier(2);
+
+    public static class First {
+        @Rule
+        public SlickResultRule slick = new SlickResultRule();
+
+        @Test
+        @SlickMetaData(title = "First One", component = "Parallel", steps = {})
+        public void one() throws Exception {
+            TWO_RUNNING.await(10, TimeUnit.SECONDS);
+        }
+
+        @Test
+        @SlickMetaData(title = "First Two", component = "Parallel", steps = {})
+        public void two() throws Exception {
+            TWO_RUNNING.await(10, TimeUnit.SECONDS);
+        }
+    }
+
+    public static class Second {
+        @Rule
+        public SlickResultRule slick = new SlickResultRule();
+
+        @Test
+        @SlickMetaData(title = "Second One", component = "Parallel", steps = {})
+        public void one() throws Exception {
+            TWO_RUNNING.await(10, TimeUnit.SECONDS);
+        }
+
+        @Test
+        @SlickMetaData(title = "Second Two", component = "Parallel", steps = {})
+        public void two() throws Exception {
+            TWO_RUNNING.await(10, TimeUnit.SECONDS);
+        }
+    }
+
+    @SlickParallelSuite.Parallelism(threads = 4, methods = true)
+    @SlickSuite.SuiteClasses({First.class, Second.class})
+    public static class Parallel {
+    }
+
+    @Test
+    public void testsRunConcurrentlyAndEachResultIsReportedOnce() throws Exception {
+        FakeSlickClient slick = new FakeSlickClient();
+        SlickJunitController previous = SlickJunitControllerFactory.INSTANCE;
+        SlickJunitControllerFactory.INSTANCE = FakeSlickClient.Controller.create(slick, new HashMap<String, String>());
+        try {
+            SlickParallelSuite suite = new SlickParallelSuite(Parallel.class, new AllDefaultPossibilitiesBuilder(true));
+            org.junit.runner.Result run = new org.junit.runner.Result();
+            RunNotifier notifier = new RunNotifier();
+            RunListener listener = run.createListener();
+            notifier.addListener(listener);
+            suite.run(notifier);
+
+            assertEquals(4, run.getRunCount());
+            assertEquals(run.getFailures().isEmpty() ? "" : run.getFailures().get(0).getTrace(), 0, run.getFailureCount());
+            assertTrue(suite.pool.isShutdown());
+        } finally {
+            SlickJunitControllerFactory.INSTANCE = previous;
+        }
+
+        assertEquals(4, slick.results.size());
+        for(Result result : slick.results.values()) {
+            int finished = 0;
+            List<Result> updates = slick.updatesFor(result.getId());
+            for(Result update : updates) {
+                if("FINISHED".equals(update.getRunstatus())) {
+                    assertEquals("PASS", update.getStatus());
+                    finished++;
+                }
+            }
+            assertEquals(1, finished);
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.slickqa.junit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.slickqa.client.model.LogEntry;
+import com.slickqa.client.model.StoredFile;
+import com.slickqa.junit.annotations.SlickLogger;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.Description;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for sending log entries of a test to slick.
+ */
+public class SlickResultLoggerTest {
+    private int maxSeconds;
+    private FakeSlickClient slick;
+    private SlickJunitController controller;
+    private SlickResultRule rule;
+
+    @Before
+    public void setUp() {
+        maxSeconds = SlickResultLogger.MAX_SECONDS_SINCE_FIRST_ENTRY;
+        SlickResultLogger.MAX_SECONDS_SINCE_FIRST_ENTRY = 1;
+        slick = new FakeSlickClient();
+        controller = FakeSlickClient.Controller.create(slick, new HashMap<String, String>());
+        rule = ruleFor(controller);
+    }
+
+    private static SlickResultRule ruleFor(final SlickJunitController controller) {
+        return new SlickResultRule() {
+            @Override
+            protected SlickJunitController getSlickJunitController() {
+                return controller;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        SlickResultLogger.MAX_SECONDS_SINCE_FIRST_ENTRY = maxSeconds;
+    }
+
+    @Test
+    public void entriesOfAnIdleTestAreFlushedByTheTimer() throws Exception {
+        Description test = Description.createTestDescription("com.example.LoggerTest", "idle",
+                FakeSlickClient.metaData("Idle Test", "Logging", "Flush"));
+        rule.starting(test);
+        String resultId = rule.getCurrentResult().getId();
+        rule.log().info("one");
+        rule.log().info("two");
+        rule.log().info("three");
+        assertNull(slick.logs.get(resultId));
+        assertEquals(1, controller.getLogFlusher().getLiveCount());
+
+        // the test is "hung", nothing else is logged
+        long deadline = System.currentTimeMillis() + 10000;
+        while(slick.logs.get(resultId) == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        List<LogEntry> logs = slick.logs.get(resultId);
+        assertNotNull("the flusher never sent the entries", logs);
+        assertEquals(3, logs.size());
+
+        rule.log().info("four");
+        rule.succeeded(test);
+        rule.finished(test);
+        assertEquals(4, slick.logs.get(resultId).size());
+        assertEquals("four", slick.logs.get(resultId).get(3).getMessage());
+        assertEquals(0, controller.getLogFlusher().getLiveCount());
+    }
+
+    @Test
+    public void capturedEntriesAreOnlySentForFailures() throws Exception {
+        Map<String, String> configuration = new HashMap<>();
+        configuration.put(ConfigurationNames.CAPTURE_LOGS, "true");
+        configuration.put(ConfigurationNames.CAPTURE_LOGS_SIZE, "5");
+        controller = FakeSlickClient.Controller.create(slick, configuration);
+        rule = ruleFor(controller);
+
+        Description passing = Description.createTestDescription("com.example.LoggerTest", "passing",
+                FakeSlickClient.metaData("Passing Test", "Logging", "Capture"));
+        rule.starting(passing);
+        String passingId = rule.getCurrentResult().getId();
+        rule.log().debug("quiet");
+        rule.log().warn("loud");
+        rule.succeeded(passing);
+        rule.finished(passing);
+        assertEquals(1, slick.logs.get(passingId).size());
+        assertEquals("loud", slick.logs.get(passingId).get(0).getMessage());
+
+        Description failing = Description.createTestDescription("com.example.LoggerTest", "failing",
+                FakeSlickClient.metaData("Failing Test", "Logging", "Capture"));
+        rule.starting(failing);
+        String failingId = rule.getCurrentResult().getId();
+        for(int i = 0; i < 8; i++) {
+            rule.log().debug("detail {0}", i);
+        }
+        rule.log().error("broken");
+        rule.failed(new AssertionError("broken"), failing);
+        rule.finished(failing);
+        List<LogEntry> logs = slick.logs.get(failingId);
+        assertEquals(7, logs.size());
+        assertEquals("broken", logs.get(0).getMessage());
+        assertEquals("3 earlier log entries were discarded, only the last 5 were kept", logs.get(1).getMessage());
+        assertEquals("detail 3", logs.get(2).getMessage());
+        assertEquals("detail 7", logs.get(6).getMessage());
+    }
+
+    private static long allocatedBytes(com.sun.management.ThreadMXBean threads, Runnable calls) {
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        calls.run();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+    }
+
+    @Test
+    public void loggingDoesNotAllocatePerCall() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        Map<String, String> configuration = new HashMap<>();
+        configuration.put(ConfigurationNames.CAPTURE_LOGS, "true");
+        configuration.put(ConfigurationNames.CAPTURE_LOGS_SIZE, "100");
+        controller = FakeSlickClient.Controller.create(slick, configuration);
+        rule = ruleFor(controller);
+        Description test = Description.createTestDescription("com.example.LoggerTest", "allocation",
+                FakeSlickClient.metaData("Allocation Test", "Logging", "Garbage"));
+        rule.starting(test);
+        final SlickLogger log = rule.log();
+        final Object argument = "argument";
+        final int calls = 200000;
+        Runnable enabled = new Runnable() {
+            @Override
+            public void run() {
+                for(int i = 0; i < calls; i++) {
+                    log.debug("a message kept in the capture ring");
+                }
+            }
+        };
+        Runnable disabled = new Runnable() {
+            @Override
+            public void run() {
+                for(int i = 0; i < calls; i++) {
+                    log.trace("a message below the minimum level {0}", argument);
+                }
+            }
+        };
+        // warm up so the measurement isn't of class loading and the interpreter
+        for(int i = 0; i < 5; i++) {
+            enabled.run();
+            disabled.run();
+        }
+
+        long enabledBytes = allocatedBytes(threads, enabled);
+        long disabledBytes = allocatedBytes(threads, disabled);
+        assertTrue("enabled calls allocated " + enabledBytes + " bytes", enabledBytes < calls / 100);
+        assertTrue("disabled calls allocated " + disabledBytes + " bytes", disabledBytes < calls / 100);
+        rule.succeeded(test);
+        rule.finished(test);
+    }
+
+    @Test
+    public void repeatsAreCollapsedIntoOneEntry() throws Exception {
+        Map<String, String> configuration = new HashMap<>();
+        configuration.put(ConfigurationNames.COLLAPSE_LOGS_WINDOW, "60000");
+        controller = FakeSlickClient.Controller.create(slick, configuration);
+        rule = ruleFor(controller);
+        Description test = Description.createTestDescription("com.example.LoggerTest", "repeats",
+                FakeSlickClient.metaData("Repeating Test", "Logging", "Collapse"));
+        rule.starting(test);
+        String resultId = rule.getCurrentResult().getId();
+        for(int i = 0; i < 10; i++) {
+            rule.log().warn("This message is {0} of {1} {2}.", i + 1, 10, "messages");
+        }
+        rule.log().info("something else");
+        rule.succeeded(test);
+        rule.finished(test);
+
+        List<LogEntry> logs = slick.logs.get(resultId);
+        assertEquals(3, logs.size());
+        assertEquals("This message is 1 of 10 messages.", logs.get(0).getMessage());
+        assertEquals("something else", logs.get(1).getMessage());
+        assertEquals("WARN", logs.get(2).getLevel());
+        assertTrue(logs.get(2).getMessage(), logs.get(2).getMessage().startsWith("\"This message is {0} of {1} {2}.\" repeated 9 more times between "));
+    }
+
+    @Test
+    public void entriesOverTheRateLimitAreCounted() throws Exception {
+        Map<String, String> configuration = new HashMap<>();
+        configuration.put(ConfigurationNames.LOGS_RATE_LIMIT, "3");
+        controller = FakeSlickClient.Controller.create(slick, configuration);
+        rule = ruleFor(controller);
+        Description test = Description.createTestDescription("com.example.LoggerTest", "limited",
+                FakeSlickClient.metaData("Limited Test", "Logging", "Rate Limit"));
+        rule.starting(test);
+        String resultId = rule.getCurrentResult().getId();
+        long start = System.currentTimeMillis();
+        for(int i = 0; i < 100; i++) {
+            rule.log().info("noisy {}", i);
+        }
+        long seconds = System.currentTimeMillis() / 1000 - start / 1000 + 1;
+        rule.succeeded(test);
+        rule.finished(test);
+
+        int sent = 0;
+        int counted = 0;
+        for(LogEntry entry : slick.logs.get(resultId)) {
+            if(entry.getMessage().startsWith("\"noisy {}\" repeated ")) {
+                counted += Integer.parseInt(entry.getMessage().split(" ")[3]);
+            } else {
+                sent++;
+            }
+        }
+        assertTrue(sent + " entries were sent in " + seconds + " seconds", sent <= 3 * seconds);
+        assertEquals(100, sent + counted);
+    }
+
+    @Test
+    public void chattyTestsAttachTheRestOfTheirLog() throws Exception {
+        Map<String, String> configuration = new HashMap<>();
+        configuration.put(ConfigurationNames.BULK_LOGS_THRESHOLD, "2000");
+        controller = FakeSlickClient.Controller.create(slick, configuration);
+        rule = ruleFor(controller);
+        Description test = Description.createTestDescription("com.example.LoggerTest", "chatty",
+                FakeSlickClient.metaData("Chatty Test", "Logging", "Bulk"));
+        rule.starting(test);
+        String resultId = rule.getCurrentResult().getId();
+        for(int i = 0; i < 500; i++) {
+            rule.log().info("chatty line {} of the test", i);
+        }
+        rule.succeeded(test);
+        rule.finished(test);
+
+        List<LogEntry> inline = slick.logs.get(resultId);
+        assertTrue(inline.size() < 50);
+        LogEntry summary = inline.get(inline.size() - 1);
+        String filename = "log-" + resultId + ".ndjson.gz";
+        assertTrue(summary.getMessage(), summary.getMessage().endsWith("were attached as " + filename));
+
+        List<StoredFile> files = slick.results.get(resultId).getFiles();
+        assertEquals(1, files.size());
+        assertEquals(filename, files.get(0).getFilename());
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+                new ByteArrayInputStream(slick.fileContents.get(files.get(0).getId()).toByteArray())), StandardCharsets.UTF_8))) {
+            String line;
+            while((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        assertEquals(500, inline.size() - 1 + lines.size());
+        LogEntry last = new ObjectMapper().readValue(lines.get(lines.size() - 1), LogEntry.class);
+        assertEquals("chatty line 499 of the test", last.getMessage());
+    }
+}
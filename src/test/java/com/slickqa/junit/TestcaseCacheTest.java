@@ -0,0 +1,58 @@
+package com.slickqa.junit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the testcase cache file shared by the JVMs of a run.
+ */
+public class TestcaseCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void forksSavingToTheSameFileKeepEachOthersEntries() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("testcases.json");
+        // two surefire forks, both loaded the cache before either saved
+        TestcaseCache fork1 = new TestcaseCache(file, null, TestcaseCache.DEFAULT_MAX_AGE_HOURS);
+        TestcaseCache fork2 = new TestcaseCache(file, null, TestcaseCache.DEFAULT_MAX_AGE_HOURS);
+        assertFalse(fork1.load("project1"));
+        assertFalse(fork2.load("project1"));
+        fork1.put("com.example.A.test", new TestcaseCache.Entry("tc1", "c1", "f1", "fingerprint-a"));
+        fork2.put("com.example.B.test", new TestcaseCache.Entry("tc2", "c1", "f2", "fingerprint-b"));
+        fork2.put("com.example.C.test", new TestcaseCache.Entry("tc3", "c2", null, "fingerprint-c"));
+        fork1.save();
+        fork2.save();
+
+        TestcaseCache next = new TestcaseCache(file, null, TestcaseCache.DEFAULT_MAX_AGE_HOURS);
+        assertTrue(next.load("project1"));
+        assertEquals("tc1", next.get("com.example.A.test", "fingerprint-a").testcaseId);
+        assertEquals("tc2", next.get("com.example.B.test", "fingerprint-b").testcaseId);
+        assertEquals("tc3", next.get("com.example.C.test", "fingerprint-c").testcaseId);
+        assertNull(next.get("com.example.A.test", "changed"));
+    }
+
+    @Test
+    public void removedEntryIsNotSaved() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("testcases.json");
+        TestcaseCache cache = new TestcaseCache(file, null, TestcaseCache.DEFAULT_MAX_AGE_HOURS);
+        cache.load("project1");
+        TestcaseCache.Entry stale = new TestcaseCache.Entry("tc1", "c1", "f1", "fingerprint-a");
+        cache.put("com.example.A.test", stale);
+        cache.put("com.example.B.test", new TestcaseCache.Entry("tc2", "c1", "f1", "fingerprint-b"));
+        cache.remove("com.example.A.test", stale);
+        assertNull(cache.get("com.example.A.test", "fingerprint-a"));
+        cache.save();
+
+        TestcaseCache next = new TestcaseCache(file, null, TestcaseCache.DEFAULT_MAX_AGE_HOURS);
+        next.load("project1");
+        assertNull(next.get("com.example.A.test", "fingerprint-a"));
+        assertNotNull(next.get("com.example.B.test", "fingerprint-b"));
+    }
+}
@@ -0,0 +1,99 @@
+package com.slickqa.junit;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for encoding exceptions sent to slick.
+ */
+public class ThrowableEncoderTest {
+
+    private static StackTraceElement frame(String className, int line) {
+        return new StackTraceElement(className, "method", className.substring(className.lastIndexOf('.') + 1) + ".java", line);
+    }
+
+    private static Throwable failure(String message) {
+        IllegalStateException cause = new IllegalStateException("cause of " + message);
+        cause.setStackTrace(new StackTraceElement[]{
+                frame("com.example.Dao", 10),
+                frame("com.example.Service", 20),
+                frame("com.example.ServiceTest", 30),
+                frame("org.junit.runners.ParentRunner", 1),
+                frame("org.junit.runners.ParentRunner", 2)
+        });
+        RuntimeException failure = new RuntimeException(message, cause);
+        failure.setStackTrace(new StackTraceElement[]{
+                frame("com.example.Service", 21),
+                frame("com.example.ServiceTest", 30),
+                frame("sun.reflect.NativeMethodAccessorImpl", 3),
+                frame("java.lang.reflect.Method", 4),
+                frame("org.junit.runners.model.FrameworkMethod", 5),
+                frame("org.junit.runners.ParentRunner", 1),
+                frame("org.junit.runners.ParentRunner", 2)
+        });
+        failure.addSuppressed(new IllegalArgumentException("while cleaning up"));
+        return failure;
+    }
+
+    @Test
+    public void frameworkFramesAreTrimmedAndCausesIncluded() {
+        List<String> lines = new ThrowableEncoder(true).encodeForLog(failure("first"));
+        assertEquals("[trace-1]", lines.get(0));
+        assertEquals("com.example.Service.method(Service.java:21)", lines.get(1));
+        assertEquals("com.example.ServiceTest.method(ServiceTest.java:30)", lines.get(2));
+        assertEquals("... 5 frames in sun.reflect", lines.get(3));
+        assertTrue(lines.contains("\tSuppressed: java.lang.IllegalArgumentException: while cleaning up"));
+        int cause = lines.indexOf("Caused by: java.lang.IllegalStateException: cause of first");
+        assertTrue(cause > 0);
+        assertEquals("com.example.Dao.method(Dao.java:10)", lines.get(cause + 1));
+        assertEquals("com.example.Service.method(Service.java:20)", lines.get(cause + 2));
+        assertEquals("com.example.ServiceTest.method(ServiceTest.java:30)", lines.get(cause + 3));
+        assertEquals("... 2 more", lines.get(cause + 4));
+    }
+
+    @Test
+    public void repeatedTracesAreSentAsAReference() {
+        ThrowableEncoder encoder = new ThrowableEncoder(true);
+        encoder.encodeForLog(new Exception("unrelated"));
+        List<List<String>> encoded = new ArrayList<>();
+        for(String message : new String[]{"first", "second"}) {
+            encoded.add(encoder.encodeForLog(failure(message)));
+        }
+        assertEquals("[trace-2]", encoded.get(0).get(0));
+        List<String> repeat = encoded.get(1);
+        assertEquals("[same stack trace as trace-2]", repeat.get(0));
+        assertTrue(repeat.contains("Caused by: java.lang.IllegalStateException: cause of second"));
+        for(String line : repeat) {
+            assertFalse(line, line.startsWith("com.example."));
+        }
+    }
+
+    @Test
+    public void reasonsLookLikePrintStackTrace() {
+        Throwable failure = failure("reason");
+        String reason = new ThrowableEncoder(true).toReason(failure);
+        assertTrue(reason, reason.startsWith("reason\njava.lang.RuntimeException: reason\n\tat com.example.Service.method(Service.java:21)\n"));
+        assertTrue(reason, reason.contains("\n\t... 5 frames in sun.reflect\n"));
+        assertTrue(reason, reason.contains("\nCaused by: java.lang.IllegalStateException: cause of reason\n\tat com.example.Dao.method(Dao.java:10)\n"));
+        assertTrue(reason, reason.contains("\n\tSuppressed: java.lang.IllegalArgumentException: while cleaning up\n"));
+
+        StringWriter sw = new StringWriter();
+        failure.printStackTrace(new PrintWriter(sw));
+        assertEquals("reason\n" + sw.toString(), new ThrowableEncoder(false).toReason(failure));
+    }
+
+    @Test
+    public void circularCausesEnd() {
+        Exception first = new Exception("first");
+        Exception second = new Exception("second", first);
+        first.initCause(second);
+        List<String> lines = new ThrowableEncoder(true).encodeForLog(first);
+        assertTrue(lines.get(lines.size() - 1).startsWith("Caused by: [CIRCULAR REFERENCE: "));
+    }
+}
@@ -0,0 +1,15 @@
+package com.slickqa.junit.example;
+
+import com.slickqa.junit.SlickParallelSuite;
+import com.slickqa.junit.SlickSuite;
+import org.junit.runner.RunWith;
+
+/**
+ * The example tests, run in parallel.
+ */
+@RunWith(SlickParallelSuite.class)
+@SlickParallelSuite.Parallelism(threads = 4, methods = true)
+@SlickSuite.SuiteClasses({ExampleTest.class,
+                          AnotherExampleTest.class})
+public class ExampleParallelSuite {
+}